@@ -1,9 +1,7 @@
 package org.webguitoolkit.persistence;
 
-import java.lang.reflect.Method;
-import java.util.StringTokenizer;
-
-import javax.persistence.Transient;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.log4j.Logger;
 import org.aspectj.lang.JoinPoint;
@@ -13,12 +11,15 @@ import org.aspectj.lang.annotation.After;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.aspectj.lang.annotation.Before;
-import org.aspectj.lang.reflect.MethodSignature;
+import org.aspectj.lang.annotation.Pointcut;
+import org.aspectj.lang.reflect.CodeSignature;
 import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
 import org.webguitoolkit.persistence.model.IPersistable;
 import org.webguitoolkit.persistence.model.RelationManagement;
 import org.webguitoolkit.persistence.model.RelationManagement.Mode;
 import org.webguitoolkit.persistence.model.RelationManagementHelper;
+import org.webguitoolkit.persistence.util.PersistableClassDescriptor;
+import org.webguitoolkit.persistence.util.PersistableClassDescriptor.MethodDescriptor;
 
 /**
  * When activating this code it has impact on all depended projects
@@ -28,37 +29,85 @@ import org.webguitoolkit.persistence.model.RelationManagementHelper;
 @Aspect
 public abstract class AjModification extends AjPointcuts {
 
+	// set when a concrete modification aspect is created, i.e. the aspect is woven
+	private static volatile boolean active;
+
+	protected AjModification() {
+		active = true;
+	}
+
+	/**
+	 * @return <code>true</code> if a concrete modification aspect has been created, it attaches objects on attribute
+	 *         setters then
+	 */
+	static boolean isActive() {
+		return active;
+	}
+
 	/**
+	 * Attaches the object, records the modification and marks the object changed unless the property is transient. Also
+	 * does the attach of the registration aspect for attribute setters, see
+	 * {@link AjRegistration#attachBeforeAttributeSetterCall(Persistable)}. Uses only
+	 * the static part of the join point and records the modification without creating its text, thus the common setter
+	 * path does not allocate (except for boxing primitive values). The MethodDescriptor is cached per join point, see
+	 * {@link SetterCache}.
 	 * 
 	 * @param po
 	 * @param value
 	 */
-	@Around("onAttributeChange(po, value)")
-	public void cutLengthOnAttributeChange(ProceedingJoinPoint thisJoinPoint, Persistable po, Object value) throws Throwable {
-		// TODO-MH document
-		po.listModifications().add(thisJoinPoint.getSignature().getName() + " ( " + value + " )");
-
-		String propertyName = thisJoinPoint.getSignature().getName();
-		if (propertyName.startsWith("set")) {
-			propertyName = propertyName.substring(3, 4).toLowerCase() + propertyName.substring(4);
+	@Before("onAttributeChange(po, value)")
+	public void markOnAttributeChange(JoinPoint.StaticPart thisJoinPointStaticPart, Persistable po, Object value) {
+		attach(po);
+		MethodDescriptor method = SetterCache.getMethod(thisJoinPointStaticPart, po.getClass());
+		po.recordModification(method.getMethodName(), value);
+		if (!method.isTransient()) {
+			po.markPropertyChanged(method.getPropertyIndex());
+		}
+	}
 
-			if (isTransient(po.getClass(), propertyName)) { // no mark changed
-				thisJoinPoint.proceed(new Object[] { po, value });
-				return;
-			}
+	/**
+	 * Cuts a String value to the length of its column. Only called if the value is too long (see
+	 * {@link #onTooLongAttribute(JoinPoint.StaticPart, Persistable, Object)}), thus the join point is only created in this
+	 * case.
+	 * 
+	 * @param po
+	 * @param value
+	 */
+	@Around("onTooLongAttribute(po, value)")
+	public void cutLengthOnAttributeChange(ProceedingJoinPoint thisJoinPoint, JoinPoint.StaticPart thisJoinPointStaticPart,
+			Persistable po, Object value) throws Throwable {
+		int length = getAttributeLength(thisJoinPointStaticPart, po);
+		thisJoinPoint.proceed(new Object[] { po, ((String)value).substring(0, length) });
+	}
 
-			// cut value length
-			if (value instanceof String) {
-				String val = (String)value;
-				int length = po.getPropertyLength(propertyName);
-				if (length > 0 && val.length() > length) {
-					value = val.substring(0, length);
-				}
-			}
+	/**
+	 * An attribute setter is called with a String that is longer than the column of the property, also for setters with
+	 * a parameter of type Object
+	 */
+	@Pointcut("execution (public void org.webguitoolkit.persistence.Persistable+.set*(!(org.webguitoolkit.persistence.model.IPersistable+)) ) && target(po) && args (value) && if()")
+	public static boolean onTooLongAttribute(JoinPoint.StaticPart thisJoinPointStaticPart, Persistable po,
+			Object value) {
+		if (!(value instanceof String)) {
+			return false;
 		}
+		int length = getAttributeLength(thisJoinPointStaticPart, po);
+		return length > 0 && ((String)value).length() > length;
+	}
 
-		po.markModified(ModificationType.CHANGED);
-		thisJoinPoint.proceed(new Object[] { po, value });
+	/**
+	 * @return the length of the column of the property set by the setter, -1 if the property is transient or has no
+	 *         limit
+	 */
+	private static int getAttributeLength(JoinPoint.StaticPart setter, Persistable po) {
+		MethodDescriptor method = SetterCache.getMethod(setter, po.getClass());
+		if (method.isTransient()) {
+			return -1;
+		}
+		int length = method.getLength();
+		if (length == PersistableClassDescriptor.UNKNOWN_LENGTH) {
+			length = po.getPropertyLength(method.getPropertyName());
+		}
+		return length;
 	}
 
 	/**
@@ -71,23 +120,27 @@ public abstract class AjModification extends AjPointcuts {
 	public void cutLengthOnPropertyAdd(ProceedingJoinPoint thisJoinPoint, Persistable po, String key, String value) throws Throwable {
 		// TODO-MH document
 		// cut value length
-		String propertyName = thisJoinPoint.getSignature().getName();
-		if (propertyName.startsWith("add")) {
-			propertyName = propertyName.substring(3, 4).toLowerCase() + propertyName.substring(4);
-			if (isTransient(po.getClass(), propertyName)) { // no mark changed
+		String methodName = thisJoinPoint.getSignature().getName();
+		if (methodName.startsWith("add")) {
+			MethodDescriptor method = PersistableClassDescriptor.forClass(po.getClass()).getMethod(methodName);
+			if (method.isTransient()) { // no mark changed
 				thisJoinPoint.proceed(new Object[] { po, key, value });
 				return;
 			}
 
 			if (value instanceof String) {
-				if (propertyName.endsWith("Property"))
-					propertyName = propertyName.replaceAll("Property", "Properties");
-
-				int indexLength = po.getPropertyLength(propertyName + ".index");
+				int indexLength = method.getIndexLength();
+				int elementLength = method.getElementLength();
+				if (indexLength == PersistableClassDescriptor.UNKNOWN_LENGTH) {
+					String propertyName = method.getPropertyName();
+					if (propertyName.endsWith("Property"))
+						propertyName = propertyName.replaceAll("Property", "Properties");
+					indexLength = po.getPropertyLength(propertyName + ".index");
+					elementLength = po.getPropertyLength(propertyName + ".element");
+				}
 				if (indexLength > 0 && key.length() > indexLength) {
 					key = key.substring(0, indexLength);
 				}
-				int elementLength = po.getPropertyLength(propertyName + ".element");
 				if (elementLength > 0 && value.length() > elementLength) {
 					value = value.substring(0, elementLength);
 				}
@@ -119,8 +172,8 @@ public abstract class AjModification extends AjPointcuts {
 	@After("onRelationChange(po, partner)")
 	public void afterRelationChange(JoinPoint thisJoinPoint, Persistable po, IPersistable partner) {
 		// create change log information
-		po.listModifications().add(thisJoinPoint.getSignature().getName() + " ( " + partner + " )");
-		if (!((MethodSignature)thisJoinPoint.getSignature()).getMethod().isAnnotationPresent(RelationManagement.class)) {
+		po.recordModification(thisJoinPoint.getSignature().getName(), partner);
+		if (!isRelationManaged(po, thisJoinPoint.getSignature())) {
 			po.markModified(ModificationType.CHANGED);
 		}
 	}
@@ -139,7 +192,8 @@ public abstract class AjModification extends AjPointcuts {
 	}
 
 	/**
-	 * After the maintenance of the relationship creation between two IPersistables mark as changed.
+	 * After the maintenance of the relationship creation between two IPersistables mark as changed unless the collection is
+	 * excluded from the optimistic lock.
 	 * 
 	 * @param po
 	 * @param partner
@@ -147,8 +201,8 @@ public abstract class AjModification extends AjPointcuts {
 	@After("onRelationAdd(po, partner)")
 	public void afterRelationAdd(JoinPoint thisJoinPoint, Persistable po, IPersistable partner) {
 		// create change log information
-		po.listModifications().add(thisJoinPoint.getSignature().getName() + " ( " + partner + " )");
-		if (!((MethodSignature)thisJoinPoint.getSignature()).getMethod().isAnnotationPresent(RelationManagement.class)) {
+		po.recordModification(thisJoinPoint.getSignature().getName(), partner);
+		if (!isRelationManaged(po, thisJoinPoint.getSignature()) && isMarkCollectionChange(po, thisJoinPoint.getSignature())) {
 			po.markModified(ModificationType.CHANGED);
 		}
 	}
@@ -167,7 +221,8 @@ public abstract class AjModification extends AjPointcuts {
 	}
 
 	/**
-	 * After the maintenance of the relationship removal between two IPersistables mark as changed and do logging.
+	 * After the maintenance of the relationship removal between two IPersistables mark as changed unless the collection is
+	 * excluded from the optimistic lock and do logging.
 	 * 
 	 * @param po
 	 * @param partner
@@ -175,8 +230,8 @@ public abstract class AjModification extends AjPointcuts {
 	@After("onRelationRemove(po, partner)")
 	public void afterRelationRemove(JoinPoint thisJoinPoint, Persistable po, IPersistable partner) {
 		// create change log information
-		po.listModifications().add(thisJoinPoint.getSignature().getName() + " ( " + partner + " )");
-		if (!((MethodSignature)thisJoinPoint.getSignature()).getMethod().isAnnotationPresent(RelationManagement.class)) {
+		po.recordModification(thisJoinPoint.getSignature().getName(), partner);
+		if (!isRelationManaged(po, thisJoinPoint.getSignature()) && isMarkCollectionChange(po, thisJoinPoint.getSignature())) {
 			po.markModified(ModificationType.CHANGED);
 		}
 	}
@@ -191,7 +246,10 @@ public abstract class AjModification extends AjPointcuts {
 			return;
 		}
 		// if the aspect is called while no PersistenceManager is initialized then no attachment should occur
-		getPersistenceManager().getPersistenceUtility().attach(po);
+		PersistenceManager pm = getPersistenceManager();
+		if (pm != null) {
+			pm.attach(po);
+		}
 
 	}
 
@@ -206,19 +264,14 @@ public abstract class AjModification extends AjPointcuts {
 		if (po == null) {
 			return;
 		}
-		String methodName = sig.getName();
 		try {
-			Method m = po.getClass().getMethod(methodName, getClassesFromSignature(sig));
-			if (m.isAnnotationPresent(RelationManagement.class)) {
-				RelationManagement rel = m.getAnnotation(RelationManagement.class);
-				
+			RelationManagement rel = getRelationManagement(po, sig);
+			if (rel != null) {
 				Mode relationManagementMode = getPersistenceManager().getRelationManagementMode();
 				if( !( rel.mode() == Mode.MANUEL && relationManagementMode == Mode.MANUEL ) ){
 					// get the two field names from the Annotation
-					RelationManagementHelper.manageRelation(po, rel.thisSide(), partner, rel.relationSide(), methodName);
+					RelationManagementHelper.manageRelation(po, rel.thisSide(), partner, rel.relationSide(), sig.getName());
 				}
-				
-				
 			}
 		}
 		catch (Exception e) {
@@ -227,24 +280,22 @@ public abstract class AjModification extends AjPointcuts {
 	}
 
 	/**
+	 * Resolves the RelationManagement of the called method from the PersistableClassDescriptor of the class, thus no
+	 * reflection is needed per call.
 	 * 
-	 * @param sig
+	 * @return the RelationManagement annotation of the method of the signature or NULL
 	 */
-	protected Class<?>[] getClassesFromSignature(Signature sig) {
-		String longString = sig.toLongString();
-		String params = longString.substring(longString.indexOf('(') + 1, longString.indexOf(')'));
-		StringTokenizer str = new StringTokenizer(params, ",");
-		Class<?>[] result = new Class[str.countTokens()];
-		for (int i = 0; str.hasMoreElements();) {
-			String token = (String)str.nextElement();
-			try {
-				result[i] = Class.forName(token);
-			}
-			catch (ClassNotFoundException e) {
-				Logger.getLogger(this.getClass()).error("Error resolving class" + e);
+	protected RelationManagement getRelationManagement(Persistable po, Signature sig) {
+		MethodDescriptor method = PersistableClassDescriptor.forClass(po.getClass()).getMethod(sig.getName());
+		RelationManagement relation = method.getRelation();
+		if (relation == null && sig instanceof CodeSignature) {
+			// overloaded relation methods are resolved by the parameter type
+			Class<?>[] parameterTypes = ((CodeSignature)sig).getParameterTypes();
+			if (parameterTypes.length == 1) {
+				relation = method.getRelation(parameterTypes[0]);
 			}
 		}
-		return result;
+		return relation;
 	}
 
 	/**
@@ -256,19 +307,55 @@ public abstract class AjModification extends AjPointcuts {
 		return PersistenceContext.getPersistenceManager();
 	}
 
-	protected boolean isTransient(Class theClass, String property) {
-		boolean isTransient = true;
-		try {
-			isTransient = theClass.getDeclaredField(property).isAnnotationPresent(Transient.class);
-		}
-		catch (SecurityException e) {
-			Logger.getLogger(theClass).error("Exception when accessing field: " + property, e);
+	/**
+	 * @return <code>true</code> if the method of the signature is annotated with RelationManagement
+	 */
+	protected boolean isRelationManaged(Persistable po, Signature sig) {
+		return getRelationManagement(po, sig) != null;
+	}
+
+	/**
+	 * @return <code>false</code> if the adder or remover of the signature changes an inverse collection excluded from the
+	 *         optimistic lock, see {@link RelationManagementHelper#isMarkChange(Object, String)}
+	 */
+	protected boolean isMarkCollectionChange(Persistable po, Signature sig) {
+		MethodDescriptor method = PersistableClassDescriptor.forClass(po.getClass()).getMethod(sig.getName());
+		return RelationManagementHelper.isMarkChange(po, method.getCollectionField());
+	}
+
+	/**
+	 * The MethodDescriptor of a setter join point for the class the join point executed on first. A setter declared in a
+	 * superclass and executed on other classes resolves the descriptor of those classes by name without caching it. The
+	 * entry is resolved again if a descriptor has been registered since, see
+	 * {@link PersistableClassDescriptor#getRegistrationCount()}.
+	 */
+	private static final class SetterCache {
+		private static final ConcurrentMap<JoinPoint.StaticPart, SetterCache> byJoinPoint =
+				new ConcurrentHashMap<JoinPoint.StaticPart, SetterCache>();
+
+		private final Class<?> persistentClass;
+		private final int registrationCount;
+		private final MethodDescriptor method;
+
+		private SetterCache(Class<?> persistentClass, int registrationCount, MethodDescriptor method) {
+			this.persistentClass = persistentClass;
+			this.registrationCount = registrationCount;
+			this.method = method;
 		}
-		catch (NoSuchFieldException e) {
-			if( theClass.equals( Object.class ) )
-				return false;
-			return isTransient( theClass.getSuperclass(), property );
+
+		static MethodDescriptor getMethod(JoinPoint.StaticPart setter, Class<?> persistentClass) {
+			int registrationCount = PersistableClassDescriptor.getRegistrationCount();
+			SetterCache cached = byJoinPoint.get(setter);
+			if (cached != null && cached.registrationCount == registrationCount) {
+				if (cached.persistentClass == persistentClass) {
+					return cached.method;
+				}
+				return PersistableClassDescriptor.forClass(persistentClass).getMethod(setter.getSignature().getName());
+			}
+			MethodDescriptor method = PersistableClassDescriptor.forClass(persistentClass).getMethod(
+					setter.getSignature().getName());
+			byJoinPoint.put(setter, new SetterCache(persistentClass, registrationCount, method));
+			return method;
 		}
-		return isTransient;
 	}
 }
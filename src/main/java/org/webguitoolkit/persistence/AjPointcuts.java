@@ -61,6 +61,13 @@ public abstract class AjPointcuts {
 	void onSetterCall(Persistable po) {
 	}
 
+	/*
+	 * Setters for simple objects, the attach is done by the modification aspect
+	 */
+	@Pointcut("execution (public void org.webguitoolkit.persistence.Persistable+.set*(!(org.webguitoolkit.persistence.model.IPersistable+)) )")
+	void onAttributeSetter() {
+	}
+
 	@Pointcut("execution ( public * org.webguitoolkit.persistence.Persistable+.add*( .. )  ) && target(po)")
 	void onAddCall(Persistable po) {
 	}
@@ -2,7 +2,10 @@ package org.webguitoolkit.persistence;
 
 import java.lang.reflect.Field;
 import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.aspectj.lang.JoinPoint;
 import org.aspectj.lang.ProceedingJoinPoint;
@@ -17,7 +20,6 @@ import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
 import org.webguitoolkit.persistence.model.RelationManagement;
 import org.webguitoolkit.persistence.model.util.IPersistentWrapper;
 import org.webguitoolkit.persistence.model.util.ObserverHelper;
-import org.webguitoolkit.persistence.model.util.PersistentSet;
 import org.webguitoolkit.persistence.model.util.WrapWithObserver;
 
 /**
@@ -30,6 +32,9 @@ import org.webguitoolkit.persistence.model.util.WrapWithObserver;
 public abstract class AjRegistration extends AjPointcuts {
 
 	public static int callcount = 0;
+
+	private static final ObserverHelper<IPersistable> observerHelper = new ObserverHelper<IPersistable>();
+
 	/**
 	 * when the constructor is called
 	 */
@@ -44,22 +49,37 @@ public abstract class AjRegistration extends AjPointcuts {
 	}
 
 	/**
-	 * Attach if setXXX() is called.
+	 * Attach if setXXX() is called. Setters of simple objects are attached by AjModification together with marking the
+	 * object changed.
 	 * 
 	 * @param po
 	 */
-	@Before("onSetterCall( po )")
-	public void attachBeforeSetterCall(JoinPoint thisJoinPoint, Persistable po) {
+	@Before("onSetterCall( po ) && !onAttributeSetter()")
+	public void attachBeforeSetterCall(Persistable po) {
 		attach(po);
 	}
 
+	/**
+	 * Attach if a setter of a simple object is called and the modification aspect is not woven. Otherwise the attach is
+	 * done by {@link AjModification#markOnAttributeChange(org.aspectj.lang.JoinPoint.StaticPart, Persistable, Object)}.
+	 * The modification aspect is created on its first advice, thus the first setter may be attached by both aspects.
+	 * 
+	 * @param po
+	 */
+	@Before("onAttributeSetter() && target( po )")
+	public void attachBeforeAttributeSetterCall(Persistable po) {
+		if (!AjModification.isActive()) {
+			attach(po);
+		}
+	}
+
 	/**
 	 * Attach if addXXX() is called.
 	 * 
 	 * @param po
 	 */
 	@Before("onAddCall( po )")
-	public void attachBeforeAddCall(JoinPoint thisJoinPoint, Persistable po) {
+	public void attachBeforeAddCall(Persistable po) {
 		attach(po);
 	}
 
@@ -69,7 +89,7 @@ public abstract class AjRegistration extends AjPointcuts {
 	 * @param po
 	 */
 	@Before("onRemoveCall( po )")
-	public void attachRemoveCall(JoinPoint thisJoinPoint, Persistable po) {
+	public void attachRemoveCall(Persistable po) {
 		attach(po);
 	}
 
@@ -98,7 +118,7 @@ public abstract class AjRegistration extends AjPointcuts {
 	 * @param po
 	 */
 	@Before("onPersistableGet( po )")
-	public void attachBeforePersistableGet(JoinPoint thisJoinPoint, Persistable po) {
+	public void attachBeforePersistableGet(Persistable po) {
 		attach(po);
 	}
 
@@ -108,7 +128,7 @@ public abstract class AjRegistration extends AjPointcuts {
 	 * @param po
 	 */
 	@Before("onCollectionGet( po )")
-	public void attachBeforeCollectionGet(JoinPoint thisJoinPoint, Persistable po) {
+	public void attachBeforeCollectionGet(Persistable po) {
 		attach(po);
 	}
 
@@ -124,39 +144,92 @@ public abstract class AjRegistration extends AjPointcuts {
 	}
 	
 	/**
-	 * Attach if a collection of IPersistable is read.
+	 * Wraps a Set or List annotated with WrapWithObserver when it is read. The wrapper is cached at the owner as long as
+	 * the field holds the same collection, thus reading the field in a loop does not create garbage. Lists are not relation
+	 * managed by their wrapper.
 	 * 
 	 * @param po
 	 */
 	@Around("onCollectionGet( po )")
-	public Object wrapCollectionOnGet(ProceedingJoinPoint thisJoinPoint, Persistable po) throws Throwable{
-		
+	@SuppressWarnings("unchecked")
+	public Object wrapCollectionOnGet(ProceedingJoinPoint thisJoinPoint, JoinPoint.StaticPart thisJoinPointStaticPart,
+			Persistable po) throws Throwable {
 		Object o = thisJoinPoint.proceed();
-		Signature signature = thisJoinPoint.getSignature();
-        if(signature instanceof FieldSignature ){
-        	FieldSignature methodSignature = (FieldSignature) signature;
-        	Field field = methodSignature.getField();
-        	
-        	if( field.isAnnotationPresent( WrapWithObserver.class ) ){
-        		WrapWithObserver annotation = field.getAnnotation( WrapWithObserver.class );
-        		if(field.isAnnotationPresent( RelationManagement.class ) ){
-        			RelationManagement relationManagement = field.getAnnotation( RelationManagement.class );
-        			if(  o instanceof Set<?> && !(o instanceof PersistentSet<?> ) ){
-        				ObserverHelper observerHelper = new ObserverHelper();
-        				o = observerHelper.wrapWithObserver(po, (Set<?>)o, relationManagement.thisSide(), relationManagement.relationSide() );
-        			}
-        		}
-        		else{
-        			if(  o instanceof Set<?> && !(o instanceof PersistentSet<?> ) ){
-        				ObserverHelper observerHelper = new ObserverHelper();
-        				o = observerHelper.wrapWithObserver(po, (Set<?>)o );
-        			}
-        		}
-        	}
-        }
-
-        return o;
-	} 
+		if (!(o instanceof Set<?> || o instanceof List<?>) || o instanceof IPersistentWrapper<?>) {
+			return o;
+		}
+		CollectionWrapping wrapping = CollectionWrapping.forJoinPoint(thisJoinPointStaticPart);
+		if (wrapping == CollectionWrapping.NONE) {
+			return o;
+		}
+		IPersistentWrapper<?> wrapper = po.getCachedWrapper(wrapping, o);
+		if (wrapper == null) {
+			if (o instanceof List<?>) {
+				wrapper = observerHelper.wrapWithObserver(po, (List<IPersistable>)o);
+			}
+			else if (wrapping.thisSide != null) {
+				wrapper = observerHelper.wrapWithObserver(po, (Set<IPersistable>)o, wrapping.thisSide, wrapping.relationSide);
+			}
+			else {
+				wrapper = observerHelper.wrapWithObserver(po, (Set<IPersistable>)o);
+			}
+			po.cacheWrapper(wrapping, wrapper);
+		}
+		return wrapper;
+	}
+
+	/**
+	 * The WrapWithObserver and RelationManagement annotations of a collection field, resolved once per join point. There
+	 * is one instance per field, it is the key of the wrapper cached at the owner.
+	 */
+	private static final class CollectionWrapping {
+		private static final CollectionWrapping NONE = new CollectionWrapping(null, null);
+		private static final ConcurrentMap<JoinPoint.StaticPart, CollectionWrapping> byJoinPoint = new ConcurrentHashMap<JoinPoint.StaticPart, CollectionWrapping>();
+		private static final ConcurrentMap<Field, CollectionWrapping> byField = new ConcurrentHashMap<Field, CollectionWrapping>();
+
+		// NULL if the relation is not managed by the wrapper
+		private final String thisSide;
+		private final String relationSide;
+
+		private CollectionWrapping(String thisSide, String relationSide) {
+			this.thisSide = thisSide;
+			this.relationSide = relationSide;
+		}
+
+		static CollectionWrapping forJoinPoint(JoinPoint.StaticPart joinPoint) {
+			CollectionWrapping wrapping = byJoinPoint.get(joinPoint);
+			if (wrapping == null) {
+				wrapping = NONE;
+				Signature signature = joinPoint.getSignature();
+				if (signature instanceof FieldSignature) {
+					wrapping = forField(((FieldSignature)signature).getField());
+				}
+				byJoinPoint.putIfAbsent(joinPoint, wrapping);
+			}
+			return wrapping;
+		}
+
+		private static CollectionWrapping forField(Field field) {
+			CollectionWrapping wrapping = byField.get(field);
+			if (wrapping == null) {
+				if (!field.isAnnotationPresent(WrapWithObserver.class)) {
+					wrapping = NONE;
+				}
+				else if (field.isAnnotationPresent(RelationManagement.class)) {
+					RelationManagement relationManagement = field.getAnnotation(RelationManagement.class);
+					wrapping = new CollectionWrapping(relationManagement.thisSide(), relationManagement.relationSide());
+				}
+				else {
+					wrapping = new CollectionWrapping(null, null);
+				}
+				CollectionWrapping existing = byField.putIfAbsent(field, wrapping);
+				if (existing != null) {
+					wrapping = existing;
+				}
+			}
+			return wrapping;
+		}
+	}
 
 	/**
 	 * Attach if a map of IPersistable is read.
@@ -164,7 +237,7 @@ public abstract class AjRegistration extends AjPointcuts {
 	 * @param po
 	 */
 	@Before("onMapGet( po )")
-	public void attachBeforeMapGet(JoinPoint thisJoinPoint, Persistable po) {
+	public void attachBeforeMapGet(Persistable po) {
 		attach(po);
 	}
 
@@ -174,7 +247,7 @@ public abstract class AjRegistration extends AjPointcuts {
 	 * @param po
 	 */
 	@Before("markDeletedCall( po )")
-	public void attachBeforeMarkDeletedCall(JoinPoint thisJoinPoint, Persistable po) {
+	public void attachBeforeMarkDeletedCall(Persistable po) {
 		attach(po);
 	}
 
@@ -188,8 +261,9 @@ public abstract class AjRegistration extends AjPointcuts {
 			return;
 		}
 		// if the aspect is called while no PersistenceManager is initialized then no registration should occur
-		if (getPersistenceManager(po) != null) {
-			getPersistenceManager(po).getPersistenceUtility().attach(po);
+		PersistenceManager pm = getPersistenceManager(po);
+		if (pm != null) {
+			pm.attach(po);
 		}
 	}
 
@@ -0,0 +1,79 @@
+package org.webguitoolkit.persistence;
+
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+
+/**
+ * Describes the writes of one entity class and one operation (insert, update, delete) in a commit. The number of JDBC
+ * batches is an estimate, it is not measured: with JDBC batching enabled Hibernate should send the writes of each
+ * chunk in <code>ceil(objectCount / batchSize)</code> statements, but it may not batch at all, e.g. for identity
+ * generated ids or if the JDBC driver does not support batching of versioned data.
+ * 
+ * @see PersistenceManager#getLastCommitBatches()
+ */
+public class CommitBatch {
+
+	private final Class<?> entityClass;
+	private final ModificationType operation;
+	private int objectCount;
+	private int estimatedBatchCount;
+
+	public CommitBatch(Class<?> entityClass, ModificationType operation, int objectCount, int batchSize) {
+		this.entityClass = entityClass;
+		this.operation = operation;
+		this.objectCount = objectCount;
+		if (batchSize > 1) {
+			estimatedBatchCount = (objectCount + batchSize - 1) / batchSize;
+		}
+		else {
+			estimatedBatchCount = objectCount;
+		}
+	}
+
+	/**
+	 * @return the class of the written objects
+	 */
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	/**
+	 * @return NEW for inserts, CHANGED for updates and DELETED for deletes
+	 */
+	public ModificationType getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return the number of written objects
+	 */
+	public int getObjectCount() {
+		return objectCount;
+	}
+
+	/**
+	 * @return the expected number of JDBC batches for the objects, see the class comment
+	 */
+	public int getEstimatedBatchCount() {
+		return estimatedBatchCount;
+	}
+
+	/**
+	 * @return <code>true</code> if the batch has the same class and operation
+	 */
+	boolean isSameGroup(CommitBatch other) {
+		return entityClass == other.entityClass && operation == other.operation;
+	}
+
+	/**
+	 * adds the writes of another chunk of the commit
+	 */
+	void add(CommitBatch other) {
+		objectCount += other.objectCount;
+		estimatedBatchCount += other.estimatedBatchCount;
+	}
+
+	public String toString() {
+		return entityClass.getSimpleName() + " " + operation + " " + objectCount + " objects in about "
+				+ estimatedBatchCount + " batches";
+	}
+}
@@ -0,0 +1,201 @@
+package org.webguitoolkit.persistence;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.webguitoolkit.persistence.CommitStatistics.Phase;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+
+/**
+ * The timers and counters of one commit or rollback. The measurement is bound to the thread that runs the commit, thus
+ * the persistence utilities can count the prepared statements and entity writes without a reference to the
+ * PersistenceManager.
+ * 
+ * @see CommitStatistics
+ */
+public class CommitMeasurement {
+
+	/**
+	 * The result of the measured operation
+	 */
+	public enum Outcome {
+		COMMITTED, FAILED, ROLLED_BACK
+	}
+
+	private static final ThreadLocal<CommitMeasurement> current = new ThreadLocal<CommitMeasurement>();
+
+	private final String userid;
+	private final long startNanos;
+	private long lastNanos;
+	private long endNanos;
+	private final long[] phaseNanos = new long[Phase.values().length];
+	private final int[] objectCounts = new int[ModificationType.values().length];
+	private final Set<Class<?>> entityClasses = new LinkedHashSet<Class<?>>();
+	private int preparedStatementCount;
+	private int entityWriteCount;
+	private int restoredCount;
+	private int refreshedCount;
+	private Outcome outcome;
+
+	private CommitMeasurement(String userid) {
+		this.userid = userid;
+		startNanos = System.nanoTime();
+		lastNanos = startNanos;
+	}
+
+	/**
+	 * starts a measurement for the current thread if there is none yet
+	 * 
+	 * @return the new measurement or NULL if there is already a measurement running
+	 */
+	static CommitMeasurement start(String userid) {
+		if (current.get() != null) {
+			return null;
+		}
+		CommitMeasurement measurement = new CommitMeasurement(userid);
+		current.set(measurement);
+		return measurement;
+	}
+
+	/**
+	 * @return the measurement of the commit running in the current thread or NULL
+	 */
+	public static CommitMeasurement current() {
+		return current.get();
+	}
+
+	/**
+	 * stops the measurement and unbinds it from the current thread
+	 */
+	void finish(Outcome newOutcome) {
+		endNanos = System.nanoTime();
+		outcome = newOutcome;
+		if (current.get() == this) {
+			current.remove();
+		}
+	}
+
+	/**
+	 * adds the time since the end of the last phase to the passed phase
+	 */
+	void endPhase(Phase phase) {
+		long now = System.nanoTime();
+		phaseNanos[phase.ordinal()] += now - lastNanos;
+		lastNanos = now;
+	}
+
+	/**
+	 * counts an object written by the commit
+	 */
+	void countObject(ModificationType type, Class<?> entityClass) {
+		objectCounts[type.ordinal()]++;
+		entityClasses.add(entityClass);
+	}
+
+	/**
+	 * counts a statement prepared during the commit, including queries. A statement executed several times, e.g. in a
+	 * JDBC batch, is counted once.
+	 */
+	public void countPreparedStatement() {
+		preparedStatementCount++;
+	}
+
+	/**
+	 * counts an entity inserted, updated or deleted during the commit. Collection rows and bulk updates are not counted.
+	 */
+	public void countEntityWrite() {
+		entityWriteCount++;
+	}
+
+	/**
+	 * counts an object restored from its pre-image during rollback
+	 */
+	public void countRestored() {
+		restoredCount++;
+	}
+
+	/**
+	 * counts an object refreshed from the database during rollback
+	 */
+	public void countRefreshed() {
+		refreshedCount++;
+	}
+
+	public String getUserid() {
+		return userid;
+	}
+
+	public long getTotalNanos() {
+		return (endNanos == 0 ? System.nanoTime() : endNanos) - startNanos;
+	}
+
+	public long getPhaseNanos(Phase phase) {
+		return phaseNanos[phase.ordinal()];
+	}
+
+	public int getObjectCount(ModificationType type) {
+		return objectCounts[type.ordinal()];
+	}
+
+	public Set<Class<?>> getEntityClasses() {
+		return entityClasses;
+	}
+
+	public int getPreparedStatementCount() {
+		return preparedStatementCount;
+	}
+
+	public int getEntityWriteCount() {
+		return entityWriteCount;
+	}
+
+	public int getRestoredCount() {
+		return restoredCount;
+	}
+
+	public int getRefreshedCount() {
+		return refreshedCount;
+	}
+
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * @return one line with the breakdown of the commit, e.g.<br>
+	 *         <code>outcome=COMMITTED user=test totalMs=1200 beginMs=0 saveMs=130 ... classes=[TestObject]</code>
+	 */
+	public String toLogLine() {
+		StringBuilder line = new StringBuilder(256);
+		line.append("outcome=").append(outcome);
+		line.append(" user=").append(userid);
+		line.append(" totalMs=").append(toMillis(getTotalNanos()));
+		for (Phase phase : Phase.values()) {
+			line.append(' ').append(phase.getKey()).append("Ms=").append(toMillis(getPhaseNanos(phase)));
+		}
+		line.append(" new=").append(getObjectCount(ModificationType.NEW));
+		line.append(" changed=").append(getObjectCount(ModificationType.CHANGED));
+		line.append(" deleted=").append(getObjectCount(ModificationType.DELETED));
+		line.append(" preparedStatements=").append(preparedStatementCount);
+		line.append(" entityWrites=").append(entityWriteCount);
+		if (outcome == Outcome.ROLLED_BACK) {
+			line.append(" restored=").append(restoredCount);
+			line.append(" refreshed=").append(refreshedCount);
+		}
+		line.append(" classes=[");
+		boolean first = true;
+		for (Class<?> entityClass : entityClasses) {
+			if (!first) {
+				line.append(',');
+			}
+			line.append(entityClass.getSimpleName());
+			first = false;
+		}
+		line.append(']');
+		return line.toString();
+	}
+
+	static long toMillis(long nanos) {
+		return nanos / 1000000L;
+	}
+}
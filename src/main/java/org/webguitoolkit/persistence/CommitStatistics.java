@@ -0,0 +1,413 @@
+package org.webguitoolkit.persistence;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.webguitoolkit.persistence.CommitMeasurement.Outcome;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+
+/**
+ * Aggregated timers and counters of commits and rollbacks. Each PersistenceManager has its own statistics, additionally
+ * all commits are aggregated in the global statistics which are registered at the platform MBean server as
+ * <code>org.webguitoolkit.persistence:type=CommitStatistics,name=global</code>.
+ *
+ * @see PersistenceManager#getCommitStatistics()
+ */
+public class CommitStatistics implements CommitStatisticsMBean {
+
+	/**
+	 * The measured phases of a commit or rollback
+	 */
+	public enum Phase {
+		/**
+		 * beginTransaction
+		 */
+		BEGIN("begin"),
+		/**
+		 * the version check of the changed and deleted objects before they are written
+		 */
+		PREFLIGHT("preflight"),
+		/**
+		 * the save/update/delete loop
+		 */
+		SAVE("save"),
+		/**
+		 * creating and publishing the change records
+		 */
+		CHANGE_LOG("changeLog"),
+		/**
+		 * the flush of the session
+		 */
+		FLUSH("flush"),
+		/**
+		 * commitTransaction
+		 */
+		COMMIT("commit"),
+		/**
+		 * resetting the written objects
+		 */
+		CLEANUP("cleanup"),
+		/**
+		 * refreshing the changed and deleted objects during rollback
+		 */
+		REFRESH("refresh"),
+		/**
+		 * rollbackTransaction
+		 */
+		ROLLBACK("rollback");
+
+		private final String key;
+
+		private Phase(String key) {
+			this.key = key;
+		}
+
+		/**
+		 * @return the name of the phase in the slow commit log
+		 */
+		public String getKey() {
+			return key;
+		}
+	}
+
+	public static final String GLOBAL_OBJECT_NAME = "org.webguitoolkit.persistence:type=CommitStatistics,name=global";
+
+	private static Log log = LogFactory.getLog(CommitStatistics.class);
+	private static CommitStatistics global;
+
+	private final AtomicLong commitCount = new AtomicLong();
+	private final AtomicLong failedCommitCount = new AtomicLong();
+	private final AtomicLong rollbackCount = new AtomicLong();
+	private final AtomicLong slowCommitCount = new AtomicLong();
+	private final AtomicLong totalCommitNanos = new AtomicLong();
+	private final AtomicLong maxCommitNanos = new AtomicLong();
+	private final AtomicLongArray phaseNanos = new AtomicLongArray(Phase.values().length);
+	private final AtomicLongArray objectCounts = new AtomicLongArray(ModificationType.values().length);
+	private final AtomicLong preparedStatementCount = new AtomicLong();
+	private final AtomicLong entityWriteCount = new AtomicLong();
+	private final AtomicLong restoredCount = new AtomicLong();
+	private final AtomicLong refreshedCount = new AtomicLong();
+	private final AtomicLong retryCount = new AtomicLong();
+	private final AtomicLong exhaustedRetryCount = new AtomicLong();
+	private final AtomicLong mergeCount = new AtomicLong();
+	private final ConcurrentHashMap<String, AtomicLong> conflictCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * @return the statistics of all commits, registered at the platform MBean server on first access
+	 */
+	public static synchronized CommitStatistics getGlobal() {
+		if (global == null) {
+			global = new CommitStatistics();
+			global.registerMBean(GLOBAL_OBJECT_NAME);
+		}
+		return global;
+	}
+
+	/**
+	 * registers the statistics at the platform MBean server. If the name is already registered, e.g. by another web
+	 * application on the same server, the key <code>instance=2</code>, <code>3</code>, ... is added to the name.
+	 *
+	 * @param objectName the JMX object name, e.g. <code>org.webguitoolkit.persistence:type=CommitStatistics,name=myApp</code>
+	 * @return the name the statistics are registered with, NULL if the registration failed
+	 */
+	public String registerMBean(String objectName) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(objectName);
+			for (int instance = 2; server.isRegistered(name); instance++) {
+				name = new ObjectName(objectName + ",instance=" + instance);
+			}
+			server.registerMBean(this, name);
+			if (!objectName.equals(name.toString())) {
+				log.info("Commit statistics " + objectName + " already registered, registered as " + name);
+			}
+			return name.toString();
+		}
+		catch (Exception e) {
+			log.warn("Cannot register commit statistics as " + objectName, e);
+			return null;
+		}
+	}
+
+	/**
+	 * unregisters the statistics from the platform MBean server
+	 */
+	public void unregisterMBean(String objectName) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(objectName);
+			if (server.isRegistered(name)) {
+				server.unregisterMBean(name);
+			}
+		}
+		catch (Exception e) {
+			log.warn("Cannot unregister commit statistics " + objectName, e);
+		}
+	}
+
+	/**
+	 * adds a finished measurement to the statistics
+	 *
+	 * @param slow <code>true</code> if the commit exceeded the slow commit threshold
+	 */
+	public void add(CommitMeasurement measurement, boolean slow) {
+		switch( measurement.getOutcome() ){
+			case COMMITTED:
+				commitCount.incrementAndGet();
+				break;
+			case FAILED:
+				failedCommitCount.incrementAndGet();
+				break;
+			case ROLLED_BACK:
+				rollbackCount.incrementAndGet();
+				break;
+		}
+		if (slow) {
+			slowCommitCount.incrementAndGet();
+		}
+		long nanos = measurement.getTotalNanos();
+		if (measurement.getOutcome() != Outcome.ROLLED_BACK) {
+			totalCommitNanos.addAndGet(nanos);
+			long max = maxCommitNanos.get();
+			while (nanos > max && !maxCommitNanos.compareAndSet(max, nanos)) {
+				max = maxCommitNanos.get();
+			}
+		}
+		for (Phase phase : Phase.values()) {
+			phaseNanos.addAndGet(phase.ordinal(), measurement.getPhaseNanos(phase));
+		}
+		for (ModificationType type : ModificationType.values()) {
+			objectCounts.addAndGet(type.ordinal(), measurement.getObjectCount(type));
+		}
+		preparedStatementCount.addAndGet(measurement.getPreparedStatementCount());
+		entityWriteCount.addAndGet(measurement.getEntityWriteCount());
+		restoredCount.addAndGet(measurement.getRestoredCount());
+		refreshedCount.addAndGet(measurement.getRefreshedCount());
+	}
+
+	public long getCommitCount() {
+		return commitCount.get();
+	}
+
+	public long getFailedCommitCount() {
+		return failedCommitCount.get();
+	}
+
+	public long getRollbackCount() {
+		return rollbackCount.get();
+	}
+
+	public long getSlowCommitCount() {
+		return slowCommitCount.get();
+	}
+
+	public long getTotalCommitMillis() {
+		return CommitMeasurement.toMillis(totalCommitNanos.get());
+	}
+
+	public long getMaxCommitMillis() {
+		return CommitMeasurement.toMillis(maxCommitNanos.get());
+	}
+
+	public double getAverageCommitMillis() {
+		long count = commitCount.get() + failedCommitCount.get();
+		if (count == 0) {
+			return 0;
+		}
+		return totalCommitNanos.get() / 1000000d / count;
+	}
+
+	/**
+	 * @return the time spent in the phase in milliseconds
+	 */
+	public long getPhaseMillis(Phase phase) {
+		return CommitMeasurement.toMillis(phaseNanos.get(phase.ordinal()));
+	}
+
+	public long getBeginMillis() {
+		return getPhaseMillis(Phase.BEGIN);
+	}
+
+	public long getPreflightMillis() {
+		return getPhaseMillis(Phase.PREFLIGHT);
+	}
+
+	public long getSaveMillis() {
+		return getPhaseMillis(Phase.SAVE);
+	}
+
+	public long getChangeLogMillis() {
+		return getPhaseMillis(Phase.CHANGE_LOG);
+	}
+
+	public long getFlushMillis() {
+		return getPhaseMillis(Phase.FLUSH);
+	}
+
+	public long getTransactionCommitMillis() {
+		return getPhaseMillis(Phase.COMMIT);
+	}
+
+	public long getCleanupMillis() {
+		return getPhaseMillis(Phase.CLEANUP);
+	}
+
+	public long getRefreshMillis() {
+		return getPhaseMillis(Phase.REFRESH);
+	}
+
+	public long getTransactionRollbackMillis() {
+		return getPhaseMillis(Phase.ROLLBACK);
+	}
+
+	/**
+	 * @return the number of written objects of the type
+	 */
+	public long getObjectCount(ModificationType type) {
+		return objectCounts.get(type.ordinal());
+	}
+
+	public long getNewObjectCount() {
+		return getObjectCount(ModificationType.NEW);
+	}
+
+	public long getChangedObjectCount() {
+		return getObjectCount(ModificationType.CHANGED);
+	}
+
+	public long getDeletedObjectCount() {
+		return getObjectCount(ModificationType.DELETED);
+	}
+
+	/**
+	 * @return the number of statements prepared by the commits including queries, see
+	 *         {@link CommitMeasurement#countPreparedStatement()}
+	 */
+	public long getPreparedStatementCount() {
+		return preparedStatementCount.get();
+	}
+
+	/**
+	 * @return the number of entities inserted, updated or deleted by the commits
+	 */
+	public long getEntityWriteCount() {
+		return entityWriteCount.get();
+	}
+
+	/**
+	 * @return the number of objects restored from their pre-image by a rollback
+	 */
+	public long getRestoredObjectCount() {
+		return restoredCount.get();
+	}
+
+	/**
+	 * @return the number of objects refreshed from the database by a rollback
+	 */
+	public long getRefreshedObjectCount() {
+		return refreshedCount.get();
+	}
+
+	/**
+	 * counts a unit of work that failed because objects of the class have been changed concurrently
+	 *
+	 * @see PersistenceManager#execute(UnitOfWork, RetryPolicy)
+	 */
+	public void countConflict(Class<?> entityClass) {
+		AtomicLong count = conflictCounts.get(entityClass.getName());
+		if (count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = conflictCounts.putIfAbsent(entityClass.getName(), newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		count.incrementAndGet();
+	}
+
+	/**
+	 * counts a replay of a unit of work after a conflict
+	 */
+	public void countRetry() {
+		retryCount.incrementAndGet();
+	}
+
+	/**
+	 * counts a unit of work that still failed after the last attempt of its retry policy
+	 */
+	public void countExhaustedRetries() {
+		exhaustedRetryCount.incrementAndGet();
+	}
+
+	/**
+	 * counts a commit whose changes have been merged with a concurrent change
+	 *
+	 * @see PersistenceManager#setMergeConcurrentChanges(boolean)
+	 */
+	public void countMerge() {
+		mergeCount.incrementAndGet();
+	}
+
+	public long getMergeCount() {
+		return mergeCount.get();
+	}
+
+	public long getRetryCount() {
+		return retryCount.get();
+	}
+
+	public long getExhaustedRetryCount() {
+		return exhaustedRetryCount.get();
+	}
+
+	/**
+	 * @return the number of failed units of work in which objects of the class have been changed concurrently
+	 */
+	public long getConflictCount(Class<?> entityClass) {
+		AtomicLong count = conflictCounts.get(entityClass.getName());
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * @return the conflict counts by class name, the classes with a high count are the hot spots of the application
+	 */
+	public Map<String, Long> getConflictCounts() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (Map.Entry<String, AtomicLong> entry : conflictCounts.entrySet()) {
+			result.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+		}
+		return result;
+	}
+
+	public void reset() {
+		commitCount.set(0);
+		failedCommitCount.set(0);
+		rollbackCount.set(0);
+		slowCommitCount.set(0);
+		totalCommitNanos.set(0);
+		maxCommitNanos.set(0);
+		for (int i = 0; i < phaseNanos.length(); i++) {
+			phaseNanos.set(i, 0);
+		}
+		for (int i = 0; i < objectCounts.length(); i++) {
+			objectCounts.set(i, 0);
+		}
+		preparedStatementCount.set(0);
+		entityWriteCount.set(0);
+		restoredCount.set(0);
+		refreshedCount.set(0);
+		retryCount.set(0);
+		exhaustedRetryCount.set(0);
+		mergeCount.set(0);
+		conflictCounts.clear();
+	}
+}
@@ -0,0 +1,71 @@
+package org.webguitoolkit.persistence;
+
+import java.util.Map;
+
+/**
+ * JMX interface of the {@link CommitStatistics}. All times are in milliseconds.
+ */
+public interface CommitStatisticsMBean {
+
+	long getCommitCount();
+
+	long getFailedCommitCount();
+
+	long getRollbackCount();
+
+	long getSlowCommitCount();
+
+	long getTotalCommitMillis();
+
+	long getMaxCommitMillis();
+
+	double getAverageCommitMillis();
+
+	long getBeginMillis();
+
+	long getPreflightMillis();
+
+	long getSaveMillis();
+
+	long getChangeLogMillis();
+
+	long getFlushMillis();
+
+	long getTransactionCommitMillis();
+
+	long getCleanupMillis();
+
+	long getRefreshMillis();
+
+	long getTransactionRollbackMillis();
+
+	long getNewObjectCount();
+
+	long getChangedObjectCount();
+
+	long getDeletedObjectCount();
+
+	long getPreparedStatementCount();
+
+	long getEntityWriteCount();
+
+	long getRestoredObjectCount();
+
+	long getRefreshedObjectCount();
+
+	long getMergeCount();
+
+	long getRetryCount();
+
+	long getExhaustedRetryCount();
+
+	/**
+	 * @return the number of concurrent changes by class name
+	 */
+	Map<String, Long> getConflictCounts();
+
+	/**
+	 * sets all counters to 0
+	 */
+	void reset();
+}
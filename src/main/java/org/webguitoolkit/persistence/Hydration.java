@@ -0,0 +1,81 @@
+package org.webguitoolkit.persistence;
+
+import org.hibernate.proxy.HibernateProxy;
+
+/**
+ * Marks the construction of a Persistable that is loaded from the database. The persistence provider calls
+ * {@link #begin(Class)} right before it instantiates an entity through the no-arg constructor, the constructor of the
+ * Persistable then skips generating the object UID and the creation date because both are overwritten with the values
+ * of the database anyway.
+ * <p>
+ * The mark is bound to the current thread and consumed by the next constructed Persistable. It only applies if that
+ * object is of the passed class, thus a mark that has not been consumed (e.g. the instantiation failed) does not
+ * affect other objects. Objects created with <code>new</code> keep generating the object UID and creation date.
+ *
+ * @see org.webguitoolkit.persistence.util.HydrationInterceptor
+ */
+public final class Hydration {
+
+	private static final ThreadLocal<Class<?>[]> pending = new ThreadLocal<Class<?>[]>() {
+		@Override
+		protected Class<?>[] initialValue() {
+			return new Class<?>[1];
+		}
+	};
+
+	private static volatile boolean enabled = true;
+
+	private Hydration() {
+		// static helper
+	}
+
+	/**
+	 * marks the next constructed Persistable of the class as loaded from the database
+	 */
+	public static void begin(Class<?> entityClass) {
+		if (enabled) {
+			pending.get()[0] = entityClass;
+		}
+	}
+
+	/**
+	 * removes a mark that has not been consumed
+	 */
+	public static void end() {
+		pending.get()[0] = null;
+	}
+
+	/**
+	 * @return <code>false</code> if the cheap construction of loaded objects is switched off
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * switches the cheap construction of loaded objects on or off (default on)
+	 */
+	public static void setEnabled(boolean enabled) {
+		Hydration.enabled = enabled;
+	}
+
+	/**
+	 * Called by the constructor of Persistable, consumes the mark of the current thread.
+	 *
+	 * @return <code>true</code> if the object is loaded from the database or is a proxy, thus the object UID and creation
+	 *         date must not be generated
+	 */
+	static boolean isHydrating(Persistable instance) {
+		if (instance instanceof HibernateProxy) {
+			// the state of a proxy is never used, it delegates to the loaded object
+			return true;
+		}
+		Class<?>[] mark = pending.get();
+		if (mark[0] == null) {
+			return false;
+		}
+		boolean hydrating = mark[0] == instance.getClass();
+		mark[0] = null;
+		return hydrating;
+	}
+}
@@ -0,0 +1,40 @@
+package org.webguitoolkit.persistence;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.webguitoolkit.persistence.model.IPersistable;
+
+/**
+ * This Exception will be thrown if the changes of a commit could not be merged with a concurrent change of the same
+ * objects because both changed the same properties. The objects hold the state of the database afterwards.
+ *
+ * @see PersistenceManager#setMergeConcurrentChanges(boolean)
+ */
+public class MergeConflictException extends ConcurrentChangeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Map<IPersistable, List<String>> conflicts;
+
+	public MergeConflictException(String msg, Exception root, Map<IPersistable, List<String>> conflicts) {
+		super(msg + ": " + conflicts, root);
+		this.conflicts = Collections.unmodifiableMap(conflicts);
+	}
+
+	/**
+	 * @return the names of the properties changed by both sides by object
+	 */
+	public Map<IPersistable, List<String>> getConflicts() {
+		return conflicts;
+	}
+
+	/**
+	 * @return the names of the properties of the object changed by both sides, empty if the object has no conflict
+	 */
+	public List<String> getConflictingProperties(IPersistable po) {
+		List<String> properties = conflicts.get(po);
+		return properties == null ? Collections.<String> emptyList() : properties;
+	}
+}
@@ -0,0 +1,196 @@
+package org.webguitoolkit.persistence;
+
+import java.lang.reflect.Array;
+import java.util.Date;
+
+import org.hibernate.proxy.HibernateProxy;
+import org.hibernate.proxy.LazyInitializer;
+import org.webguitoolkit.persistence.changelog.ChangeRecord;
+import org.webguitoolkit.persistence.model.IPersistable;
+
+/**
+ * The modifications of a Persistable since the last commit or rollback in a compact form: the name of the called
+ * method and the passed value are kept, the text <code>setXyz ( value )</code> for the change log is created only when
+ * it is requested, for the change log by the sink that writes it. Only a few kinds of values are replaced when they
+ * are recorded, see {@link #toLogValue(Object)}. Thus a lazy partner is not loaded for the text and a large value like
+ * a byte array is not kept until the commit.
+ * <p>
+ * Is not a Collection on purpose, reading the field must not trigger the collection advice of the aspects.
+ */
+final class ModificationList {
+
+	// marks texts added as a whole, e.g. by listModifications().add()
+	private static final Object NO_VALUE = ChangeRecord.NO_VALUE;
+
+	private String[] names;
+	private Object[] values;
+	private int size;
+
+	/**
+	 * records the call of a method with the value
+	 */
+	void add(String methodName, Object value) {
+		add(size, methodName, value);
+	}
+
+	/**
+	 * records the call of a method with the value at the position
+	 */
+	void add(int index, String methodName, Object value) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		if (names == null) {
+			names = new String[4];
+			values = new Object[4];
+		}
+		else if (size == names.length) {
+			String[] newNames = new String[size * 2];
+			Object[] newValues = new Object[size * 2];
+			System.arraycopy(names, 0, newNames, 0, size);
+			System.arraycopy(values, 0, newValues, 0, size);
+			names = newNames;
+			values = newValues;
+		}
+		System.arraycopy(names, index, names, index + 1, size - index);
+		System.arraycopy(values, index, values, index + 1, size - index);
+		names[index] = methodName;
+		values[index] = toLogValue(value);
+		size++;
+	}
+
+	/**
+	 * records a complete text at the position
+	 */
+	void addText(int index, String text) {
+		add(index, text, NO_VALUE);
+	}
+
+	/**
+	 * replaces the modification at the position by a complete text
+	 */
+	void setText(int index, String text) {
+		checkIndex(index);
+		names[index] = text;
+		values[index] = NO_VALUE;
+	}
+
+	/**
+	 * removes the modification at the position
+	 */
+	void remove(int index) {
+		checkIndex(index);
+		System.arraycopy(names, index + 1, names, index, size - index - 1);
+		System.arraycopy(values, index + 1, values, index, size - index - 1);
+		size--;
+		names[size] = null;
+		values[size] = null;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * @return the text of the modification, calls toString() of the value
+	 */
+	String getText(int index) {
+		checkIndex(index);
+		if (values[index] == NO_VALUE) {
+			return names[index];
+		}
+		return names[index] + " ( " + values[index] + " )";
+	}
+
+	/**
+	 * @return the names of the modifications for a change record
+	 */
+	String[] getNames() {
+		String[] result = new String[size];
+		System.arraycopy(names, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * @return the values of the modifications for a change record
+	 */
+	Object[] getLogValues() {
+		Object[] result = new Object[size];
+		System.arraycopy(values, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * @return the value itself, its text is created when the change log is written. Only these values are replaced: a
+	 *         Persistable by a reference to its key (to its identifier if it is an uninitialized proxy), an array by a
+	 *         reference to its type and length and a Date by a copy, since setters usually keep the passed Date.
+	 */
+	static Object toLogValue(Object value) {
+		if (value == null || value == NO_VALUE || value instanceof String || value instanceof Number
+				|| value instanceof Boolean || value instanceof Character || value instanceof Enum<?>) {
+			return value;
+		}
+		if (value instanceof Date) {
+			// the only mutable type that is changed in place commonly
+			return ((Date)value).clone();
+		}
+		if (value instanceof HibernateProxy) {
+			LazyInitializer initializer = ((HibernateProxy)value).getHibernateLazyInitializer();
+			if (initializer.isUninitialized()) {
+				return new PersistableReference(initializer.getPersistentClass(), initializer.getIdentifier());
+			}
+			value = initializer.getImplementation();
+		}
+		if (value instanceof IPersistable) {
+			return new PersistableReference(value.getClass(), ((IPersistable)value).getKey());
+		}
+		if (value.getClass().isArray()) {
+			return new ArrayReference(value.getClass().getComponentType(), Array.getLength(value));
+		}
+		return value;
+	}
+
+	/**
+	 * a Persistable in the change log, formatted like Persistable.toString()
+	 */
+	private static final class PersistableReference {
+
+		private final Class<?> persistentClass;
+		private final Object key;
+
+		PersistableReference(Class<?> persistentClass, Object key) {
+			this.persistentClass = persistentClass;
+			this.key = key;
+		}
+
+		@Override
+		public String toString() {
+			return persistentClass.getSimpleName() + "{ " + key + " }";
+		}
+	}
+
+	/**
+	 * an array in the change log, formatted as its type and length
+	 */
+	private static final class ArrayReference {
+
+		private final Class<?> componentType;
+		private final int length;
+
+		ArrayReference(Class<?> componentType, int length) {
+			this.componentType = componentType;
+			this.length = length;
+		}
+
+		@Override
+		public String toString() {
+			return componentType.getSimpleName() + "[" + length + "]";
+		}
+	}
+}
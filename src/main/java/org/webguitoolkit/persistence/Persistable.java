@@ -4,7 +4,8 @@
 package org.webguitoolkit.persistence;
 
 import java.sql.Timestamp;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.BitSet;
 import java.util.List;
 
 import javax.persistence.Column;
@@ -19,7 +20,10 @@ import javax.persistence.Version;
 import org.hibernate.annotations.Index;
 import org.hibernate.annotations.OptimisticLock;
 import org.webguitoolkit.persistence.model.IPersistable;
-import org.webguitoolkit.persistence.util.UIDGenerator;
+import org.webguitoolkit.persistence.model.util.IPersistentWrapper;
+import org.webguitoolkit.persistence.util.IUIDStrategy;
+import org.webguitoolkit.persistence.util.PersistableClassDescriptor;
+import org.webguitoolkit.persistence.util.UIDStrategies;
 
 /**
  * Base class for the persistence framework. Classes which are indented to be made persistent should extend this class or
@@ -54,7 +58,18 @@ public abstract class Persistable implements IPersistable {
 	@Transient
 	private ModificationType modificationType = ModificationType.NONE;
 	@Transient
-	private List<String> modifications = new ArrayList<String>(1);
+	private ModificationList modifications;
+	// the indexes of the changed properties (see PersistableClassDescriptor) if the object has been changed by setters only
+	@Transient
+	private BitSet modifiedProperties;
+	@Transient
+	private boolean untrackedModification;
+	// the attach epoch of the PersistenceManager in which the object has been attached last, 0 if never. Accessed as field
+	// by the PersistenceManager because a method call on a Hibernate proxy would initialize it.
+	@Transient
+	int attachEpoch;
+	@Transient
+	private WrapperCache wrappers;
 
 	@Id
 	@GeneratedValue(strategy = GenerationType.AUTO)
@@ -70,7 +85,7 @@ public abstract class Persistable implements IPersistable {
 	private long objectUId;
 
 	@Column(name = "CREATED_AT")
-	private Timestamp createdAt = new Timestamp(System.currentTimeMillis());
+	private Timestamp createdAt;
 
 	@Column(name = "CREATED_BY", length = 32)
 	@OptimisticLock(excluded = true)
@@ -86,6 +101,7 @@ public abstract class Persistable implements IPersistable {
 
 	protected void setModificationTimestamp() {
 		modifiedAt = new Timestamp(System.currentTimeMillis());
+		markPropertyModified(ATTRIBUTE_MODIFIED_AT);
 	}
 
 	/* (non-Javadoc)
@@ -111,6 +127,7 @@ public abstract class Persistable implements IPersistable {
 
 	protected void setModifiedBy(String modifiedBy) {
 		this.modifiedBy = modifiedBy;
+		markPropertyModified(ATTRIBUTE_MODIFIED_BY);
 	}
 
 	/**
@@ -118,6 +135,7 @@ public abstract class Persistable implements IPersistable {
 	 */
 	protected void setCreatedBy(String createdBy) {
 		this.createdBy = createdBy;
+		markPropertyModified("createdBy");
 	}
 
 	/**
@@ -132,11 +150,15 @@ public abstract class Persistable implements IPersistable {
 	 */
 
 	/**
-	 * Constructor that creates an unique ID
+	 * Constructor that creates an unique ID and sets the creation date. Both are skipped if the object is instantiated
+	 * to be loaded from the database, see {@link Hydration}.
 	 */
 	protected Persistable() {
 		super();
-		setGeneratedObjectUId();
+		if (!Hydration.isHydrating(this)) {
+			createdAt = new Timestamp(System.currentTimeMillis());
+			setGeneratedObjectUId();
+		}
 	}
 
 	/*
@@ -166,7 +188,17 @@ public abstract class Persistable implements IPersistable {
 	 */
 
 	protected void setGeneratedObjectUId() {
-		objectUId = UIDGenerator.getInstance().getUID();
+		objectUId = getUIDStrategy().nextUID();
+	}
+
+	/**
+	 * Called by the constructor, thus overriding methods must not use the state of the object. By default the strategy
+	 * registered for the class or a superclass at UIDStrategies is used.
+	 * 
+	 * @return the strategy that creates the object UID
+	 */
+	protected IUIDStrategy getUIDStrategy() {
+		return UIDStrategies.getStrategy(getClass());
 	}
 
 	public long getVersionNo() {
@@ -198,10 +230,88 @@ public abstract class Persistable implements IPersistable {
 		return modificationType == ModificationType.DELETED;
 	}
 
+	/**
+	 * @return the texts of the modifications since the last commit or rollback, a modifiable view of the recorded
+	 *         modifications. The texts are created on each access, texts added or set are recorded as they are. Use
+	 *         {@link #recordModification(String, Object)} to record a modification.
+	 */
 	protected List<String> listModifications() {
+		return new AbstractList<String>() {
+			@Override
+			public String get(int index) {
+				if (modifications == null) {
+					throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+				}
+				return modifications.getText(index);
+			}
+
+			@Override
+			public int size() {
+				return modifications == null ? 0 : modifications.size();
+			}
+
+			@Override
+			public void add(int index, String text) {
+				getModificationList().addText(index, text);
+				modCount++;
+			}
+
+			@Override
+			public String set(int index, String text) {
+				String previous = get(index);
+				modifications.setText(index, text);
+				return previous;
+			}
+
+			@Override
+			public String remove(int index) {
+				String previous = get(index);
+				modifications.remove(index);
+				modCount++;
+				return previous;
+			}
+		};
+	}
+
+	/**
+	 * Records the call of a modifying method, the text for the change log is created when the change log is written.
+	 * 
+	 * @param methodName the name of the called method
+	 * @param value the passed value
+	 */
+	protected void recordModification(String methodName, Object value) {
+		getModificationList().add(methodName, value);
+	}
+
+	/**
+	 * @return the modifications since the last commit or rollback, NULL if there are none
+	 */
+	ModificationList getRecordedModifications() {
 		return modifications;
 	}
 
+	private ModificationList getModificationList() {
+		if (modifications == null) {
+			modifications = new ModificationList();
+		}
+		return modifications;
+	}
+
+	/**
+	 * @param fieldKey the key of the wrapped collection field, compared by identity
+	 * @return the cached wrapper of the collection or NULL if the field holds another collection now
+	 */
+	IPersistentWrapper<?> getCachedWrapper(Object fieldKey, Object collection) {
+		return wrappers == null ? null : wrappers.get(fieldKey, collection);
+	}
+
+	void cacheWrapper(Object fieldKey, IPersistentWrapper<?> wrapper) {
+		if (wrappers == null) {
+			wrappers = new WrapperCache();
+		}
+		wrappers.put(fieldKey, wrapper);
+	}
+
 	public void markChangedRelationship(IPersistable partner) {
 		markModified(ModificationType.CHANGED);
 		PersistenceContext.getPersistenceManager().markDirty(this);
@@ -212,10 +322,12 @@ public abstract class Persistable implements IPersistable {
 	 */
 	public void reset() {
 		modificationType = ModificationType.NONE;
+		modifiedProperties = null;
+		untrackedModification = false;
 		PersistenceContext.getPersistenceManager().unmarkDirty(this);
 		synchronized (this) {
-			// calling modifications.clear() would attach the object to the Session again.
-			modifications = new ArrayList<String>(1);
+			// releases the recorded values
+			modifications = null;
 		}
 	}
 
@@ -293,6 +405,72 @@ public abstract class Persistable implements IPersistable {
 	 * @param modificationType the modificationState to set
 	 */
 	public void markModified(ModificationType modificationType) {
+		if (ModificationType.CHANGED == modificationType) {
+			// the changed properties are unknown
+			untrackedModification = true;
+		}
+		changeModificationType(modificationType);
+	}
+
+	/**
+	 * Marks the object changed by a setter of a mapped property.
+	 * 
+	 * @param propertyIndex the index of the property (see {@link PersistableClassDescriptor#getPropertyIndex(String)}), -1
+	 *            if the property is unknown
+	 */
+	protected void markPropertyChanged(int propertyIndex) {
+		changeModificationType(ModificationType.CHANGED);
+		addModifiedProperty(propertyIndex);
+	}
+
+	/**
+	 * Adds the property to the changed properties of a changed object, does not change the modification type.
+	 */
+	protected void markPropertyModified(String propertyName) {
+		if (modificationType == ModificationType.CHANGED && !untrackedModification) {
+			addModifiedProperty(PersistableClassDescriptor.forClass(getClass()).getPropertyIndex(propertyName));
+		}
+	}
+
+	private void addModifiedProperty(int propertyIndex) {
+		if (propertyIndex < 0) {
+			untrackedModification = true;
+		}
+		else if (!untrackedModification) {
+			if (modifiedProperties == null) {
+				modifiedProperties = new BitSet();
+			}
+			modifiedProperties.set(propertyIndex);
+		}
+	}
+
+	/**
+	 * @return the indexes of the properties changed since the last flush in the order of the Hibernate ClassMetadata (see
+	 *         {@link PersistableClassDescriptor#getPropertyNames()}). NULL if the changed properties are unknown, e.g. the
+	 *         object has not been marked changed but may have been changed without the aspects, has been changed by a
+	 *         relation or has been marked changed explicitly.
+	 */
+	public int[] getTrackedDirtyProperties() {
+		if (modificationType != ModificationType.CHANGED || untrackedModification || modifiedProperties == null) {
+			return null;
+		}
+		int[] result = new int[modifiedProperties.cardinality()];
+		int i = 0;
+		for (int index = modifiedProperties.nextSetBit(0); index >= 0; index = modifiedProperties.nextSetBit(index + 1)) {
+			result[i++] = index;
+		}
+		return result;
+	}
+
+	/**
+	 * Forgets the tracked properties after they have been flushed, the state of the session is the state of the object
+	 * then. Changes made afterwards are tracked again.
+	 */
+	public void clearTrackedDirtyProperties() {
+		modifiedProperties = null;
+	}
+
+	private void changeModificationType(ModificationType modificationType) {
 		if (ModificationType.DELETED == modificationType && isDeleteable()) {
 			this.modificationType = ModificationType.DELETED;
 			PersistenceContext.getPersistenceManager().markDirty(this);
@@ -1,28 +1,39 @@
 package org.webguitoolkit.persistence;
 
 import java.io.PrintStream;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.webguitoolkit.persistence.CommitMeasurement.Outcome;
+import org.webguitoolkit.persistence.CommitStatistics.Phase;
+import org.webguitoolkit.persistence.changelog.AsyncChangeLogSink;
+import org.webguitoolkit.persistence.changelog.ChangeRecord;
+import org.webguitoolkit.persistence.changelog.IChangeLogSink;
+import org.webguitoolkit.persistence.changelog.LogChangeLogSink;
+import org.webguitoolkit.persistence.model.DeferredCollectionOperations;
 import org.webguitoolkit.persistence.model.IPersistable;
 import org.webguitoolkit.persistence.model.IQueryFactory;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
 import org.webguitoolkit.persistence.model.RelationManagement.Mode;
 import org.webguitoolkit.persistence.model.revisions.CommonRevisionEntry;
+import org.webguitoolkit.persistence.util.CompositeHibernateUtility;
 import org.webguitoolkit.persistence.util.HibernateUtility;
 import org.webguitoolkit.persistence.util.IPersistenceUtility;
-import org.webguitoolkit.persistence.util.WeakHashSet;
+import org.webguitoolkit.persistence.util.IdentityLinkedHashSet;
+import org.webguitoolkit.persistence.util.WeakEntityIndex;
+import org.webguitoolkit.persistence.util.WeakPersistableRegistry;
 
 /**
  * The Persistence manager is used to interact with the underlying DB by means of an OR mapping layer (e.g. Hibernate). Each user
@@ -45,25 +56,57 @@ import org.webguitoolkit.persistence.util.WeakHashSet;
 public class PersistenceManager {
 
 	public static final String DEFAULT_COMMIT_USERID = "UNKOWN";
+
+	/**
+	 * Defines how a chunked commit finishes a chunk, see {@link PersistenceManager#commit(String, int, ChunkMode)}
+	 */
+	public enum ChunkMode {
+		/**
+		 * the chunk is flushed to the database, all chunks are committed in one transaction at the end
+		 */
+		FLUSH,
+		/**
+		 * each chunk is committed in its own transaction
+		 */
+		COMMIT
+	}
+
+	/**
+	 * the default of {@link #setMaxRollbackPreImages(int)}
+	 */
+	public static final int DEFAULT_MAX_ROLLBACK_PRE_IMAGES = 10000;
+
 	private static Log log = LogFactory.getLog(PersistenceManager.class);
 
 	private IPersistenceUtility persistenceUtility;
 
 	/**
-	 * The set is used to check whether objects are already managed by the PersistenceManager.
+	 * The set is used to check whether objects are already managed by the PersistenceManager. It preserves the order in
+	 * which objects are added to the PersistenceManager. This information is used during commit to prevent exceptions due
+	 * to cascade dependencies.
 	 */
-	private Set<Persistable> dirtyObjects;
+	private IdentityLinkedHashSet<Persistable> dirtyObjects;
 	/**
-	 * The list is used to preserve the order in which objects are added to the PersistenceManager. This information is used
-	 * during commit to prevent exceptions due to cascade dependencies.
+	 * the objects that are in use
 	 */
-	private List<Persistable> sortedDirtyObjects;
+	private WeakPersistableRegistry<Persistable> objectsInUse;
 	/**
-	 * the objects that are in use
+	 * the objects in use by entity name and id, kept in sync by addObjectInUse and removeObjectInUse
 	 */
-	private WeakHashSet<Persistable> objectsInUse;
+	private WeakEntityIndex<Persistable> objectsInUseIndex;
 	private boolean isAttached = false;
 
+	/**
+	 * the epochs are unique over all PersistenceManagers, thus an object stamped by another PersistenceManager is never
+	 * taken as attached
+	 */
+	private static final AtomicInteger attachEpochs = new AtomicInteger();
+	/**
+	 * the objects stamped with this epoch have been attached to the current session. A new epoch is started whenever the
+	 * session is closed or cleared.
+	 */
+	private volatile int attachEpoch = attachEpochs.incrementAndGet();
+
 	/**
 	 * The latest revision info contains some information from the calling application about the user, main program, calling client, etc
 	 * The latest revision info is only available during commit and might be used by the CommonRevisionListener to get more
@@ -80,12 +123,75 @@ public class PersistenceManager {
 	 */
 	private Mode relationManagementMode = Mode.AUTO;
 
+	/**
+	 * the JDBC batch size configured for Hibernate. If greater than 1 the commit groups the writes by entity class and
+	 * operation so Hibernate can send them in JDBC batches.
+	 */
+	private int jdbcBatchSize = 0;
+
+	/**
+	 * if true the relation management queues the changes of inverse collections that are not initialized
+	 */
+	private boolean deferredRelationMaintenance = false;
+	private final DeferredCollectionOperations deferredCollectionOperations = new DeferredCollectionOperations();
+
+	/**
+	 * the persistent state of the changed and deleted objects when they were marked, restored by a rollback
+	 */
+	private final Map<Persistable, Object[]> rollbackPreImages = new IdentityHashMap<Persistable, Object[]>();
+	private int maxRollbackPreImages = DEFAULT_MAX_ROLLBACK_PRE_IMAGES;
+
+	/**
+	 * the retry policy of {@link #execute(UnitOfWork)}
+	 */
+	private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+
+	/**
+	 * if true a commit failing with a concurrent change merges the local changes with the database and commits again
+	 */
+	private boolean mergeConcurrentChanges = false;
+
+	/**
+	 * if true the commit compares the versions of the changed and deleted objects with the database before writing them
+	 */
+	private boolean preflightVersionCheck = false;
+	/**
+	 * the pre-image and the local state of the changed objects of a commit failed with a concurrent change
+	 */
+	private Map<Persistable, Object[][]> mergeStates;
+
+	/**
+	 * the writes of the last commit grouped by entity class and operation, summed up over the chunks of a chunked commit
+	 */
+	private List<CommitBatch> lastCommitBatches = new ArrayList<CommitBatch>();
+
+	/**
+	 * timers and counters of the commits of this PersistenceManager
+	 */
+	private final CommitStatistics commitStatistics = new CommitStatistics();
+
+	/**
+	 * commits taking at least this time in milliseconds are logged, -1 disables the log
+	 */
+	private long slowCommitThresholdMillis = -1;
+
+	/**
+	 * the change log sink of this PersistenceManager, NULL for the default sink
+	 */
+	private IChangeLogSink changeLogSink;
+	private static IChangeLogSink defaultChangeLogSink;
+
+	/**
+	 * the change records of the current transaction that are written to the change log sink after commit
+	 */
+	private List<ChangeRecord> pendingChangeRecords;
+
 	public PersistenceManager(IPersistenceUtility persUtil) {
 		setPersistenceUtility(persUtil);
-		dirtyObjects = new HashSet<Persistable>();
-		objectsInUse = new WeakHashSet<Persistable>();
+		dirtyObjects = new IdentityLinkedHashSet<Persistable>();
+		objectsInUse = new WeakPersistableRegistry<Persistable>();
+		objectsInUseIndex = new WeakEntityIndex<Persistable>();
 		queryFactories = new HashMap<String, IQueryFactory>();
-		sortedDirtyObjects = new ArrayList<Persistable>();
 		setLatestRevisionInfo(new CommonRevisionEntry(DEFAULT_COMMIT_USERID));
 	}
 
@@ -94,10 +200,25 @@ public class PersistenceManager {
 	 */
 	public void markDirty(Persistable po) {
 		if (po != null) {
-			boolean isAddedObjects = dirtyObjects.add(po);
-			if (isAddedObjects) {
-				// add only new objects to the list
-				sortedDirtyObjects.add(po);
+			dirtyObjects.add(po);
+			capturePreImage(po);
+		}
+	}
+
+	/**
+	 * keeps the state of an object marked changed or deleted for the first time until the pre-image limit is reached
+	 */
+	private void capturePreImage(Persistable po) {
+		ModificationType type = po.getModificationType();
+		if ((type != ModificationType.CHANGED && type != ModificationType.DELETED)
+				|| rollbackPreImages.size() >= maxRollbackPreImages || rollbackPreImages.containsKey(po)) {
+			return;
+		}
+		HibernateUtility hu = getHibernateUtility(po);
+		if (hu != null) {
+			Object[] state = hu.getLoadedState(po);
+			if (state != null) {
+				rollbackPreImages.put(po, state);
 			}
 		}
 	}
@@ -107,11 +228,8 @@ public class PersistenceManager {
 	 */
 	public void unmarkDirty(IPersistable po) {
 		if (po != null) {
-			boolean isRemovedObject = dirtyObjects.remove(po);
-			if (isRemovedObject) {
-				// remove only existing objects from the list
-				sortedDirtyObjects.remove(po);
-			}
+			dirtyObjects.remove(po);
+			rollbackPreImages.remove(po);
 		}
 	}
 
@@ -121,20 +239,117 @@ public class PersistenceManager {
 	public void detach() {
 		getPersistenceUtility().detach();
 		isAttached = false;
+		newAttachEpoch();
+	}
+
+	/**
+	 * Attaches the object to the session of the PersistenceUtility. An object that has been attached in the current
+	 * session already is not attached again until the session is detached, closed or rolled back, thus the aspects can
+	 * call this on every access.
+	 */
+	public void attach(IPersistable po) {
+		if (!(po instanceof Persistable)) {
+			getPersistenceUtility().attach(po);
+			return;
+		}
+		Persistable persistable = (Persistable)po;
+		int epoch = attachEpoch;
+		if (persistable.attachEpoch != epoch) {
+			getPersistenceUtility().attach(po);
+			persistable.attachEpoch = epoch;
+		}
+	}
+
+	/**
+	 * Tells the PersistenceManager that the object has been removed from the session, e.g. by evicting it. The next
+	 * access attaches it again.
+	 */
+	public void markDetached(IPersistable po) {
+		if (po instanceof Persistable) {
+			((Persistable)po).attachEpoch = 0;
+		}
+	}
+
+	/**
+	 * starts a new attach epoch, the objects attached before are attached again on the next access
+	 */
+	private void newAttachEpoch() {
+		attachEpoch = attachEpochs.incrementAndGet();
 	}
 
 	/**
 	 * attaches all objects in use to the session
 	 */
 	public void attach() {
-		// iterate over a copy because of possible ConcurrentModifications
-		List<IPersistable> copy = new ArrayList<IPersistable>(objectsInUse);
-		for (IPersistable po : copy) {
-			if (po != null) {
-				getPersistenceUtility().attach(po);
-			}
+		// work on a snapshot because of possible ConcurrentModifications
+		attachAll(objectsInUse.snapshot());
+		isAttached = true;
+	}
+
+	/**
+	 * Attaches all objects in use to the session. If the versions are verified, the versions of the objects in use are
+	 * compared with the database with one query per entity class before. The stale objects are not attached and
+	 * reported together.
+	 * 
+	 * @param verifyVersions <code>true</code> to compare the versions with the database, supported by the
+	 *            HibernateUtility and the CompositeHibernateUtility
+	 * @throws StaleObjectsException if objects have been changed or deleted in the database, the other objects have been
+	 *             attached
+	 */
+	public void attach(boolean verifyVersions) throws StaleObjectsException {
+		if (!verifyVersions) {
+			attach();
+			return;
 		}
+		List<Persistable> copy = objectsInUse.snapshot();
+		List<IPersistable> staleObjects = findStaleObjects(copy);
+		if (!staleObjects.isEmpty()) {
+			Set<IPersistable> stale = new IdentityLinkedHashSet<IPersistable>();
+			stale.addAll(staleObjects);
+			copy.removeAll(stale);
+		}
+		attachAll(copy);
 		isAttached = true;
+		if (!staleObjects.isEmpty()) {
+			throw new StaleObjectsException("Objects changed in the database", staleObjects);
+		}
+	}
+
+	/**
+	 * @return the objects whose version differs from the database, empty if the PersistenceUtility does not support the
+	 *         version check
+	 */
+	protected List<IPersistable> findStaleObjects(Collection<? extends IPersistable> objects) {
+		IPersistenceUtility pu = getPersistenceUtility();
+		if (pu instanceof HibernateUtility) {
+			return ((HibernateUtility)pu).findStaleObjects(objects);
+		}
+		if (pu instanceof CompositeHibernateUtility) {
+			return ((CompositeHibernateUtility)pu).findStaleObjects(objects);
+		}
+		return new ArrayList<IPersistable>();
+	}
+
+	/**
+	 * attaches the objects with one call of the PersistenceUtility and stamps them with the current attach epoch
+	 */
+	private void attachAll(List<Persistable> objects) {
+		// compared by identity like the objects in use
+		Set<IPersistable> unattached = new IdentityLinkedHashSet<IPersistable>();
+		int epoch = attachEpoch;
+		for (Persistable po : objects) {
+			if (po != null && po.attachEpoch != epoch) {
+				unattached.add(po);
+			}
+		}
+		if (unattached.isEmpty()) {
+			return;
+		}
+		// the objects that have not been attached (e.g. new objects) are removed from the Set
+		getPersistenceUtility().attach(unattached);
+		for (IPersistable po : unattached) {
+			((Persistable)po).attachEpoch = epoch;
+		}
 	}
 
 	/**
@@ -171,6 +386,28 @@ public class PersistenceManager {
 	 * the garbage collector if not strong references pointing to the Persistable in the registered objects.
 	 */
 	public void commit(String userid) throws PersistenceException {
+		try {
+			commit(userid, mergeConcurrentChanges);
+		}
+		catch (ConcurrentChangeException e) {
+			Map<Persistable, Object[][]> states = mergeStates;
+			mergeStates = null;
+			if (states == null) {
+				throw e;
+			}
+			mergeConcurrentChanges(states, e);
+			log.info("Merged the changes of " + states.size() + " objects with a concurrent change - commit again");
+			commitStatistics.countMerge();
+			CommitStatistics.getGlobal().countMerge();
+			commit(userid, false);
+		}
+	}
+
+	/**
+	 * @param captureMergeStates <code>true</code> to keep the states of the changed objects for a merge if the commit
+	 *            fails with a concurrent change
+	 */
+	private void commit(String userid, boolean captureMergeStates) throws PersistenceException {
 		log.trace(">>> commitDataStore by " + userid );
 
 		String originalUserId = getUserid();
@@ -180,20 +417,39 @@ public class PersistenceManager {
 		// furthermore, we need the objects according to their insert order to the transaction
 
 		List<Persistable> objects4Cleanup = null;
+		CommitMeasurement measurement = CommitMeasurement.start(userid);
+		Outcome outcome = Outcome.FAILED;
 		try {
 			setUserid(userid);
+			lastCommitBatches = new ArrayList<CommitBatch>();
 
 			// only starts a transaction when there is no transaction open
 			getPersistenceUtility().beginTransaction();
+			endPhase(Phase.BEGIN);
+
+			if (preflightVersionCheck) {
+				checkVersions();
+				endPhase(Phase.PREFLIGHT);
+			}
 
 			// save the objects to the database
 			objects4Cleanup = saveDirtyObjects(userid);
 
+			// the commit of the transaction flushes anyway, flushing before allows to measure it separately
+			getPersistenceUtility().flush();
+			endPhase(Phase.FLUSH);
+
 			// commit the transaction
 			getPersistenceUtility().commitTransaction();
-
+			endPhase(Phase.COMMIT);
+			publishChangeLog();
+			endPhase(Phase.CHANGE_LOG);
+			// the owning sides have been written, an inverse collection initialized later is read from the database
+			deferredCollectionOperations.clear();
+			outcome = Outcome.COMMITTED;
 		}
 		catch (ConcurrentChangeException e) {
+			mergeStates = captureMergeStates ? captureMergeStates() : null;
 			try {
 				log.fatal("********** Commit failed - rollback transaction ************  ", e);
 				rollback();
@@ -235,11 +491,94 @@ public class PersistenceManager {
 			// MH 15.10.09
 			// moved cleanup here cause rollback is not working if the objects where cleand in the save method
 			cleanupDirtyObjects(objects4Cleanup);
+			endPhase(Phase.CLEANUP);
+			finishMeasurement(measurement, outcome);
 			log.trace("<<< commitDataStore by " + userid);
 			setUserid(originalUserId);
 		}
 	}
 
+	/**
+	 * compares the versions of the changed and deleted objects with the database before anything is written
+	 * 
+	 * @throws StaleObjectsException reporting all objects changed or deleted in the database
+	 */
+	private void checkVersions() throws StaleObjectsException {
+		List<Persistable> objects = new ArrayList<Persistable>();
+		for (Persistable po : dirtyObjects) {
+			if (po.getModificationType() == ModificationType.CHANGED
+					|| po.getModificationType() == ModificationType.DELETED) {
+				objects.add(po);
+			}
+		}
+		if (objects.isEmpty()) {
+			return;
+		}
+		List<IPersistable> staleObjects = findStaleObjects(objects);
+		if (!staleObjects.isEmpty()) {
+			throw new StaleObjectsException("Objects changed in the database", staleObjects);
+		}
+	}
+
+	/**
+	 * @return the pre-image and the current state of each changed object, NULL if the dirty objects can not be merged
+	 *         because an object is new or deleted, has no pre-image or has a changed collection
+	 */
+	private Map<Persistable, Object[][]> captureMergeStates() {
+		Map<Persistable, Object[][]> states = new LinkedHashMap<Persistable, Object[][]>();
+		for (Persistable po : dirtyObjects) {
+			if (po.getModificationType() != ModificationType.CHANGED) {
+				return null;
+			}
+			Object[] preImage = rollbackPreImages.get(po);
+			HibernateUtility hu = preImage == null ? null : getHibernateUtility(po);
+			Object[] local = hu == null ? null : hu.getMergeState(po);
+			if (local == null) {
+				return null;
+			}
+			states.put(po, new Object[][] { preImage, local });
+		}
+		return states.isEmpty() ? null : states;
+	}
+
+	/**
+	 * Refreshes the objects of a failed commit from the database and applies their local changes, the objects are marked
+	 * changed again. If a property has been changed locally and in the database, no changes are applied.
+	 * 
+	 * @param states the pre-image and the local state of each object
+	 * @param e the concurrent change that failed the commit
+	 * @throws MergeConflictException if properties have been changed on both sides
+	 */
+	private void mergeConcurrentChanges(Map<Persistable, Object[][]> states, ConcurrentChangeException e)
+			throws PersistenceException {
+		try {
+			// the local changes of the collections are kept
+			refreshInBatches(new ArrayList<IPersistable>(states.keySet()));
+		}
+		catch (RuntimeException e1) {
+			log.warn("Refresh for merge failed - give up", e1);
+			throw e;
+		}
+		Map<IPersistable, List<String>> conflicts = new LinkedHashMap<IPersistable, List<String>>();
+		for (Map.Entry<Persistable, Object[][]> entry : states.entrySet()) {
+			List<String> properties = getHibernateUtility(entry.getKey()).getConflictingProperties(entry.getKey(),
+					entry.getValue()[0], entry.getValue()[1]);
+			if (!properties.isEmpty()) {
+				conflicts.put(entry.getKey(), properties);
+			}
+		}
+		if (!conflicts.isEmpty()) {
+			throw new MergeConflictException("Properties changed concurrently", e, conflicts);
+		}
+		for (Map.Entry<Persistable, Object[][]> entry : states.entrySet()) {
+			Persistable po = entry.getKey();
+			// the loaded state of the session is the state of the database, the flush writes the local changes
+			attach(po);
+			getHibernateUtility(po).mergeState(po, entry.getValue()[0], entry.getValue()[1]);
+			po.markModified(ModificationType.CHANGED);
+		}
+	}
+
 	/**
 	 * iterates over all dirty objects and calls save on all new objects, update on all changed objects and delete on all deleted
 	 * objects.
@@ -252,14 +591,38 @@ public class PersistenceManager {
 		// keep list of all objects for later cleanup
 		// DM: prevent java.util.ConcurrentModificationException (po.reset calls unmarkDiryt which modifies the
 		// dirtyObjects
-		List<Persistable> dirtyObjectsForCleanup = new ArrayList<Persistable>(sortedDirtyObjects);
+		List<Persistable> dirtyObjectsForCleanup = new ArrayList<Persistable>(dirtyObjects);
+		saveObjects(userid, dirtyObjectsForCleanup);
+
+		// MH 15.10.09
+		// moved cleanup to end of commit because rollback is not working if the objects where cleaned here
+		return dirtyObjectsForCleanup;
+	}
+
+	/**
+	 * calls save on the new objects, update on the changed objects and delete on the deleted objects of the passed list and
+	 * writes the change log.
+	 * 
+	 * @param userid the user that has done the changes
+	 * @param objects the dirty objects in insertion order
+	 * @throws PersistenceException
+	 */
+	protected void saveObjects(String userid, List<Persistable> objects) throws PersistenceException {
+		List<Persistable> writeOrder = objects;
+		if (isBatchedCommit()) {
+			writeOrder = sortForBatching(objects);
+		}
 
 		List<Persistable> changedObjects = new ArrayList<Persistable>();
 		List<Persistable> newObjects = new ArrayList<Persistable>();
 		List<Persistable> deletedObjects = new ArrayList<Persistable>();
+		CommitMeasurement measurement = CommitMeasurement.current();
 
-		for (Iterator<Persistable> it = dirtyObjectsForCleanup.iterator(); it.hasNext();) {
+		for (Iterator<Persistable> it = writeOrder.iterator(); it.hasNext();) {
 			Persistable po = it.next();
+			if (measurement != null && po.getModificationType() != ModificationType.NONE) {
+				measurement.countObject(po.getModificationType(), po.getClass());
+			}
 			switch( po.getModificationType() ){
 				case NEW:
 					po.setCreatedBy(userid);
@@ -276,18 +639,258 @@ public class PersistenceManager {
 					getPersistenceUtility().delete(po);
 					deletedObjects.add(po);
 					removeObjectInUse(po);
-					sortedDirtyObjects.remove(po);
+					dirtyObjects.remove(po);
 					break;
 			}
 		}
 
-		// writing objects may re-attach them to the session so we need to write them before we commit the
-		// transaction
-		writeChangeLog(changedObjects, newObjects, deletedObjects);
+		endPhase(Phase.SAVE);
 
-		// MH 15.10.09
-		// moved cleanup to end of commit because rollback is not working if the objects where cleaned here
-		return dirtyObjectsForCleanup;
+		if (isBatchedCommit()) {
+			List<CommitBatch> batches = collectBatches(newObjects, changedObjects, deletedObjects);
+			addCommitBatches(batches);
+			if (log.isDebugEnabled()) {
+				log.debug("Commit by " + userid + " writes " + objects.size() + " objects: " + batches);
+			}
+		}
+
+		// writing objects may re-attach them to the session so we need to create the change records before we commit
+		// the transaction
+		writeChangeLog(userid, changedObjects, newObjects, deletedObjects);
+		endPhase(Phase.CHANGE_LOG);
+	}
+
+	/**
+	 * Commit the changes of the registered objects in chunks of <code>chunkSize</code> objects, see
+	 * {@link #commit(String, int, ChunkMode)}
+	 */
+	public void commit(int chunkSize, ChunkMode mode) throws PersistenceException {
+		commit(getUserid(), chunkSize, mode);
+	}
+
+	/**
+	 * Persist the changes of the registered objects in chunks of <code>chunkSize</code> objects. This is meant for very
+	 * large units of work like imports. After a chunk is written (flushed or committed depending on the <code>mode</code>)
+	 * its objects are evicted from the session and are no longer managed by the PersistenceManager, thus the session does
+	 * not grow with the size of the unit of work. The application should not keep references to the written objects either.
+	 * <p>
+	 * With {@link ChunkMode#FLUSH} all chunks are committed in one transaction at the end. If the commit fails the
+	 * transaction is rolled back, but the objects of the chunks written before are not restored: they are already detached
+	 * and have to be discarded by the application. The compact change records of all chunks are kept until the transaction
+	 * is committed, thus the change log contains committed changes only.<br>
+	 * With {@link ChunkMode#COMMIT} each chunk is committed in its own transaction. If the commit fails the chunks written
+	 * before stay in the database.
+	 * 
+	 * @param userid the user that has done the changes
+	 * @param chunkSize the number of objects per chunk, a value less than 1 commits all objects at once
+	 * @param mode how a chunk is finished
+	 * @throws PersistenceException when there are errors saving the objects to the database
+	 */
+	public void commit(String userid, int chunkSize, ChunkMode mode) throws PersistenceException {
+		if (chunkSize < 1) {
+			commit(userid);
+			return;
+		}
+		log.trace(">>> commitDataStore by " + userid + " in chunks of " + chunkSize);
+
+		String originalUserId = getUserid();
+		int chunkCount = 0;
+		CommitMeasurement measurement = CommitMeasurement.start(userid);
+		Outcome outcome = Outcome.FAILED;
+		try {
+			setUserid(userid);
+			lastCommitBatches = new ArrayList<CommitBatch>();
+
+			// only starts a transaction when there is no transaction open
+			getPersistenceUtility().beginTransaction();
+			endPhase(Phase.BEGIN);
+
+			if (preflightVersionCheck) {
+				// a conflict fails the commit before the first chunk is written
+				checkVersions();
+				endPhase(Phase.PREFLIGHT);
+			}
+
+			// the chunks are taken from the head of the dirty objects, releasing a chunk removes its objects from the dirty
+			// objects. Thus, the insertion order is kept and no copy of all dirty objects is needed.
+			while (!dirtyObjects.isEmpty()) {
+				List<Persistable> chunk = nextChunk(chunkSize);
+
+				// objects of this chunk may have been evicted by a cascade while releasing the chunks before
+				for (Persistable po : chunk) {
+					if (po.getModificationType() != ModificationType.NEW || po.getId() != 0) {
+						attach(po);
+					}
+				}
+
+				saveObjects(userid, chunk);
+				if (mode == ChunkMode.COMMIT) {
+					getPersistenceUtility().commitTransaction();
+					endPhase(Phase.COMMIT);
+					publishChangeLog();
+					endPhase(Phase.CHANGE_LOG);
+					getPersistenceUtility().beginTransaction();
+					endPhase(Phase.BEGIN);
+				}
+				else {
+					// the change records are published after the commit of the transaction
+					getPersistenceUtility().flush();
+					endPhase(Phase.FLUSH);
+				}
+				releaseChunk(chunk);
+				endPhase(Phase.CLEANUP);
+				chunkCount++;
+			}
+
+			// commit the transaction
+			getPersistenceUtility().commitTransaction();
+			endPhase(Phase.COMMIT);
+			publishChangeLog();
+			endPhase(Phase.CHANGE_LOG);
+			// the owning sides have been written, an inverse collection initialized later is read from the database
+			deferredCollectionOperations.clear();
+			outcome = Outcome.COMMITTED;
+		}
+		catch (PersistenceException e) {
+			try {
+				log.fatal("********** Commit of chunk " + (chunkCount + 1) + " failed - rollback transaction ************  ", e);
+				rollback();
+			}
+			catch (Exception e1) {
+				log.fatal("********* Rollback failed - close session ***********  ", e1);
+			}
+			finally {
+				try {
+					close();
+				}
+				catch (PersistenceException e2) {
+					log.fatal("******** Close failed - give up *********  ", e2);
+					throw e2;
+				}
+			}
+			throw e;
+		}
+		finally {
+			endPhase(Phase.CLEANUP);
+			finishMeasurement(measurement, outcome);
+			log.trace("<<< commitDataStore by " + userid + " in " + chunkCount + " chunks");
+			setUserid(originalUserId);
+		}
+	}
+
+	/**
+	 * @return the first <code>chunkSize</code> dirty objects
+	 */
+	private List<Persistable> nextChunk(int chunkSize) {
+		List<Persistable> chunk = new ArrayList<Persistable>(Math.min(chunkSize, dirtyObjects.size()));
+		for (Iterator<Persistable> it = dirtyObjects.iterator(); it.hasNext() && chunk.size() < chunkSize;) {
+			chunk.add(it.next());
+		}
+		return chunk;
+	}
+
+	/**
+	 * evicts the written objects from the session and removes them from the dirty objects and the objects in use
+	 */
+	private void releaseChunk(List<Persistable> chunk) {
+		for (Persistable po : chunk) {
+			if (po.getModificationType() != ModificationType.DELETED) {
+				getPersistenceUtility().evict(po);
+				markDetached(po);
+			}
+			removeObjectInUse(po);
+			po.reset();
+			// reset() unmarks the object at the PersistenceManager of the current thread which may be another one
+			dirtyObjects.remove(po);
+			rollbackPreImages.remove(po);
+		}
+	}
+
+	/**
+	 * Orders the dirty objects so that Hibernate can batch the writes: first the new objects, then the changed objects
+	 * grouped by class, then the deleted objects. New and deleted objects keep their insertion order because of the foreign
+	 * key dependencies between them. Hibernate groups the inserts by class itself (hibernate.order_inserts) while respecting
+	 * these dependencies. Hibernate executes the inserts before the updates and the updates before the deletes anyway, so the
+	 * order of the operation groups does not change the outcome of the commit.
+	 * 
+	 * @param dirtyObjects the dirty objects in insertion order
+	 * @return the dirty objects in write order
+	 */
+	protected List<Persistable> sortForBatching(List<Persistable> dirtyObjects) {
+		List<Persistable> newObjects = new ArrayList<Persistable>();
+		Map<Class<?>, List<Persistable>> changedObjectsByClass = new LinkedHashMap<Class<?>, List<Persistable>>();
+		List<Persistable> deletedObjects = new ArrayList<Persistable>();
+		for (Persistable po : dirtyObjects) {
+			switch( po.getModificationType() ){
+				case NEW:
+					newObjects.add(po);
+					break;
+				case CHANGED:
+					List<Persistable> changedObjects = changedObjectsByClass.get(po.getClass());
+					if (changedObjects == null) {
+						changedObjects = new ArrayList<Persistable>();
+						changedObjectsByClass.put(po.getClass(), changedObjects);
+					}
+					changedObjects.add(po);
+					break;
+				case DELETED:
+					deletedObjects.add(po);
+					break;
+			}
+		}
+		List<Persistable> result = new ArrayList<Persistable>(dirtyObjects.size());
+		result.addAll(newObjects);
+		for (List<Persistable> changedObjects : changedObjectsByClass.values()) {
+			result.addAll(changedObjects);
+		}
+		result.addAll(deletedObjects);
+		return result;
+	}
+
+	/**
+	 * Groups the written objects by entity class and operation.
+	 */
+	private List<CommitBatch> collectBatches(List<Persistable> newObjects, List<Persistable> changedObjects,
+			List<Persistable> deletedObjects) {
+		List<CommitBatch> result = new ArrayList<CommitBatch>();
+		collectBatches(result, newObjects, ModificationType.NEW);
+		collectBatches(result, changedObjects, ModificationType.CHANGED);
+		collectBatches(result, deletedObjects, ModificationType.DELETED);
+		return result;
+	}
+
+	/**
+	 * adds the writes of a chunk to the writes of the commit
+	 */
+	private void addCommitBatches(List<CommitBatch> batches) {
+		for (CommitBatch batch : batches) {
+			boolean added = false;
+			for (CommitBatch commitBatch : lastCommitBatches) {
+				if (commitBatch.isSameGroup(batch)) {
+					commitBatch.add(batch);
+					added = true;
+					break;
+				}
+			}
+			if (!added) {
+				lastCommitBatches.add(batch);
+			}
+		}
+	}
+
+	private void collectBatches(List<CommitBatch> result, List<Persistable> objects, ModificationType operation) {
+		Map<Class<?>, int[]> countByClass = new LinkedHashMap<Class<?>, int[]>();
+		for (Persistable po : objects) {
+			int[] count = countByClass.get(po.getClass());
+			if (count == null) {
+				count = new int[1];
+				countByClass.put(po.getClass(), count);
+			}
+			count[0]++;
+		}
+		for (Map.Entry<Class<?>, int[]> entry : countByClass.entrySet()) {
+			result.add(new CommitBatch(entry.getKey(), operation, entry.getValue()[0], jdbcBatchSize));
+		}
 	}
 
 	/**
@@ -297,16 +900,155 @@ public class PersistenceManager {
 		commit(getUserid());
 	}
 
+	/**
+	 * Executes the unit of work and commits its changes with the retry policy of the PersistenceManager, see
+	 * {@link #execute(UnitOfWork, RetryPolicy)}
+	 */
+	public <T> T execute(UnitOfWork<T> work) throws PersistenceException {
+		return execute(work, retryPolicy);
+	}
+
+	/**
+	 * Executes the unit of work and commits its changes. If the unit of work or the commit fails with a
+	 * {@link ConcurrentChangeException} the changes are rolled back, the objects that have been changed in the database
+	 * are refreshed and the unit of work is replayed after the backoff of the retry policy. The conflicts are counted by
+	 * class in the {@link CommitStatistics}, the retries as well. If the unit of work fails otherwise its changes are
+	 * rolled back and the exception is passed to the caller.
+	 * 
+	 * @param policy the number of attempts and the backoff between them
+	 * @return the result of the unit of work
+	 * @throws ConcurrentChangeException if the last attempt allowed by the policy failed
+	 */
+	public <T> T execute(UnitOfWork<T> work, RetryPolicy policy) throws PersistenceException {
+		for (int attempt = 1;; attempt++) {
+			List<Persistable> changedObjects = new ArrayList<Persistable>();
+			boolean committing = false;
+			try {
+				T result = work.execute();
+				for (Persistable po : dirtyObjects) {
+					if (po.getModificationType() == ModificationType.CHANGED
+							|| po.getModificationType() == ModificationType.DELETED) {
+						changedObjects.add(po);
+					}
+				}
+				committing = true;
+				commit();
+				return result;
+			}
+			catch (ConcurrentChangeException e) {
+				if (!committing) {
+					// the unit of work failed before the commit, a failed commit has rolled back already
+					rollback();
+				}
+				List<IPersistable> conflictingObjects = findConflictingObjects(e, changedObjects);
+				countConflict(conflictingObjects);
+				if (attempt >= policy.getMaxAttempts()) {
+					commitStatistics.countExhaustedRetries();
+					CommitStatistics.getGlobal().countExhaustedRetries();
+					throw e;
+				}
+				long backoff = policy.getBackoffMillis(attempt);
+				if (log.isDebugEnabled()) {
+					log.debug("Attempt " + attempt + " of " + policy.getMaxAttempts() + " failed by concurrent change of "
+							+ conflictingObjects + ", retry in " + backoff + " ms");
+				}
+				try {
+					// the replay reads the current state of the objects
+					refresh(conflictingObjects);
+				}
+				catch (RuntimeException e1) {
+					log.warn("Refresh after concurrent change failed - give up", e1);
+					throw e;
+				}
+				try {
+					Thread.sleep(backoff);
+				}
+				catch (InterruptedException e1) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+				commitStatistics.countRetry();
+				CommitStatistics.getGlobal().countRetry();
+			}
+			catch (PersistenceException e) {
+				if (!committing) {
+					rollbackUnitOfWork(e);
+				}
+				throw e;
+			}
+			catch (RuntimeException e) {
+				// also thrown by a commit, which only rolls back on a PersistenceException
+				rollbackUnitOfWork(e);
+				throw e;
+			}
+			catch (Error e) {
+				rollbackUnitOfWork(e);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * rolls back the changes of a failed unit of work, a failing rollback does not hide the failure
+	 */
+	private void rollbackUnitOfWork(Throwable failure) {
+		try {
+			// the failure is passed to the caller
+			log.warn("Unit of work failed - rollback: " + failure);
+			rollback();
+		}
+		catch (Exception e) {
+			log.fatal("********* Rollback of unit of work failed ***********  ", e);
+		}
+	}
+
+	/**
+	 * @return the objects reported by the exception and the changed objects whose version differs from the database
+	 */
+	private List<IPersistable> findConflictingObjects(ConcurrentChangeException e, List<Persistable> changedObjects) {
+		List<IPersistable> conflictingObjects = new ArrayList<IPersistable>();
+		if (e instanceof StaleObjectsException) {
+			conflictingObjects.addAll(((StaleObjectsException)e).getStaleObjects());
+		}
+		if (e instanceof MergeConflictException) {
+			conflictingObjects.addAll(((MergeConflictException)e).getConflicts().keySet());
+		}
+		for (IPersistable po : findStaleObjects(changedObjects)) {
+			if (!conflictingObjects.contains(po)) {
+				conflictingObjects.add(po);
+			}
+		}
+		return conflictingObjects;
+	}
+
+	/**
+	 * counts the conflict once for each class of the conflicting objects
+	 */
+	private void countConflict(List<IPersistable> conflictingObjects) {
+		Set<Class<?>> classes = new HashSet<Class<?>>();
+		for (IPersistable po : conflictingObjects) {
+			if (classes.add(po.getClass())) {
+				commitStatistics.countConflict(po.getClass());
+				CommitStatistics.getGlobal().countConflict(po.getClass());
+			}
+		}
+	}
+
 	/**
 	 * Roll back the transaction.
 	 */
 	public void rollback() throws PersistenceException {
 		log.trace(">>> rollbackDataStore() ");
 
+		// the changes are not in the database, thus they are not logged
+		pendingChangeRecords = null;
+		deferredCollectionOperations.clear();
+		CommitMeasurement measurement = CommitMeasurement.start(getUserid());
+
 		// keep list of all objects for later cleanup
 		// DM: prevent java.util.ConcurrentModificationException (po.reset calls unmarkDiryt which modifies the
 		// dirtyObjects
-		List<Persistable> dirtyObjectsForCleanup = new ArrayList<Persistable>(sortedDirtyObjects);
+		List<Persistable> dirtyObjectsForCleanup = new ArrayList<Persistable>(dirtyObjects);
 
 		try {
 
@@ -317,22 +1059,24 @@ public class PersistenceManager {
 						// some new objects are marked as new and as changed. Thus,
 						// undoing the new-operation takes precedence.
 						removeObjectInUse(po);
-						sortedDirtyObjects.remove(po);
+						dirtyObjects.remove(po);
 						break;
 					case CHANGED:
-						// Refresh objects state
-						getPersistenceUtility().refresh(po);
+						restoreOrRefresh(po);
 						break;
 					case DELETED:
-						// Refresh objects state
-						getPersistenceUtility().refresh(po);
+						restoreOrRefresh(po);
 						// MH 15.10.09
 						// added the object to the objectsInUse again
 						addObjectInUse(po);
 						break;
 				}
 			}
+			endPhase(Phase.REFRESH);
 			getPersistenceUtility().rollbackTransaction();
+			// the session has been cleared
+			newAttachEpoch();
+			endPhase(Phase.ROLLBACK);
 		}
 		catch (Exception e) {
 			log.fatal("********** rollback failed - close session ", e);
@@ -346,10 +1090,98 @@ public class PersistenceManager {
 		}
 		finally {
 			cleanupDirtyObjects(dirtyObjectsForCleanup);
+			endPhase(Phase.CLEANUP);
+			finishMeasurement(measurement, Outcome.ROLLED_BACK);
 			log.trace("<<< rollbackDataStore");
 		}
 	}
 
+	/**
+	 * Restores the state of the object from its pre-image, refreshes it from the database if there is no pre-image or a
+	 * changed collection can not be restored.
+	 */
+	private void restoreOrRefresh(Persistable po) throws PersistenceException {
+		Object[] preImage = rollbackPreImages.remove(po);
+		HibernateUtility hu = preImage == null ? null : getHibernateUtility(po);
+		CommitMeasurement measurement = CommitMeasurement.current();
+		if (hu != null && hu.restoreState(po, preImage)) {
+			if (measurement != null) {
+				measurement.countRestored();
+			}
+		}
+		else {
+			getPersistenceUtility().refresh(po);
+			if (measurement != null) {
+				measurement.countRefreshed();
+			}
+		}
+	}
+
+	/**
+	 * @return the HibernateUtility of the class of the object, NULL if it is not mapped by Hibernate
+	 */
+	protected HibernateUtility getHibernateUtility(IPersistable po) {
+		IPersistenceUtility pu = getPersistenceUtility();
+		if (pu instanceof CompositeHibernateUtility) {
+			pu = pu.getDelegatePersistenceUtilityForClass(po.getClass());
+		}
+		return pu instanceof HibernateUtility ? (HibernateUtility)pu : null;
+	}
+
+	/**
+	 * ends the phase of the commit or rollback running in this thread
+	 */
+	private void endPhase(Phase phase) {
+		CommitMeasurement measurement = CommitMeasurement.current();
+		if (measurement != null) {
+			measurement.endPhase(phase);
+		}
+	}
+
+	/**
+	 * adds the measurement to the statistics and writes the slow commit log
+	 * 
+	 * @param measurement the measurement started by the caller, NULL if it is nested in another measurement
+	 */
+	private void finishMeasurement(CommitMeasurement measurement, Outcome outcome) {
+		if (measurement == null) {
+			return;
+		}
+		measurement.finish(outcome);
+		boolean slow = slowCommitThresholdMillis >= 0
+				&& CommitMeasurement.toMillis(measurement.getTotalNanos()) >= slowCommitThresholdMillis;
+		if (slow) {
+			log.warn("Slow commit: " + measurement.toLogLine());
+		}
+		commitStatistics.add(measurement, slow);
+		CommitStatistics.getGlobal().add(measurement, slow);
+	}
+
+	/**
+	 * @return the statistics of the commits and rollbacks of this PersistenceManager
+	 * @see CommitStatistics#getGlobal()
+	 */
+	public CommitStatistics getCommitStatistics() {
+		return commitStatistics;
+	}
+
+	/**
+	 * @return the duration in milliseconds from which on a commit is logged as slow, -1 if disabled
+	 */
+	public long getSlowCommitThresholdMillis() {
+		return slowCommitThresholdMillis;
+	}
+
+	/**
+	 * Commits and rollbacks that take at least the passed time are logged with level WARN in one line with the time of
+	 * each phase, the number of objects, statements and rows and the entity classes involved.
+	 * 
+	 * @param slowCommitThresholdMillis the duration in milliseconds, -1 to disable the slow commit log
+	 */
+	public void setSlowCommitThresholdMillis(long slowCommitThresholdMillis) {
+		this.slowCommitThresholdMillis = slowCommitThresholdMillis;
+	}
+
 	/**
 	 * @param dirtyObjectsForCleanup
 	 */
@@ -381,6 +1213,33 @@ public class PersistenceManager {
 		}
 	}
 
+	/**
+	 * reload the passed Persistables from the underlying data store with one query per class and chunk of objects if the
+	 * PersistenceUtility supports it, else one by one. The objects keep their identity. Unlike refresh the collections
+	 * of the objects are not reloaded.
+	 * 
+	 * @param associations the names of the properties whose associated objects are reloaded as well
+	 * @see HibernateUtility#refreshInBatches(Collection, String...)
+	 */
+	public void refreshInBatches(Collection<? extends IPersistable> objects, String... associations)
+			throws PersistenceException {
+		if (objects == null || objects.isEmpty()) {
+			return;
+		}
+		IPersistenceUtility pu = getPersistenceUtility();
+		if (pu instanceof HibernateUtility) {
+			((HibernateUtility)pu).refreshInBatches(objects, associations);
+		}
+		else if (pu instanceof CompositeHibernateUtility) {
+			((CompositeHibernateUtility)pu).refreshInBatches(objects, associations);
+		}
+		else {
+			for (IPersistable o : objects) {
+				refresh(o);
+			}
+		}
+	}
+
 	/**
 	 * @return the persistence utility
 	 */
@@ -390,20 +1249,23 @@ public class PersistenceManager {
 
 	public void setPersistenceUtility(IPersistenceUtility newPersistenceUtility) {
 		persistenceUtility = newPersistenceUtility;
+		newAttachEpoch();
 	}
 
 	/**
 	 * close the current session at the PersistenceUtility
 	 */
 	public void close() throws PersistenceException {
-		if (sortedDirtyObjects.size() > 0) {
+		if (!dirtyObjects.isEmpty()) {
 			StringBuffer sb = new StringBuffer("Closing Session without commit!\nThere are still dirty objects in the session:\n");
-			for (IPersistable pers : sortedDirtyObjects) {
+			for (IPersistable pers : dirtyObjects) {
 				sb.append(pers.getClass().getSimpleName() + " ID: " + pers.getId());
 			}
 			log.warn(sb.toString());
 		}
 		getPersistenceUtility().close();
+		newAttachEpoch();
+		deferredCollectionOperations.clear();
 
 		// clean-up any remaining dirty objects so the PersistenceManager is in a consistent state after closing
 		clearDirtyObjects();
@@ -441,8 +1303,7 @@ public class PersistenceManager {
 	public void clearDirtyObjects() {
 		if (dirtyObjects != null)
 			dirtyObjects.clear();
-		if (sortedDirtyObjects != null)
-			sortedDirtyObjects.clear();
+		rollbackPreImages.clear();
 	}
 
 	/**
@@ -452,25 +1313,90 @@ public class PersistenceManager {
 		return dirtyObjects.contains(checkPersistable);
 	}
 
-	private void writeChangeLog(List<Persistable> changedObjects, List<Persistable> newObjects, List<Persistable> deletedObjects) {
-		for (Iterator<Persistable> it = newObjects.iterator(); it.hasNext();) {
-			Persistable po = it.next();
-			log.info(po.getModifiedBy() + " CREATED " + po.getLogInfo());
+	/**
+	 * Creates the change records of the written objects. The records only keep the key and the recorded modifications of
+	 * an object, the texts are created by the change log sink. The records are passed to the sink after the chunk or the
+	 * transaction has been written, see {@link #publishChangeLog()}. Nothing is created if the sink is disabled.
+	 */
+	private void writeChangeLog(String userid, List<Persistable> changedObjects, List<Persistable> newObjects,
+			List<Persistable> deletedObjects) {
+		if (!getChangeLogSink().isEnabled()) {
+			return;
 		}
-		for (Iterator<Persistable> it = deletedObjects.iterator(); it.hasNext();) {
-			Persistable po = it.next();
-			log.info(getUserid() + " DELETED " + po.getLogInfo());
+		if (pendingChangeRecords == null) {
+			pendingChangeRecords = new ArrayList<ChangeRecord>(newObjects.size() + deletedObjects.size()
+					+ changedObjects.size());
 		}
-		for (Iterator<Persistable> it = changedObjects.iterator(); it.hasNext();) {
-			Persistable po = it.next();
-			SimpleDateFormat sd = new SimpleDateFormat("d MMM yyyy HH:mm:ss z");
-			sd.setTimeZone(TimeZone.getTimeZone("GMT"));
-			String modTime = "";
+		long commitTime = System.currentTimeMillis();
+		for (Persistable po : newObjects) {
+			pendingChangeRecords.add(new ChangeRecord(po.getClass(), po.getObjectUId(), po.getKey(), ModificationType.NEW,
+					userid, commitTime, null, null));
+		}
+		for (Persistable po : deletedObjects) {
+			pendingChangeRecords.add(new ChangeRecord(po.getClass(), po.getObjectUId(), po.getKey(),
+					ModificationType.DELETED, userid, commitTime, null, null));
+		}
+		for (Persistable po : changedObjects) {
+			long modTime = commitTime;
 			if (po.getModifiedAt() != null) {
-				modTime = sd.format(new Date(po.getModifiedAt().getTime()));
+				modTime = po.getModifiedAt().getTime();
 			}
-			log.info(po.getModifiedBy() + " CHANGED at '" + modTime + "' " + po.getLogInfo() + " " + po.listModifications());
+			// the modifications are copied, they are released by the reset of the object
+			ModificationList modifications = po.getRecordedModifications();
+			pendingChangeRecords.add(new ChangeRecord(po.getClass(), po.getObjectUId(), po.getKey(),
+					ModificationType.CHANGED, userid, modTime, modifications == null ? null : modifications.getNames(),
+					modifications == null ? null : modifications.getLogValues()));
+		}
+	}
+
+	/**
+	 * passes the change records of the committed transaction or the written chunk to the change log sink
+	 */
+	private void publishChangeLog() {
+		if (pendingChangeRecords == null) {
+			return;
+		}
+		List<ChangeRecord> records = pendingChangeRecords;
+		pendingChangeRecords = null;
+		IChangeLogSink sink = getChangeLogSink();
+		for (ChangeRecord record : records) {
+			sink.write(record);
+		}
+	}
+
+	/**
+	 * @return the sink the change log of this PersistenceManager is written to
+	 */
+	public IChangeLogSink getChangeLogSink() {
+		if (changeLogSink == null) {
+			return getDefaultChangeLogSink();
 		}
+		return changeLogSink;
+	}
+
+	/**
+	 * @param changeLogSink the sink the change log of this PersistenceManager is written to, NULL for the default sink
+	 */
+	public void setChangeLogSink(IChangeLogSink changeLogSink) {
+		this.changeLogSink = changeLogSink;
+	}
+
+	/**
+	 * @return the sink used by all PersistenceManagers without an own sink. By default the change log is written
+	 *         asynchronously to the log of the PersistenceManager.
+	 */
+	public static synchronized IChangeLogSink getDefaultChangeLogSink() {
+		if (defaultChangeLogSink == null) {
+			defaultChangeLogSink = new AsyncChangeLogSink(new LogChangeLogSink(log));
+		}
+		return defaultChangeLogSink;
+	}
+
+	/**
+	 * Replaces the sink used by all PersistenceManagers without an own sink. The previous sink is not closed.
+	 */
+	public static synchronized void setDefaultChangeLogSink(IChangeLogSink sink) {
+		defaultChangeLogSink = sink;
 	}
 
 	public IQueryFactory findQueryFactory(String clazz) {
@@ -485,16 +1411,42 @@ public class PersistenceManager {
 		queryFactories.put(modelClassname, queryFactory);
 	}
 
+	/**
+	 * @return the objects in use. Use addObjectInUse and removeObjectInUse to modify them, otherwise the index used by
+	 *         findObjectInUse is not updated.
+	 */
 	public Set<Persistable> getObjectsInUse() {
 		return objectsInUse;
 	}
 
 	public void addObjectInUse(Persistable newObjectInSession) {
 		objectsInUse.add(newObjectInSession);
+		objectsInUseIndex.add(newObjectInSession);
 	}
 
 	public void removeObjectInUse(IPersistable oldObjectInSession) {
 		objectsInUse.remove(oldObjectInSession);
+		objectsInUseIndex.remove(oldObjectInSession);
+	}
+
+	/**
+	 * @param entityName the class name of the object
+	 * @param id the database id
+	 * @return the object in use or NULL if there is none
+	 */
+	public Persistable findObjectInUse(String entityName, long id) {
+		Persistable result = objectsInUseIndex.get(entityName, id);
+		if (result != null && result.getId() == id && objectsInUse.contains(result)) {
+			return result;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the object in use with the passed object UID or NULL if there is none
+	 */
+	public Persistable findObjectInUseByObjectUId(long objectUId) {
+		return objectsInUse.get(objectUId);
 	}
 	
 	/**
@@ -548,4 +1500,164 @@ public class PersistenceManager {
 		return isAttached;
 	}
 
+	/**
+	 * @return the JDBC batch size used for grouping the writes during commit
+	 */
+	public int getJdbcBatchSize() {
+		return jdbcBatchSize;
+	}
+
+	/**
+	 * Enables the batched commit if the batch size is greater than 1. The batch size should be the same as the
+	 * hibernate.jdbc.batch_size of the configuration, see HibernatePersistenceFrameworkInitializer.setJdbcBatchSize().
+	 * 
+	 * @param newJdbcBatchSize the JDBC batch size
+	 */
+	public void setJdbcBatchSize(int newJdbcBatchSize) {
+		jdbcBatchSize = newJdbcBatchSize;
+	}
+
+	/**
+	 * @return true if the changes of inverse collections that are not initialized are deferred
+	 */
+	public boolean isDeferredRelationMaintenance() {
+		return deferredRelationMaintenance;
+	}
+
+	/**
+	 * Defers the changes the relation management makes to inverse (mappedBy) collections that have not been initialized,
+	 * e.g. the children of the parent set by child.setParent(). The changes are applied when Hibernate initializes the
+	 * collection and dropped after commit, thus changing the owning side does not load the inverse collection. Other
+	 * collections are changed immediately. Requires the HibernateUtility, which applies the changes on initialization.
+	 * 
+	 * @param newDeferredRelationMaintenance true to defer the changes
+	 */
+	public void setDeferredRelationMaintenance(boolean newDeferredRelationMaintenance) {
+		deferredRelationMaintenance = newDeferredRelationMaintenance;
+	}
+
+	/**
+	 * @return the changes of inverse collections queued by the relation management
+	 */
+	public DeferredCollectionOperations getDeferredCollectionOperations() {
+		return deferredCollectionOperations;
+	}
+
+	/**
+	 * @return the number of pre-images kept for the rollback of the current transaction
+	 */
+	public int getRollbackPreImageCount() {
+		return rollbackPreImages.size();
+	}
+
+	public int getMaxRollbackPreImages() {
+		return maxRollbackPreImages;
+	}
+
+	/**
+	 * A rollback restores changed and deleted objects from the state they had when they were marked, which Hibernate keeps
+	 * in its session anyway. Objects without pre-image and objects with changed collections are refreshed from the
+	 * database, one SELECT each. The pre-images hold one array per object, the limit bounds their number. The restored and
+	 * refreshed objects are counted by the {@link CommitStatistics}.
+	 * 
+	 * @param newMaxRollbackPreImages the maximum number of pre-images, 0 to refresh all objects
+	 */
+	public void setMaxRollbackPreImages(int newMaxRollbackPreImages) {
+		maxRollbackPreImages = newMaxRollbackPreImages;
+	}
+
+	/**
+	 * @return true if a commit failing with a concurrent change merges the local changes with the database
+	 */
+	public boolean isMergeConcurrentChanges() {
+		return mergeConcurrentChanges;
+	}
+
+	/**
+	 * If enabled, a commit that fails with a {@link ConcurrentChangeException} compares the local changes of the changed
+	 * objects with the changes in the database, property by property, against the pre-images of the rollback. If no
+	 * property has been changed on both sides, the local changes are applied to the state of the database and the commit
+	 * is repeated once. Otherwise a {@link MergeConflictException} names the conflicting properties. Commits with new or
+	 * deleted objects, objects without pre-image and objects with changed collections are not merged.
+	 * 
+	 * @see #setMaxRollbackPreImages(int)
+	 */
+	public void setMergeConcurrentChanges(boolean newMergeConcurrentChanges) {
+		mergeConcurrentChanges = newMergeConcurrentChanges;
+	}
+
+	/**
+	 * @return true if the commit checks the versions of the changed and deleted objects before writing them
+	 */
+	public boolean isPreflightVersionCheck() {
+		return preflightVersionCheck;
+	}
+
+	/**
+	 * If enabled, a commit reads the versions of its changed and deleted objects from the database before anything is
+	 * written, with one query per entity class and IN list (see {@link HibernateUtility#findStaleObjects(Collection)}). A
+	 * conflicting commit fails with a {@link StaleObjectsException} reporting all stale objects, instead of failing at the
+	 * first stale row after the updates before it have been sent. The check costs a query per class and chunk on every
+	 * commit, thus it pays off for large commits and commits that often conflict. A chunked commit checks all objects
+	 * before the first chunk. The time is measured as {@link Phase#PREFLIGHT}.
+	 */
+	public void setPreflightVersionCheck(boolean newPreflightVersionCheck) {
+		preflightVersionCheck = newPreflightVersionCheck;
+	}
+
+	/**
+	 * @return the retry policy of {@link #execute(UnitOfWork)}
+	 */
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * @param newRetryPolicy the retry policy of {@link #execute(UnitOfWork)}, {@link RetryPolicy#NONE} to pass the
+	 *            first conflict to the caller
+	 */
+	public void setRetryPolicy(RetryPolicy newRetryPolicy) {
+		retryPolicy = newRetryPolicy;
+	}
+
+	/**
+	 * Tells if changes of the property must mark the object changed. The optimistic lock of inverse collections is
+	 * configured with the mapping only (see {@link HibernateUtility#INVERSE_OPTIMISTIC_LOCK}), thus the marking always
+	 * agrees with the version increments of Hibernate.
+	 * 
+	 * @return false if the mapping excludes the property of the object from the optimistic lock, true if the
+	 *         PersistenceUtility does not know the mapping
+	 * @see HibernateUtility#isOptimisticLocked(Class, String)
+	 */
+	public boolean isOptimisticLocked(IPersistable po, String propertyName) {
+		HibernateUtility hu = getHibernateUtility(po);
+		return hu == null || hu.isOptimisticLocked(po.getClass(), propertyName);
+	}
+
+	/**
+	 * @return true if the writes are grouped for JDBC batching during commit
+	 */
+	public boolean isBatchedCommit() {
+		return jdbcBatchSize > 1;
+	}
+
+	/**
+	 * @return the writes of the last batched commit grouped by entity class and operation, for a chunked commit the writes
+	 *         of all chunks
+	 */
+	public List<CommitBatch> getLastCommitBatches() {
+		return lastCommitBatches;
+	}
+
+	/**
+	 * @return the expected number of JDBC batches of the last batched commit, see {@link CommitBatch}
+	 */
+	public int getLastCommitEstimatedBatchCount() {
+		int result = 0;
+		for (CommitBatch batch : lastCommitBatches) {
+			result += batch.getEstimatedBatchCount();
+		}
+		return result;
+	}
+
 }
@@ -0,0 +1,79 @@
+package org.webguitoolkit.persistence;
+
+import java.util.Random;
+
+/**
+ * Defines how often and after which delay {@link PersistenceManager#execute(UnitOfWork)} replays a unit of work that
+ * failed with a {@link ConcurrentChangeException}. The delay grows exponentially with the failed attempts up to a
+ * maximum. A random part of the delay (jitter) keeps concurrent units of work from retrying in lock step.
+ */
+public class RetryPolicy {
+
+	/**
+	 * 3 attempts with a delay starting at 50 milliseconds
+	 */
+	public static final RetryPolicy DEFAULT = new RetryPolicy(3, 50, 2000);
+
+	/**
+	 * a single attempt, the conflict is passed to the caller
+	 */
+	public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0);
+
+	private final int maxAttempts;
+	private final long initialBackoffMillis;
+	private final long maxBackoffMillis;
+	private final Random random = new Random();
+
+	/**
+	 * @param maxAttempts the number of attempts including the first one, at least 1
+	 * @param initialBackoffMillis the delay after the first failed attempt, doubled with every further attempt
+	 * @param maxBackoffMillis the upper bound of the delay
+	 */
+	public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+		}
+		if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+			throw new IllegalArgumentException("Invalid backoff " + initialBackoffMillis + " to " + maxBackoffMillis);
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	/**
+	 * @return the number of attempts including the first one
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public long getInitialBackoffMillis() {
+		return initialBackoffMillis;
+	}
+
+	public long getMaxBackoffMillis() {
+		return maxBackoffMillis;
+	}
+
+	/**
+	 * @param failedAttempts the number of attempts failed so far, at least 1
+	 * @return the delay before the next attempt, a random time between the half and the full exponential backoff
+	 */
+	public long getBackoffMillis(int failedAttempts) {
+		long backoff = initialBackoffMillis;
+		for (int i = 1; i < failedAttempts && backoff < maxBackoffMillis; i++) {
+			backoff *= 2;
+		}
+		backoff = Math.min(backoff, maxBackoffMillis);
+		if (backoff < 2) {
+			return backoff;
+		}
+		long half = backoff / 2;
+		return half + (long)(random.nextDouble() * (backoff - half + 1));
+	}
+
+	public String toString() {
+		return maxAttempts + " attempts, backoff " + initialBackoffMillis + " to " + maxBackoffMillis + " ms";
+	}
+}
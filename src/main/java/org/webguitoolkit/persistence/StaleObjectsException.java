@@ -0,0 +1,29 @@
+package org.webguitoolkit.persistence;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.webguitoolkit.persistence.model.IPersistable;
+
+/**
+ * This Exception will be thrown if objects have been modified or deleted in the database while the application is
+ * working on them. All stale objects found are reported together.
+ */
+public class StaleObjectsException extends ConcurrentChangeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<IPersistable> staleObjects;
+
+	public StaleObjectsException(String msg, List<IPersistable> staleObjects) {
+		super(msg + ": " + staleObjects, null);
+		this.staleObjects = Collections.unmodifiableList(staleObjects);
+	}
+
+	/**
+	 * @return the objects whose version differs from the database or that have been deleted in the database
+	 */
+	public List<IPersistable> getStaleObjects() {
+		return staleObjects;
+	}
+}
@@ -0,0 +1,20 @@
+package org.webguitoolkit.persistence;
+
+/**
+ * The changes of a unit of work, executed and committed by {@link PersistenceManager#execute(UnitOfWork)}. The unit of
+ * work is replayed after a concurrent change, thus it has to read the objects it changes within {@link #execute()}
+ * and must not have side effects outside of the persistent objects.
+ *
+ * @param <T> the type of the result
+ */
+public interface UnitOfWork<T> {
+
+	/**
+	 * changes the persistent objects, the changes are committed afterwards
+	 *
+	 * @return the result passed to the caller of {@link PersistenceManager#execute(UnitOfWork)}
+	 * @throws PersistenceException a {@link ConcurrentChangeException} replays the unit of work, any other exception is
+	 *             passed to the caller
+	 */
+	T execute() throws PersistenceException;
+}
@@ -0,0 +1,53 @@
+package org.webguitoolkit.persistence;
+
+import org.webguitoolkit.persistence.model.util.IPersistentWrapper;
+
+/**
+ * The observer wrappers of the collection fields of a Persistable, thus reading a wrapped collection field does not
+ * create a new wrapper on every access. A wrapper is only valid as long as the field holds the wrapped collection, e.g.
+ * Hibernate replaces the collection on load. Is not a Collection on purpose, reading the field must not trigger the
+ * collection advice of the aspects.
+ */
+final class WrapperCache {
+
+	// the keys are compared by identity, there is one key per field
+	private Object[] keys = new Object[2];
+	private IPersistentWrapper<?>[] wrappers = new IPersistentWrapper<?>[2];
+	private int size;
+
+	/**
+	 * @return the wrapper of the field if it wraps the collection, NULL otherwise
+	 */
+	IPersistentWrapper<?> get(Object fieldKey, Object collection) {
+		for (int i = 0; i < size; i++) {
+			if (keys[i] == fieldKey) {
+				IPersistentWrapper<?> wrapper = wrappers[i];
+				return wrapper.getDelegate() == collection ? wrapper : null;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * caches the wrapper of the field, replaces the wrapper of another collection
+	 */
+	void put(Object fieldKey, IPersistentWrapper<?> wrapper) {
+		for (int i = 0; i < size; i++) {
+			if (keys[i] == fieldKey) {
+				wrappers[i] = wrapper;
+				return;
+			}
+		}
+		if (size == keys.length) {
+			Object[] newKeys = new Object[size * 2];
+			IPersistentWrapper<?>[] newWrappers = new IPersistentWrapper<?>[size * 2];
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			System.arraycopy(wrappers, 0, newWrappers, 0, size);
+			keys = newKeys;
+			wrappers = newWrappers;
+		}
+		keys[size] = fieldKey;
+		wrappers[size] = wrapper;
+		size++;
+	}
+}
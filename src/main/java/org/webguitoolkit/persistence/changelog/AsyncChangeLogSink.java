@@ -0,0 +1,300 @@
+package org.webguitoolkit.persistence.changelog;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Decouples the change log from the commit. The records are put into a bounded queue (a ring buffer) and written to the
+ * delegate sink by one background thread, thus formatting and I/O do not extend the commit.
+ * <p>
+ * The {@link BackpressurePolicy} defines what happens when the queue is full. The queue metrics (depth, maximum depth,
+ * dropped and written records) can be used for monitoring.
+ */
+public class AsyncChangeLogSink implements IChangeLogSink {
+
+	/**
+	 * Defines what happens with a record when the queue is full
+	 */
+	public enum BackpressurePolicy {
+		/**
+		 * the committing thread waits until there is space in the queue
+		 */
+		BLOCK,
+		/**
+		 * the record is dropped and counted
+		 */
+		DROP,
+		/**
+		 * the committing thread writes the record itself, the order of the change log may differ from the commit order then
+		 */
+		CALLER_RUNS
+	}
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private static final int DRAIN_SIZE = 256;
+	private static final long POLL_MILLIS = 500;
+	private static final long CLOSE_TIMEOUT_MILLIS = 10000;
+	private static Log log = LogFactory.getLog(AsyncChangeLogSink.class);
+
+	private final IChangeLogSink delegate;
+	private final ArrayBlockingQueue<ChangeRecord> queue;
+	private final int capacity;
+	private final BackpressurePolicy policy;
+
+	private final AtomicLong pendingCount = new AtomicLong();
+	private final AtomicLong writtenCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private volatile int maxQueueDepth;
+
+	private final Object idleMonitor = new Object();
+	private Thread consumer;
+	private volatile boolean closed;
+
+	/**
+	 * creates a sink with the default capacity that blocks the committing thread when the queue is full
+	 */
+	public AsyncChangeLogSink(IChangeLogSink delegate) {
+		this(delegate, DEFAULT_CAPACITY, BackpressurePolicy.BLOCK);
+	}
+
+	/**
+	 * @param delegate the sink that writes the records
+	 * @param capacity the maximum number of records in the queue
+	 * @param policy what happens with a record when the queue is full
+	 */
+	public AsyncChangeLogSink(IChangeLogSink delegate, int capacity, BackpressurePolicy policy) {
+		if (delegate == null)
+			throw new IllegalArgumentException("delegate must not be NULL");
+		this.delegate = delegate;
+		this.capacity = capacity;
+		this.policy = policy;
+		queue = new ArrayBlockingQueue<ChangeRecord>(capacity);
+	}
+
+	public boolean isEnabled() {
+		return delegate.isEnabled();
+	}
+
+	public void write(ChangeRecord record) {
+		if (closed) {
+			writeDirect(record);
+			return;
+		}
+		ensureConsumerStarted();
+		pendingCount.incrementAndGet();
+		boolean queued;
+		if (policy == BackpressurePolicy.BLOCK) {
+			try {
+				queue.put(record);
+				queued = true;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				queued = false;
+			}
+		}
+		else {
+			queued = queue.offer(record);
+		}
+		if (!queued) {
+			pendingCount.decrementAndGet();
+			if (policy == BackpressurePolicy.DROP) {
+				if (droppedCount.incrementAndGet() == 1) {
+					log.warn("Change log queue is full (" + capacity + " records), records are dropped");
+				}
+			}
+			else {
+				writeDirect(record);
+			}
+		}
+	}
+
+	/**
+	 * waits until all queued records are written and flushes the delegate
+	 */
+	public void flush() {
+		flush(0);
+	}
+
+	/**
+	 * waits until all queued records are written and flushes the delegate
+	 *
+	 * @param timeoutMillis the maximum time to wait, 0 waits until the queue is empty
+	 * @return <code>false</code> if the timeout expired before all records were written
+	 */
+	public boolean flush(long timeoutMillis) {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		synchronized (idleMonitor) {
+			while (pendingCount.get() > 0 && isConsumerAlive()) {
+				long wait = POLL_MILLIS;
+				if (timeoutMillis > 0) {
+					wait = Math.min(wait, deadline - System.currentTimeMillis());
+					if (wait <= 0) {
+						return false;
+					}
+				}
+				try {
+					idleMonitor.wait(wait);
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		synchronized (delegate) {
+			delegate.flush();
+		}
+		return pendingCount.get() == 0;
+	}
+
+	/**
+	 * stops the background thread after the queued records are written and closes the delegate
+	 */
+	public void close() {
+		closed = true;
+		Thread thread;
+		synchronized (this) {
+			thread = consumer;
+		}
+		if (thread != null) {
+			try {
+				thread.join(CLOSE_TIMEOUT_MILLIS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		// write what is left if the consumer did not finish in time
+		ChangeRecord record;
+		while ((record = queue.poll()) != null) {
+			pendingCount.decrementAndGet();
+			writeDirect(record);
+		}
+		synchronized (delegate) {
+			delegate.close();
+		}
+	}
+
+	/**
+	 * @return the number of records in the queue
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the maximum number of records that were in the queue at once
+	 */
+	public int getMaxQueueDepth() {
+		return maxQueueDepth;
+	}
+
+	/**
+	 * @return the maximum number of records in the queue
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of records written to the delegate
+	 */
+	public long getWrittenCount() {
+		return writtenCount.get();
+	}
+
+	/**
+	 * @return the number of records dropped because the queue was full
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * @return the policy used when the queue is full
+	 */
+	public BackpressurePolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the sink that writes the records
+	 */
+	public IChangeLogSink getDelegate() {
+		return delegate;
+	}
+
+	private synchronized void ensureConsumerStarted() {
+		if (consumer == null) {
+			consumer = new Thread(new Consumer(), "ChangeLog-" + delegate.getClass().getSimpleName());
+			consumer.setDaemon(true);
+			consumer.start();
+		}
+	}
+
+	private synchronized boolean isConsumerAlive() {
+		return consumer != null && consumer.isAlive();
+	}
+
+	private void writeDirect(ChangeRecord record) {
+		try {
+			synchronized (delegate) {
+				delegate.write(record);
+			}
+			writtenCount.incrementAndGet();
+		}
+		catch (RuntimeException e) {
+			log.error("Error writing change log record " + record.getEntityClass().getName() + " "
+					+ record.getObjectUId(), e);
+		}
+	}
+
+	private class Consumer implements Runnable {
+
+		public void run() {
+			List<ChangeRecord> batch = new ArrayList<ChangeRecord>(DRAIN_SIZE);
+			while (true) {
+				ChangeRecord first;
+				try {
+					first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				}
+				catch (InterruptedException e) {
+					first = null;
+				}
+				if (first == null) {
+					if (closed) {
+						return;
+					}
+					continue;
+				}
+				int depth = queue.size() + 1;
+				if (depth > maxQueueDepth) {
+					maxQueueDepth = depth;
+				}
+				batch.add(first);
+				queue.drainTo(batch, DRAIN_SIZE - 1);
+				for (ChangeRecord record : batch) {
+					writeDirect(record);
+				}
+				pendingCount.addAndGet(-batch.size());
+				batch.clear();
+				if (queue.isEmpty()) {
+					synchronized (delegate) {
+						delegate.flush();
+					}
+					synchronized (idleMonitor) {
+						idleMonitor.notifyAll();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package org.webguitoolkit.persistence.changelog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+
+/**
+ * One entry of the change log: an object that was created, changed or deleted by a commit. The record keeps the raw
+ * data of the change only, the key of the object and the names and values of the modifying method calls. The texts are
+ * created when the record is formatted by the {@link IChangeLogSink} that writes it, usually in a background thread.
+ * The values are the values passed to the methods, only Dates, arrays and Persistables are replaced when they are
+ * recorded. A value changed in place before the record is written is logged with its new state.
+ */
+public class ChangeRecord {
+
+	/**
+	 * the value of a modification recorded as a complete text, the name is the text then
+	 */
+	public static final Object NO_VALUE = new Object();
+
+	private static final String[] NO_NAMES = new String[0];
+	private static final Object[] NO_VALUES = new Object[0];
+
+	private final Class<?> entityClass;
+	private final long objectUId;
+	private final Object key;
+	private final ModificationType operation;
+	private final String user;
+	private final long timestamp;
+	private final String[] modificationNames;
+	private final Object[] modificationValues;
+
+	/**
+	 * @param entityClass the class of the object
+	 * @param objectUId the object UID
+	 * @param key the key of the object, see IPersistable.getKey()
+	 * @param operation NEW, CHANGED or DELETED
+	 * @param user the user that committed the change
+	 * @param timestamp the time of the change in milliseconds
+	 * @param modificationNames the names of the modifying methods, the array must not be changed afterwards
+	 * @param modificationValues the values passed to the modifying methods, the array must not be changed afterwards
+	 */
+	public ChangeRecord(Class<?> entityClass, long objectUId, Object key, ModificationType operation, String user,
+			long timestamp, String[] modificationNames, Object[] modificationValues) {
+		this.entityClass = entityClass;
+		this.objectUId = objectUId;
+		this.key = key;
+		this.operation = operation;
+		this.user = user;
+		this.timestamp = timestamp;
+		if (modificationNames == null) {
+			this.modificationNames = NO_NAMES;
+			this.modificationValues = NO_VALUES;
+		}
+		else {
+			if (modificationValues == null || modificationValues.length != modificationNames.length)
+				throw new IllegalArgumentException("a value is needed for each modification");
+			this.modificationNames = modificationNames;
+			this.modificationValues = modificationValues;
+		}
+	}
+
+	/**
+	 * @return the class of the object
+	 */
+	public Class<?> getEntityClass() {
+		return entityClass;
+	}
+
+	/**
+	 * @return the object UID
+	 */
+	public long getObjectUId() {
+		return objectUId;
+	}
+
+	/**
+	 * @return the key of the object
+	 */
+	public Object getKey() {
+		return key;
+	}
+
+	/**
+	 * @return the log info of the object, the text of its key
+	 */
+	public String getLogInfo() {
+		return String.valueOf(key);
+	}
+
+	/**
+	 * @return NEW, CHANGED or DELETED
+	 */
+	public ModificationType getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return the user that committed the change
+	 */
+	public String getUser() {
+		return user;
+	}
+
+	/**
+	 * @return the time of the change in milliseconds
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * @return the number of modifications
+	 */
+	public int getModificationCount() {
+		return modificationNames.length;
+	}
+
+	/**
+	 * @return the texts of the modifications, e.g. <code>setText ( value )</code>. The texts are created on each call.
+	 */
+	public List<String> getModifications() {
+		if (modificationNames.length == 0) {
+			return Collections.emptyList();
+		}
+		List<String> texts = new ArrayList<String>(modificationNames.length);
+		for (int i = 0; i < modificationNames.length; i++) {
+			if (modificationValues[i] == NO_VALUE) {
+				texts.add(modificationNames[i]);
+			}
+			else {
+				texts.add(modificationNames[i] + " ( " + modificationValues[i] + " )");
+			}
+		}
+		return texts;
+	}
+
+	@Override
+	public String toString() {
+		return new ChangeRecordFormatter().format(this);
+	}
+}
@@ -0,0 +1,49 @@
+package org.webguitoolkit.persistence.changelog;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+
+/**
+ * Formats a {@link ChangeRecord} to a change log line, e.g.<br>
+ * <code>user CHANGED at '1 Mar 2011 10:15:00 GMT' TestObject { 4711 } [text]</code><br>
+ * The formatter keeps its date format, thus it is not thread safe. Each sink uses its own formatter.
+ */
+public class ChangeRecordFormatter {
+
+	private final SimpleDateFormat dateFormat;
+	private final StringBuilder buffer = new StringBuilder(128);
+	private final Date date = new Date();
+
+	public ChangeRecordFormatter() {
+		dateFormat = new SimpleDateFormat("d MMM yyyy HH:mm:ss z");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+	}
+
+	/**
+	 * @return the change log line of the record
+	 */
+	public String format(ChangeRecord record) {
+		buffer.setLength(0);
+		buffer.append(record.getUser());
+		switch( record.getOperation() ){
+			case NEW:
+				buffer.append(" CREATED ");
+				break;
+			case DELETED:
+				buffer.append(" DELETED ");
+				break;
+			default:
+				date.setTime(record.getTimestamp());
+				buffer.append(" CHANGED at '").append(dateFormat.format(date)).append("' ");
+				break;
+		}
+		buffer.append(record.getLogInfo());
+		if (record.getOperation() == ModificationType.CHANGED) {
+			buffer.append(' ').append(record.getModifications());
+		}
+		return buffer.toString();
+	}
+}
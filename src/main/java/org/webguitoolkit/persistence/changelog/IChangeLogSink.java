@@ -0,0 +1,30 @@
+package org.webguitoolkit.persistence.changelog;
+
+/**
+ * A destination of the change log written by the PersistenceManager after a commit.
+ *
+ * @see org.webguitoolkit.persistence.PersistenceManager#setChangeLogSink(IChangeLogSink)
+ */
+public interface IChangeLogSink {
+
+	/**
+	 * @return <code>false</code> if the records would be discarded anyway. The PersistenceManager does not create any
+	 *         records then.
+	 */
+	boolean isEnabled();
+
+	/**
+	 * writes one record
+	 */
+	void write(ChangeRecord record);
+
+	/**
+	 * writes buffered records
+	 */
+	void flush();
+
+	/**
+	 * writes buffered records and releases the resources of the sink
+	 */
+	void close();
+}
@@ -0,0 +1,41 @@
+package org.webguitoolkit.persistence.changelog;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.webguitoolkit.persistence.PersistenceManager;
+
+/**
+ * Writes the change log with level INFO to a commons logging Log. By default the Log of the PersistenceManager is used
+ * as it was before the change log sinks were introduced.
+ */
+public class LogChangeLogSink implements IChangeLogSink {
+
+	private final Log log;
+	private final ChangeRecordFormatter formatter = new ChangeRecordFormatter();
+
+	public LogChangeLogSink() {
+		this(LogFactory.getLog(PersistenceManager.class));
+	}
+
+	public LogChangeLogSink(Log log) {
+		this.log = log;
+	}
+
+	public boolean isEnabled() {
+		return log.isInfoEnabled();
+	}
+
+	public synchronized void write(ChangeRecord record) {
+		if (log.isInfoEnabled()) {
+			log.info(formatter.format(record));
+		}
+	}
+
+	public void flush() {
+		// nothing to do
+	}
+
+	public void close() {
+		// nothing to do
+	}
+}
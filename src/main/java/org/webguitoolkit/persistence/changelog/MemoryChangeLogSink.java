@@ -0,0 +1,54 @@
+package org.webguitoolkit.persistence.changelog;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the change log in memory, mainly for tests.
+ */
+public class MemoryChangeLogSink implements IChangeLogSink {
+
+	private final List<ChangeRecord> records = new ArrayList<ChangeRecord>();
+
+	public boolean isEnabled() {
+		return true;
+	}
+
+	public synchronized void write(ChangeRecord record) {
+		records.add(record);
+	}
+
+	/**
+	 * @return a copy of the records written so far
+	 */
+	public synchronized List<ChangeRecord> getRecords() {
+		return new ArrayList<ChangeRecord>(records);
+	}
+
+	/**
+	 * @return the formatted records written so far
+	 */
+	public synchronized List<String> getLines() {
+		ChangeRecordFormatter formatter = new ChangeRecordFormatter();
+		List<String> result = new ArrayList<String>(records.size());
+		for (ChangeRecord record : records) {
+			result.add(formatter.format(record));
+		}
+		return result;
+	}
+
+	/**
+	 * removes all records
+	 */
+	public synchronized void clear() {
+		records.clear();
+	}
+
+	public void flush() {
+		// nothing to do
+	}
+
+	public void close() {
+		// nothing to do
+	}
+}
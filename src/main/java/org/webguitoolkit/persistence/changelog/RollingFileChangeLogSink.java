@@ -0,0 +1,140 @@
+package org.webguitoolkit.persistence.changelog;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Writes the change log to a file. When the file exceeds <code>maxFileSize</code> bytes it is renamed to
+ * <code>&lt;file&gt;.1</code>, the older backups are shifted to <code>.2</code> ... <code>.maxBackups</code> and the
+ * oldest backup is deleted.
+ */
+public class RollingFileChangeLogSink implements IChangeLogSink {
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+	private static Log log = LogFactory.getLog(RollingFileChangeLogSink.class);
+
+	private final File file;
+	private final long maxFileSize;
+	private final int maxBackups;
+	private final String encoding;
+	private final ChangeRecordFormatter formatter = new ChangeRecordFormatter();
+
+	private Writer writer;
+	private long fileSize;
+
+	/**
+	 * @param file the change log file
+	 * @param maxFileSize the size in bytes at which the file is rolled over
+	 * @param maxBackups the number of backup files to keep
+	 */
+	public RollingFileChangeLogSink(File file, long maxFileSize, int maxBackups) {
+		this(file, maxFileSize, maxBackups, "UTF-8");
+	}
+
+	/**
+	 * @param file the change log file
+	 * @param maxFileSize the size in bytes at which the file is rolled over
+	 * @param maxBackups the number of backup files to keep
+	 * @param encoding the encoding of the file
+	 */
+	public RollingFileChangeLogSink(File file, long maxFileSize, int maxBackups, String encoding) {
+		this.file = file;
+		this.maxFileSize = maxFileSize;
+		this.maxBackups = maxBackups;
+		this.encoding = encoding;
+	}
+
+	public boolean isEnabled() {
+		return true;
+	}
+
+	public synchronized void write(ChangeRecord record) {
+		try {
+			if (writer == null) {
+				open();
+			}
+			String line = formatter.format(record) + LINE_SEPARATOR;
+			writer.write(line);
+			// the exact number of bytes depends on the encoding, the number of characters is close enough for rolling
+			fileSize += line.length();
+			if (fileSize >= maxFileSize) {
+				rollOver();
+			}
+		}
+		catch (IOException e) {
+			log.error("Error writing change log to " + file, e);
+		}
+	}
+
+	public synchronized void flush() {
+		if (writer != null) {
+			try {
+				writer.flush();
+			}
+			catch (IOException e) {
+				log.error("Error writing change log to " + file, e);
+			}
+		}
+	}
+
+	public synchronized void close() {
+		if (writer != null) {
+			try {
+				writer.close();
+			}
+			catch (IOException e) {
+				log.error("Error closing change log " + file, e);
+			}
+			writer = null;
+		}
+	}
+
+	/**
+	 * @return the change log file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	private void open() throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null && !parent.exists()) {
+			parent.mkdirs();
+		}
+		fileSize = file.length();
+		writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), encoding));
+	}
+
+	private void rollOver() throws IOException {
+		writer.close();
+		writer = null;
+		if (maxBackups > 0) {
+			File oldest = backupFile(maxBackups);
+			if (oldest.exists()) {
+				oldest.delete();
+			}
+			for (int i = maxBackups - 1; i >= 1; i--) {
+				File backup = backupFile(i);
+				if (backup.exists()) {
+					backup.renameTo(backupFile(i + 1));
+				}
+			}
+			file.renameTo(backupFile(1));
+		}
+		else {
+			file.delete();
+		}
+		open();
+	}
+
+	private File backupFile(int index) {
+		return new File(file.getPath() + "." + index);
+	}
+}
@@ -0,0 +1,101 @@
+package org.webguitoolkit.persistence.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The adds and removes of the relation management to inverse collections that have not been initialized. Applying them
+ * would load the whole collection, thus they are queued by collection instance and applied when Hibernate initializes
+ * the collection. The owning side of the relation is written on flush, hence the operations of an element are dropped
+ * once it has been flushed, otherwise a collection initialized afterwards would contain it twice. The whole queue is
+ * dropped after commit, rollback and close.
+ */
+public final class DeferredCollectionOperations {
+
+	private final Map<Collection<?>, List<Operation>> operations = new IdentityHashMap<Collection<?>, List<Operation>>();
+	private int size;
+
+	/**
+	 * queues the add or remove of the element
+	 */
+	public void queue(Collection<?> collection, Object element, boolean add) {
+		List<Operation> queued = operations.get(collection);
+		if (queued == null) {
+			queued = new ArrayList<Operation>(2);
+			operations.put(collection, queued);
+		}
+		queued.add(new Operation(element, add));
+		size++;
+	}
+
+	/**
+	 * Applies the operations queued for the collection in their order and removes them from the queue.
+	 */
+	@SuppressWarnings("unchecked")
+	public void apply(Collection<?> collection) {
+		List<Operation> queued = operations.remove(collection);
+		if (queued == null) {
+			return;
+		}
+		size -= queued.size();
+		for (Operation operation : queued) {
+			if (operation.add) {
+				((Collection<Object>)collection).add(operation.element);
+			}
+			else {
+				collection.remove(operation.element);
+			}
+		}
+	}
+
+	/**
+	 * Drops the operations of the flushed elements, the collections read them from the database when they are
+	 * initialized.
+	 * 
+	 * @param flushed the flushed entities, compared by identity
+	 */
+	public void dropFlushed(Set<Object> flushed) {
+		for (Iterator<List<Operation>> queues = operations.values().iterator(); queues.hasNext();) {
+			List<Operation> queued = queues.next();
+			for (Iterator<Operation> it = queued.iterator(); it.hasNext();) {
+				if (flushed.contains(it.next().element)) {
+					it.remove();
+					size--;
+				}
+			}
+			if (queued.isEmpty()) {
+				queues.remove();
+			}
+		}
+	}
+
+	/**
+	 * drops all queued operations
+	 */
+	public void clear() {
+		operations.clear();
+		size = 0;
+	}
+
+	/**
+	 * @return the number of queued operations
+	 */
+	public int size() {
+		return size;
+	}
+
+	private static final class Operation {
+		private final Object element;
+		private final boolean add;
+
+		private Operation(Object element, boolean add) {
+			this.element = element;
+			this.add = add;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.webguitoolkit.persistence.model;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Resolved access to a relation field used by the RelationManagementHelper. The field is looked up once per class and
+ * field name and made accessible, the cardinality, the mappedBy and mark changed flags and the optimistic lock of the
+ * RelationManagement are read from the annotations once as well, thus relation management does not need reflective
+ * lookups and annotation checks per call.
+ */
+public final class RelationAccessor {
+
+	/**
+	 * The cardinality of a relation field given by its JPA annotation
+	 */
+	public enum Cardinality {
+		ONE_TO_ONE, ONE_TO_MANY, MANY_TO_ONE, MANY_TO_MANY, NONE
+	}
+
+	private static final ConcurrentMap<Class<?>, ConcurrentMap<String, RelationAccessor>> accessors = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, RelationAccessor>>();
+
+	private final Field field;
+	private final Cardinality cardinality;
+	private final String mappedBy;
+	private final boolean collection;
+	private final boolean optimisticLock;
+
+	private RelationAccessor(Class<?> clazz, Field field) {
+		field.setAccessible(true);
+		this.field = field;
+		String mapped = null;
+		if (field.isAnnotationPresent(OneToMany.class)) {
+			cardinality = Cardinality.ONE_TO_MANY;
+			mapped = field.getAnnotation(OneToMany.class).mappedBy();
+		}
+		else if (field.isAnnotationPresent(ManyToMany.class)) {
+			cardinality = Cardinality.MANY_TO_MANY;
+			mapped = field.getAnnotation(ManyToMany.class).mappedBy();
+		}
+		else if (field.isAnnotationPresent(OneToOne.class)) {
+			cardinality = Cardinality.ONE_TO_ONE;
+			mapped = field.getAnnotation(OneToOne.class).mappedBy();
+		}
+		else if (field.isAnnotationPresent(ManyToOne.class)) {
+			cardinality = Cardinality.MANY_TO_ONE;
+		}
+		else {
+			cardinality = Cardinality.NONE;
+		}
+		this.mappedBy = StringUtils.isNotEmpty(mapped) ? mapped : null;
+		this.collection = Collection.class.isAssignableFrom(field.getType());
+		this.optimisticLock = mappedBy == null || !collection || isOptimisticLock(clazz, field);
+	}
+
+	/**
+	 * @return false if the RelationManagement of the field or of a method changing the field excludes it from the
+	 *         optimistic lock
+	 */
+	private static boolean isOptimisticLock(Class<?> clazz, Field field) {
+		RelationManagement relation = field.getAnnotation(RelationManagement.class);
+		if (relation != null && !relation.optimisticLock()) {
+			return false;
+		}
+		for (Method method : clazz.getMethods()) {
+			relation = method.getAnnotation(RelationManagement.class);
+			if (relation != null && !relation.optimisticLock() && field.getName().equals(relation.thisSide())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param clazz the class of the object (not a proxy class)
+	 * @param fieldName the name of the field declared in the class or a superclass
+	 * @return the accessor of the field
+	 * @throws NoSuchFieldException if neither the class nor a superclass declares the field
+	 */
+	public static RelationAccessor forField(Class<?> clazz, String fieldName) throws NoSuchFieldException {
+		ConcurrentMap<String, RelationAccessor> classAccessors = accessors.get(clazz);
+		if (classAccessors == null) {
+			classAccessors = new ConcurrentHashMap<String, RelationAccessor>();
+			ConcurrentMap<String, RelationAccessor> existing = accessors.putIfAbsent(clazz, classAccessors);
+			if (existing != null) {
+				classAccessors = existing;
+			}
+		}
+		RelationAccessor accessor = classAccessors.get(fieldName);
+		if (accessor == null) {
+			accessor = new RelationAccessor(clazz, getDeclaredField(clazz, fieldName));
+			classAccessors.putIfAbsent(fieldName, accessor);
+		}
+		return accessor;
+	}
+
+	private static Field getDeclaredField(Class<?> clazz, String field) throws NoSuchFieldException {
+		try {
+			return clazz.getDeclaredField(field);
+		}
+		catch (NoSuchFieldException fe) {
+			if (clazz.getSuperclass() == null || clazz.getSuperclass().equals(Object.class)) {
+				throw fe;
+			}
+			return getDeclaredField(clazz.getSuperclass(), field);
+		}
+	}
+
+	public Field getField() {
+		return field;
+	}
+
+	public Cardinality getCardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * @return the mappedBy attribute of the annotation or NULL if this is the owning side
+	 */
+	public String getMappedBy() {
+		return mappedBy;
+	}
+
+	/**
+	 * @return <code>true</code> if a change of the field must mark the object changed, which is not the case for the
+	 *         inverse side (mappedBy) of a relation
+	 */
+	public boolean isMarkChange() {
+		return mappedBy == null;
+	}
+
+	/**
+	 * @return <code>false</code> if the field is an inverse (mappedBy) collection excluded from the optimistic lock by its
+	 *         RelationManagement, changes neither mark the object changed nor increment its version
+	 * @see RelationManagement#optimisticLock()
+	 */
+	public boolean isOptimisticLock() {
+		return optimisticLock;
+	}
+
+	/**
+	 * @return <code>true</code> if the field holds a Collection
+	 */
+	public boolean isCollection() {
+		return collection;
+	}
+
+	public Object get(Object object) throws IllegalAccessException {
+		return field.get(object);
+	}
+
+	public void set(Object object, Object value) throws IllegalAccessException {
+		field.set(object, value);
+	}
+
+	/**
+	 * @return the Collection of the field or NULL if the field is not a Collection
+	 */
+	@SuppressWarnings("unchecked")
+	public Collection<IPersistable> getCollection(Object object) throws IllegalAccessException {
+		return collection ? (Collection<IPersistable>)field.get(object) : null;
+	}
+}
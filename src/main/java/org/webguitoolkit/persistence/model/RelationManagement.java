@@ -48,4 +48,11 @@ public @interface RelationManagement{
 	 * @return the mode when the relation management is executed if not set execute always
 	 */
 	public Mode mode() default Mode.AUTO;
+
+	/**
+	 * @return false if adding to or removing from the collection of this side neither marks this object changed nor
+	 *         increments its version. Only applies to the inverse side (mappedBy) of a relation, changes of the owning
+	 *         side are written to the table of this object.
+	 */
+	public boolean optimisticLock() default true;
 }
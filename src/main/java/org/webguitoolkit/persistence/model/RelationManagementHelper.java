@@ -3,20 +3,15 @@
  */
 package org.webguitoolkit.persistence.model;
 
-import java.lang.reflect.Field;
 import java.util.Collection;
 
-import javax.persistence.ManyToMany;
-import javax.persistence.OneToMany;
-import javax.persistence.OneToOne;
-
-import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
+import org.hibernate.collection.PersistentCollection;
 import org.hibernate.proxy.HibernateProxy;
 import org.webguitoolkit.persistence.PersistenceContext;
+import org.webguitoolkit.persistence.PersistenceManager;
 import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
-import org.webguitoolkit.persistence.util.HibernateUtility;
-import org.webguitoolkit.persistence.util.IPersistenceUtility;
+import org.webguitoolkit.persistence.model.RelationAccessor.Cardinality;
 
 
 /**
@@ -32,23 +27,11 @@ import org.webguitoolkit.persistence.util.IPersistenceUtility;
  */
 public class RelationManagementHelper {
 
-	private static Field getDeclaredField(Class<?> clazz, String field) throws NoSuchFieldException {
-		try {
-			return clazz.getDeclaredField(field);
-		}
-		catch (NoSuchFieldException fe) {
-			if (clazz.getSuperclass().equals(Object.class)) {
-				throw fe;
-			}
-			return getDeclaredField(clazz.getSuperclass(), field);
-		}
-	}
-
 	public static void manageRelation(Object me, String myFieldName, Object partner, String partnerFieldName, String methodName) {
 		try {
-			Field myField = getDeclaredField(me.getClass(), myFieldName);
-			myField.setAccessible(true);
 			me = getWithoutProxy(me);
+			RelationAccessor myField = RelationAccessor.forField(me.getClass(), myFieldName);
+			Cardinality myCardinality = myField.getCardinality();
 
 			// REMOVE ME FROM MY OLD RELATED OBJECT
 			Object myOldValue = myField.get(me);
@@ -58,30 +41,29 @@ public class RelationManagementHelper {
 				// ONE TO ONE and MANY TO ONE are affected, in 
 				// collections there has nothing to be removed on relation changes
 
-				if (myField.isAnnotationPresent(javax.persistence.OneToOne.class))
+				if (myCardinality == Cardinality.ONE_TO_ONE)
 					setField(myOldValue, null, partnerFieldName);
 
-				if (myField.isAnnotationPresent(javax.persistence.ManyToOne.class))
+				if (myCardinality == Cardinality.MANY_TO_ONE)
 					removeFromCollection(myOldValue, me, partnerFieldName);
 			}
 
-			Field partnerField = null;
+			RelationAccessor partnerField = null;
 			if (partner != null) {
 				partner = getWithoutProxy(partner);
-				partnerField = getDeclaredField(partner.getClass(), partnerFieldName);
-				partnerField.setAccessible(true);
+				partnerField = RelationAccessor.forField(partner.getClass(), partnerFieldName);
 
 				// REMOVE PARTNER FROM IS OLD RELATED OBJECT
 				Object partnerOldValue = partnerField.get(partner);
 				if (partnerOldValue != null) {
 					attach(partnerOldValue);
 
-					if (partnerField.isAnnotationPresent(javax.persistence.OneToOne.class))
+					if (partnerField.getCardinality() == Cardinality.ONE_TO_ONE)
 						setField(partnerOldValue, null, myFieldName);
 
 					// the partner must be moved to a different collection if we add it
 					// to a new, therefore we have to remove it from the old one
-					if (partnerField.isAnnotationPresent(javax.persistence.ManyToOne.class) && methodName.startsWith("add"))
+					if (partnerField.getCardinality() == Cardinality.MANY_TO_ONE && methodName.startsWith("add"))
 						removeFromCollection(partnerOldValue, partner, myFieldName);
 				}
 			}
@@ -89,18 +71,17 @@ public class RelationManagementHelper {
 			// CREATE NEW RELATION
 
 			// RELATION FOR COLLECTION (ONE TO MANY, MANY TO MANY)
-			if (myField.isAnnotationPresent(javax.persistence.OneToMany.class)
-					|| myField.isAnnotationPresent(javax.persistence.ManyToMany.class)) {
+			if (myCardinality == Cardinality.ONE_TO_MANY || myCardinality == Cardinality.MANY_TO_MANY) {
 				if (methodName.startsWith("add")) {
 					// addToCollection(me, partner, myField);
-					if (myField.isAnnotationPresent(javax.persistence.OneToMany.class))
+					if (myCardinality == Cardinality.ONE_TO_MANY)
 						setField(partner, me, partnerField);
 					else
 						addToCollection(partner, me, partnerField);
 				}
 				else if (methodName.startsWith("remove")) {
 					// removeFromCollection(me, partner, myField);
-					if (myField.isAnnotationPresent(javax.persistence.OneToMany.class))
+					if (myCardinality == Cardinality.ONE_TO_MANY)
 						setField(partner, null, partnerField);
 					else
 						removeFromCollection(partner, me, partnerField);
@@ -108,21 +89,21 @@ public class RelationManagementHelper {
 			}
 
 			// RELATION FOR ONE TO ONE
-			if (myField.isAnnotationPresent(javax.persistence.OneToOne.class)) {
+			if (myCardinality == Cardinality.ONE_TO_ONE) {
 				// setField(me, partner, myField);
 				setField(partner, me, partnerField);
 			}
 
 			// RELATION FOR MANY TO ONE TO ONE
-			if (myField.isAnnotationPresent(javax.persistence.ManyToOne.class)) {
+			if (myCardinality == Cardinality.MANY_TO_ONE) {
 				// setField(me, partner, myField);
 				addToCollection(partner, me, partnerField);
 			}
 
 			// DO THE MARK CHANGED
-			if (partnerField != null && checkIfMarkChange(partnerField))
+			if (partnerField != null && partnerField.isMarkChange())
 				markChanged(partner);
-			if (checkIfMarkChange(myField))
+			if (myField.isMarkChange())
 				markChanged(me);
 		}
 		catch (NoSuchFieldException fe) {
@@ -135,14 +116,9 @@ public class RelationManagementHelper {
 		}
 	}
 
-	private static void setField(Object object, Object toSet, String fieldName) {
-		if (object == null || fieldName == null)
-			return;
+	private static RelationAccessor getAccessor(Object object, String fieldName) {
 		try {
-			Field field = getDeclaredField(object.getClass(), fieldName);
-			field.setAccessible(true);
-			// if other side has a collection one2many or many2many
-			setField(object, toSet, field);
+			return RelationAccessor.forField(object.getClass(), fieldName);
 		}
 		catch (NoSuchFieldException ex) {
 			Logger.getLogger(RelationManagementHelper.class).error("Wrong configuration of RelationManagement Annotation", ex);
@@ -150,13 +126,21 @@ public class RelationManagementHelper {
 		}
 	}
 
-	private static void setField(Object object, Object toSet, Field field) {
+	private static void setField(Object object, Object toSet, String fieldName) {
+		if (object == null || fieldName == null)
+			return;
+		object = getWithoutProxy(object);
+		// if other side has a collection one2many or many2many
+		setField(object, toSet, getAccessor(object, fieldName));
+	}
+
+	private static void setField(Object object, Object toSet, RelationAccessor field) {
 		if (object == null || field == null)
 			return;
 		try {
 			object = getWithoutProxy(object);
 			field.set(object, toSet);
-			if (checkIfMarkChange(field))
+			if (field.isMarkChange())
 				markChanged(object);
 		}
 		catch (IllegalAccessException ex) {
@@ -168,28 +152,21 @@ public class RelationManagementHelper {
 	private static void removeFromCollection(Object object, Object toRemove, String fieldName) {
 		if (object == null || toRemove == null || fieldName == null)
 			return;
-		try {
-			Field field = getDeclaredField(object.getClass(), fieldName);
-			field.setAccessible(true);
-			removeFromCollection(object, toRemove, field);
-		}
-		catch (NoSuchFieldException ex) {
-			Logger.getLogger(RelationManagementHelper.class).error("Wrong configuration of RelationManagement Annotation", ex);
-			throw new RuntimeException(ex);
-		}
+		object = getWithoutProxy(object);
+		removeFromCollection(object, toRemove, getAccessor(object, fieldName));
 	}
 
-	@SuppressWarnings("unchecked")
-	private static void removeFromCollection(Object object, Object toRemove, Field field) {
+	private static void removeFromCollection(Object object, Object toRemove, RelationAccessor field) {
 		if (object == null || toRemove == null || field == null)
 			return;
 		try {
-			Class<?> fieldClass = field.getType();
 			// if other side has a collection one2many or many2many
-			if (Collection.class.isAssignableFrom(fieldClass)) {
+			if (field.isCollection()) {
 				object = getWithoutProxy(object);
-				Collection<IPersistable> coll = (Collection<IPersistable>)field.get(object);
-				coll.remove(toRemove);
+				Collection<IPersistable> collection = field.getCollection(object);
+				if (!defer(collection, field, toRemove, false)) {
+					collection.remove(toRemove);
+				}
 			}
 		}
 		catch (IllegalAccessException ex) {
@@ -198,32 +175,17 @@ public class RelationManagementHelper {
 		}
 	}
 
-	@SuppressWarnings("unused")
-	private static void addToCollection(Object object, Object toAdd, String fieldName) {
-		if (object == null || toAdd == null || fieldName == null)
-			return;
-		try {
-			Field field = getDeclaredField(object.getClass(), fieldName);
-			field.setAccessible(true);
-			addToCollection(object, toAdd, field);
-		}
-		catch (NoSuchFieldException ex) {
-			Logger.getLogger(RelationManagementHelper.class).error("Wrong configuration of RelationManagement Annotation", ex);
-			throw new RuntimeException(ex);
-		}
-	}
-
-	@SuppressWarnings("unchecked")
-	private static void addToCollection(Object object, Object toAdd, Field field) {
+	private static void addToCollection(Object object, Object toAdd, RelationAccessor field) {
 		if (object == null || toAdd == null || field == null)
 			return;
 		try {
-			Class<?> fieldClass = field.getType();
 			// if other side has a collection one2many or many2many
-			if (Collection.class.isAssignableFrom(fieldClass)) {
+			if (field.isCollection()) {
 				object = getWithoutProxy(object);
-				Collection<IPersistable> coll = (Collection<IPersistable>)field.get(object);
-				coll.add((IPersistable)toAdd);
+				Collection<IPersistable> collection = field.getCollection(object);
+				if (!defer(collection, field, toAdd, true)) {
+					collection.add((IPersistable)toAdd);
+				}
 			}
 		}
 		catch (IllegalAccessException ex) {
@@ -232,6 +194,25 @@ public class RelationManagementHelper {
 		}
 	}
 
+	/**
+	 * Queues the change of an inverse collection that has not been initialized if the PersistenceManager defers the
+	 * maintenance, thus the collection is not loaded for the change.
+	 * 
+	 * @return <code>true</code> if the change has been queued
+	 */
+	private static boolean defer(Collection<IPersistable> collection, RelationAccessor field, Object element, boolean add) {
+		if (field.getMappedBy() == null || !(collection instanceof PersistentCollection)
+				|| ((PersistentCollection)collection).wasInitialized()) {
+			return false;
+		}
+		PersistenceManager pm = PersistenceContext.getPersistenceManager();
+		if (pm == null || !pm.isDeferredRelationMaintenance()) {
+			return false;
+		}
+		pm.getDeferredCollectionOperations().queue(collection, element, add);
+		return true;
+	}
+
 	private static Object getWithoutProxy(Object object) {
 		if (object instanceof HibernateProxy) {
 			object = ((HibernateProxy)object).getHibernateLazyInitializer().getImplementation();
@@ -239,41 +220,46 @@ public class RelationManagementHelper {
 		return object;
 	}
 
+	/**
+	 * attaches the object like the aspects do, an object attached in the current attach epoch is not attached again
+	 */
 	private static void attach(Object o) {
-		if (o instanceof IPersistable) {
-			IPersistenceUtility pu = PersistenceContext.getPersistenceManager().getPersistenceUtility().getDelegatePersistenceUtilityForClass(
-					o.getClass().getName());
-			if (pu instanceof HibernateUtility) {
-				if (!((HibernateUtility)pu).getSession().contains(o)) {
-					pu.attach((IPersistable)o);
-				}
-			}
+		PersistenceManager pm = PersistenceContext.getPersistenceManager();
+		if (pm != null && o instanceof IPersistable) {
+			pm.attach((IPersistable)o);
 		}
 	}
 
-	private static boolean checkIfMarkChange(Field field) {
-		if (field.isAnnotationPresent(OneToMany.class)) {
-			OneToMany o2m = field.getAnnotation(OneToMany.class);
-			if (StringUtils.isNotEmpty(o2m.mappedBy())) {
-				return false;
-			}
+	/**
+	 * Tells if a change of the collection must mark its owner changed. Inverse (mappedBy) collections excluded from the
+	 * optimistic lock by their RelationManagement or by the mapping do not mark the owner, the change is written by the
+	 * partner.
+	 * 
+	 * @param owner the owner of the collection
+	 * @param fieldName the name of the collection field, NULL if unknown
+	 * @return <code>true</code> if the owner must be marked changed
+	 */
+	public static boolean isMarkChange(Object owner, String fieldName) {
+		if (owner == null || fieldName == null) {
+			return true;
 		}
-		else if (field.isAnnotationPresent(ManyToMany.class)) {
-			ManyToMany m2m = field.getAnnotation(ManyToMany.class);
-			if (StringUtils.isNotEmpty(m2m.mappedBy())) {
-				return false;
-			}
+		RelationAccessor field;
+		try {
+			field = RelationAccessor.forField(getWithoutProxy(owner).getClass(), fieldName);
 		}
-		else if (field.isAnnotationPresent(OneToOne.class)) {
-			OneToOne o2o = field.getAnnotation(OneToOne.class);
-			if (StringUtils.isNotEmpty(o2o.mappedBy())) {
-				return false;
-			}
+		catch (NoSuchFieldException e) {
+			return true;
 		}
-		// else if (field.isAnnotationPresent(ManyToOne.class)) {
-		// ManyToOne m2o = field.getAnnotation(ManyToOne.class);
-		// }
-		return true;
+		if (field.getMappedBy() == null || !field.isCollection()) {
+			return true;
+		}
+		if (!field.isOptimisticLock()) {
+			return false;
+		}
+		PersistenceManager pm = PersistenceContext.getPersistenceManager();
+		Object unproxied = getWithoutProxy(owner);
+		return pm == null || !(unproxied instanceof IPersistable)
+				|| pm.isOptimisticLocked((IPersistable)unproxied, fieldName);
 	}
 
 	/**
@@ -48,11 +48,10 @@ public abstract class PersistablePFW2 extends Persistable implements IPersistabl
 	private long id;
 
 	/**
-	 * Constructor that creates an unique ID
+	 * Constructor, the unique ID is created by Persistable
 	 */
 	protected PersistablePFW2() {
 		super();
-		setGeneratedObjectUId();
 	}
 
 	// ------------------------------------------------------------------------------
@@ -39,7 +39,8 @@ public class PersistentSet<T extends IPersistable> implements Set<T>, IPersisten
 	}
 	
 	public boolean add(T arg0) {
-		owner.markModified(ModificationType.CHANGED);
+		if( isMarkChange() )
+			owner.markModified(ModificationType.CHANGED);
 		if( isRelationManaged ){
 			RelationManagementHelper.manageRelation(owner, thisSide, arg0, otherSide, "add"+thisSide );
 		}
@@ -47,7 +48,8 @@ public class PersistentSet<T extends IPersistable> implements Set<T>, IPersisten
 	}
 
 	public boolean addAll(Collection<? extends T> arg0) {
-		owner.markModified(ModificationType.CHANGED);
+		if( isMarkChange() )
+			owner.markModified(ModificationType.CHANGED);
 		if( isRelationManaged ){
 			for( T t : arg0 )
 				RelationManagementHelper.manageRelation(owner, thisSide, t, otherSide, "add"+thisSide );
@@ -79,7 +81,8 @@ public class PersistentSet<T extends IPersistable> implements Set<T>, IPersisten
 	}
 
 	public boolean remove( Object o ) {
-		owner.markModified(ModificationType.CHANGED);
+		if( isMarkChange() )
+			owner.markModified(ModificationType.CHANGED);
 		if( isRelationManaged ){
 			RelationManagementHelper.manageRelation(owner, thisSide, o, otherSide, "remove"+thisSide );
 			return true;
@@ -109,7 +112,8 @@ public class PersistentSet<T extends IPersistable> implements Set<T>, IPersisten
 	}
 
 	public boolean removeAll(Collection<?> c) {
-		owner.markModified(ModificationType.CHANGED);
+		if( isMarkChange() )
+			owner.markModified(ModificationType.CHANGED);
 		if( isRelationManaged ){
 			for( Object o : c )
 				RelationManagementHelper.manageRelation(owner, thisSide, o, otherSide, "remove"+thisSide );
@@ -127,4 +131,11 @@ public class PersistentSet<T extends IPersistable> implements Set<T>, IPersisten
 		return delegate.toArray( a );
 	}
 
+	/**
+	 * @return false if this is an inverse collection excluded from the optimistic lock, changes do not mark the owner
+	 */
+	private boolean isMarkChange() {
+		return RelationManagementHelper.isMarkChange( owner, thisSide );
+	}
+
 }
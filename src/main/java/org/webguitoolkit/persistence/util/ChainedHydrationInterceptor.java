@@ -0,0 +1,131 @@
+package org.webguitoolkit.persistence.util;
+
+import java.io.Serializable;
+import java.util.Iterator;
+
+import org.hibernate.EntityMode;
+import org.hibernate.Interceptor;
+import org.hibernate.Transaction;
+import org.hibernate.type.Type;
+
+/**
+ * A {@link HydrationInterceptor} in front of the interceptor configured by the application. Marks the instantiation of
+ * loaded Persistables and passes every call to the configured interceptor, thus the JPAUtility does not replace an
+ * interceptor of the persistence unit.
+ */
+public class ChainedHydrationInterceptor extends HydrationInterceptor {
+	private static final long serialVersionUID = 1L;
+
+	private final Interceptor delegate;
+
+	/**
+	 * @param delegate the interceptor configured by the application
+	 */
+	public ChainedHydrationInterceptor(Interceptor delegate) {
+		if (delegate == null)
+			throw new IllegalArgumentException("the delegate interceptor must not be NULL");
+		this.delegate = delegate;
+	}
+
+	/**
+	 * @return the interceptor configured by the application
+	 */
+	public Interceptor getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public Object instantiate(String entityName, EntityMode entityMode, Serializable id) {
+		markInstantiation(entityName, entityMode);
+		return delegate.instantiate(entityName, entityMode, id);
+	}
+
+	@Override
+	public boolean onLoad(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		return delegate.onLoad(entity, id, state, propertyNames, types);
+	}
+
+	@Override
+	public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+			String[] propertyNames, Type[] types) {
+		return delegate.onFlushDirty(entity, id, currentState, previousState, propertyNames, types);
+	}
+
+	@Override
+	public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		return delegate.onSave(entity, id, state, propertyNames, types);
+	}
+
+	@Override
+	public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+		delegate.onDelete(entity, id, state, propertyNames, types);
+	}
+
+	@Override
+	public void onCollectionRecreate(Object collection, Serializable key) {
+		delegate.onCollectionRecreate(collection, key);
+	}
+
+	@Override
+	public void onCollectionRemove(Object collection, Serializable key) {
+		delegate.onCollectionRemove(collection, key);
+	}
+
+	@Override
+	public void onCollectionUpdate(Object collection, Serializable key) {
+		delegate.onCollectionUpdate(collection, key);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void preFlush(Iterator entities) {
+		delegate.preFlush(entities);
+	}
+
+	@SuppressWarnings("rawtypes")
+	@Override
+	public void postFlush(Iterator entities) {
+		delegate.postFlush(entities);
+	}
+
+	@Override
+	public Boolean isTransient(Object entity) {
+		return delegate.isTransient(entity);
+	}
+
+	@Override
+	public int[] findDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+			String[] propertyNames, Type[] types) {
+		return delegate.findDirty(entity, id, currentState, previousState, propertyNames, types);
+	}
+
+	@Override
+	public String getEntityName(Object object) {
+		return delegate.getEntityName(object);
+	}
+
+	@Override
+	public Object getEntity(String entityName, Serializable id) {
+		return delegate.getEntity(entityName, id);
+	}
+
+	@Override
+	public void afterTransactionBegin(Transaction tx) {
+		delegate.afterTransactionBegin(tx);
+	}
+
+	@Override
+	public void beforeTransactionCompletion(Transaction tx) {
+		delegate.beforeTransactionCompletion(tx);
+	}
+
+	@Override
+	public void afterTransactionCompletion(Transaction tx) {
+		delegate.afterTransactionCompletion(tx);
+	}
+
+	@Override
+	public String onPrepareStatement(String sql) {
+		return delegate.onPrepareStatement(sql);
+	}
+}
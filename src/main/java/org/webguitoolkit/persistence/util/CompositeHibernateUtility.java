@@ -4,9 +4,10 @@
 package org.webguitoolkit.persistence.util;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -62,6 +63,8 @@ public class CompositeHibernateUtility implements IPersistenceUtility {
 
 	private List<HibernateUtility> delegatePersistenceUtilities;
 	private Map<String, HibernateUtility> delegatePersistenceUtilityCache;
+	// the delegates objects have been saved, updated or deleted at since the last flush or end of the transaction
+	private final Set<HibernateUtility> writtenDelegates = new LinkedHashSet<HibernateUtility>();
 	
 	/**
 	 * 
@@ -155,7 +158,7 @@ public class CompositeHibernateUtility implements IPersistenceUtility {
 		// initialize a lookup mechanism for searching a HibernateUtility
 		Map<HibernateUtility, Set<IPersistable>> huMap = new HashMap<HibernateUtility, Set<IPersistable>>();
 		for (HibernateUtility currentHU : delegatePersistenceUtilities) {
-			huMap.put(currentHU, new HashSet<IPersistable>());
+			huMap.put(currentHU, new IdentityLinkedHashSet<IPersistable>());
 		}		
 		
 		// iterate over all persistent objects and put them in the list according to the HibernateUtility in which their class is registered
@@ -168,10 +171,68 @@ public class CompositeHibernateUtility implements IPersistenceUtility {
 		// attach the sorted lists for each HibernateUtility
 		for (HibernateUtility currentHU : delegatePersistenceUtilities) {
 			Set<IPersistable> targetSet = huMap.get(currentHU);
+			List<IPersistable> requested = new ArrayList<IPersistable>(targetSet);
 			currentHU.attach(targetSet);
+			if (targetSet.size() != requested.size()) {
+				// pass on the objects that have not been attached
+				for (IPersistable po : requested) {
+					if (!targetSet.contains(po)) {
+						registeredObjects.remove(po);
+					}
+				}
+			}
 		}
 	}
 
+	/**
+	 * Compares the versions of the objects with the database at the HibernateUtility of their class.
+	 * 
+	 * @see HibernateUtility#findStaleObjects(Collection)
+	 */
+	public List<IPersistable> findStaleObjects(Collection<? extends IPersistable> objects) {
+		List<IPersistable> staleObjects = new ArrayList<IPersistable>();
+		for (Map.Entry<HibernateUtility, List<IPersistable>> entry : groupByDelegate(objects).entrySet()) {
+			staleObjects.addAll(entry.getKey().findStaleObjects(entry.getValue()));
+		}
+		return staleObjects;
+	}
+
+	/**
+	 * Refreshes the objects in batches at the HibernateUtility of their class.
+	 * 
+	 * @see HibernateUtility#refreshInBatches(Collection, String...)
+	 */
+	public void refreshInBatches(Collection<? extends IPersistable> objects, String... associations)
+			throws PersistenceException {
+		for (Map.Entry<HibernateUtility, List<IPersistable>> entry : groupByDelegate(objects).entrySet()) {
+			entry.getKey().refreshInBatches(entry.getValue(), associations);
+		}
+	}
+
+	/**
+	 * Groups the objects by the HibernateUtility of their class, throws a RuntimeException if there is none for an
+	 * object.
+	 */
+	private Map<HibernateUtility, List<IPersistable>> groupByDelegate(Collection<? extends IPersistable> objects) {
+		Map<HibernateUtility, List<IPersistable>> huMap = new HashMap<HibernateUtility, List<IPersistable>>();
+		for (IPersistable currentPO : objects) {
+			Class<?> currentClass = HibernateProxyHelper.getClassWithoutInitializingProxy(currentPO);
+			HibernateUtility foundHU = (HibernateUtility)getDelegatePersistenceUtilityForClass(currentClass
+					.getCanonicalName());
+			if (foundHU == null) {
+				throw new RuntimeException("Could not process object of class '" + currentClass.getCanonicalName()
+						+ "' - no associated IPersistenceUtility found!");
+			}
+			List<IPersistable> targetList = huMap.get(foundHU);
+			if (targetList == null) {
+				targetList = new ArrayList<IPersistable>();
+				huMap.put(foundHU, targetList);
+			}
+			targetList.add(currentPO);
+		}
+		return huMap;
+	}
+
 	/**
 	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#beginTransaction()
 	 */
@@ -185,6 +246,7 @@ public class CompositeHibernateUtility implements IPersistenceUtility {
 	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#close()
 	 */
 	public void close() {
+		writtenDelegates.clear();
 		for (HibernateUtility nextHU : delegatePersistenceUtilities) {
 			nextHU.close();
 		}
@@ -194,6 +256,7 @@ public class CompositeHibernateUtility implements IPersistenceUtility {
 	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#commitTransaction()
 	 */
 	public void commitTransaction() throws PersistenceException {
+		writtenDelegates.clear();
 		for (HibernateUtility nextHU : delegatePersistenceUtilities) {
 			nextHU.commitTransaction();
 		}
@@ -205,6 +268,7 @@ public class CompositeHibernateUtility implements IPersistenceUtility {
 	public void delete(IPersistable po) throws PersistenceException {
 		IPersistenceUtility foundHU = getDelegatePersistenceUtilityForClass(po.getClass().getCanonicalName());
 		if (foundHU != null) {
+			writtenDelegates.add((HibernateUtility)foundHU);
 			foundHU.delete(po);
 		}
 	}
@@ -228,10 +292,35 @@ public class CompositeHibernateUtility implements IPersistenceUtility {
 		}
 	}
 
+	/**
+	 * Flushes the delegates objects have been written at since the last flush. The other delegates have nothing to
+	 * write, flushing them would open sessions which are not used by the unit of work.
+	 * 
+	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#flush()
+	 */
+	public void flush() throws PersistenceException {
+		for (HibernateUtility nextHU : writtenDelegates) {
+			nextHU.flush();
+		}
+		writtenDelegates.clear();
+	}
+
+	/**
+	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#evict(org.webguitoolkit.persistence.model.IPersistable)
+	 */
+	public void evict(IPersistable po) {
+		IPersistenceUtility foundHU = getDelegatePersistenceUtilityForClass(HibernateProxyHelper.getClassWithoutInitializingProxy(
+				po).getCanonicalName());
+		if (foundHU != null) {
+			foundHU.evict(po);
+		}
+	}
+
 	/**
 	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#rollbackTransaction()
 	 */
 	public void rollbackTransaction() throws PersistenceException {
+		writtenDelegates.clear();
 		for (HibernateUtility nextHU : delegatePersistenceUtilities) {
 			nextHU.rollbackTransaction();
 		}
@@ -243,6 +332,7 @@ public class CompositeHibernateUtility implements IPersistenceUtility {
 	public void save(IPersistable po) throws PersistenceException {
 		IPersistenceUtility foundHU = getDelegatePersistenceUtilityForClass(po.getClass().getCanonicalName());
 		if (foundHU != null) {
+			writtenDelegates.add((HibernateUtility)foundHU);
 			foundHU.save(po);
 		}
 	}
@@ -253,6 +343,7 @@ public class CompositeHibernateUtility implements IPersistenceUtility {
 	public void update(IPersistable po) throws PersistenceException {
 		IPersistenceUtility foundHU = getDelegatePersistenceUtilityForClass(po.getClass().getCanonicalName());
 		if (foundHU != null) {
+			writtenDelegates.add((HibernateUtility)foundHU);
 			foundHU.update(po);
 		}
 	}
@@ -0,0 +1,135 @@
+package org.webguitoolkit.persistence.util;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A List with a hash index of its elements. <code>contains</code> is a hash lookup, <code>indexOf</code> and
+ * <code>remove(Object)</code> only search the list if the element is contained. The index counts the occurrences of
+ * every element, thus duplicates are allowed and can be detected with {@link #hasDuplicates()}.
+ * <p>
+ * All changes, including the ones made by iterators and sub lists, are made by <code>set</code>, <code>add</code> and
+ * <code>remove</code> by index, which keep the index up to date. The hash code of an element must not change while it
+ * is in the list.
+ *
+ * @param <E> the type of the elements
+ */
+public class HashIndexedList<E> extends AbstractList<E> implements RandomAccess, Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private final ArrayList<E> elements;
+	private final Map<Object, Integer> counts;
+
+	public HashIndexedList() {
+		this(10);
+	}
+
+	/**
+	 * @param initialCapacity the expected number of elements
+	 */
+	public HashIndexedList(int initialCapacity) {
+		elements = new ArrayList<E>(initialCapacity);
+		counts = new HashMap<Object, Integer>(Math.max(16, initialCapacity * 4 / 3 + 1));
+	}
+
+	/**
+	 * @param c the initial elements in the order of the collection
+	 */
+	public HashIndexedList(Collection<? extends E> c) {
+		this(c.size());
+		addAll(c);
+	}
+
+	@Override
+	public E get(int index) {
+		return elements.get(index);
+	}
+
+	@Override
+	public int size() {
+		return elements.size();
+	}
+
+	@Override
+	public E set(int index, E element) {
+		E old = elements.set(index, element);
+		removeFromIndex(old);
+		addToIndex(element);
+		return old;
+	}
+
+	@Override
+	public void add(int index, E element) {
+		elements.add(index, element);
+		addToIndex(element);
+		modCount++;
+	}
+
+	@Override
+	public E remove(int index) {
+		E old = elements.remove(index);
+		removeFromIndex(old);
+		modCount++;
+		return old;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return counts.containsKey(o);
+	}
+
+	@Override
+	public int indexOf(Object o) {
+		return contains(o) ? elements.indexOf(o) : -1;
+	}
+
+	@Override
+	public int lastIndexOf(Object o) {
+		return contains(o) ? elements.lastIndexOf(o) : -1;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		int index = indexOf(o);
+		if (index < 0) {
+			return false;
+		}
+		remove(index);
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		elements.clear();
+		counts.clear();
+		modCount++;
+	}
+
+	/**
+	 * @return <code>true</code> if an element is contained more than once
+	 */
+	public boolean hasDuplicates() {
+		return counts.size() != elements.size();
+	}
+
+	private void addToIndex(Object element) {
+		Integer count = counts.get(element);
+		counts.put(element, count == null ? 1 : count.intValue() + 1);
+	}
+
+	private void removeFromIndex(Object element) {
+		Integer count = counts.get(element);
+		if (count == null || count.intValue() <= 1) {
+			counts.remove(element);
+		}
+		else {
+			counts.put(element, count.intValue() - 1);
+		}
+	}
+}
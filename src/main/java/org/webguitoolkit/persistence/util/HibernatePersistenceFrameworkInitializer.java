@@ -19,6 +19,7 @@ import org.hibernate.envers.strategy.ValidityAuditStrategy;
 import org.hibernate.tool.hbm2ddl.SchemaExport;
 import org.webguitoolkit.persistence.PersistenceContext;
 import org.webguitoolkit.persistence.PersistenceManager;
+import org.webguitoolkit.persistence.RetryPolicy;
 import org.webguitoolkit.persistence.model.IPersistable;
 
 
@@ -52,6 +53,56 @@ public class HibernatePersistenceFrameworkInitializer {
 	public static final String HIBERNATE_NAMESCHEME_DELIMITER = "-";
 	public static final String JNDI_HIERARCHY_SEPARATOR = "/";
 
+	/**
+	 * JDBC batch size for the commit, 0 keeps the settings of the Hibernate configuration
+	 */
+	private int jdbcBatchSize = 0;
+
+	/**
+	 * commits taking at least this time in milliseconds are logged, -1 disables the log
+	 */
+	private long slowCommitThresholdMillis = -1;
+
+	/**
+	 * take the dirty properties from the setters of the Persistables instead of comparing the state of all objects
+	 */
+	private boolean trackedDirtyCheck = false;
+
+	/**
+	 * map all classes with dynamic update
+	 */
+	private boolean dynamicUpdate = false;
+
+	/**
+	 * defer the changes of inverse collections that are not initialized
+	 */
+	private boolean deferredRelationMaintenance = false;
+
+	/**
+	 * changes of inverse collections mark the owner changed and increment its version
+	 */
+	private boolean inverseOptimisticLock = true;
+
+	/**
+	 * the maximum number of pre-images kept for the rollback
+	 */
+	private int maxRollbackPreImages = PersistenceManager.DEFAULT_MAX_ROLLBACK_PRE_IMAGES;
+
+	/**
+	 * the retry policy of the units of work
+	 */
+	private RetryPolicy retryPolicy = RetryPolicy.DEFAULT;
+
+	/**
+	 * if true the commits merge concurrent changes of different properties
+	 */
+	private boolean mergeConcurrentChanges = false;
+
+	/**
+	 * if true the commits check the versions of the changed and deleted objects before writing them
+	 */
+	private boolean preflightVersionCheck = false;
+
 	/**
 	 * 
 	 */
@@ -88,6 +139,10 @@ public class HibernatePersistenceFrameworkInitializer {
 
 		registerPersistableClasses(config, annotatedClasses);
 
+		configureJdbcBatching(config);
+
+		configureDirtyTracking(config);
+
 		// additional configuration step to get Revision tables created
 		// TODO: refactor to remove library dependency on Hibernate Envers 
 		// ValidityAuditStrategy offer better performance for querying revision results (see http://www.warski.org/blog/?p=261) 
@@ -101,6 +156,13 @@ public class HibernatePersistenceFrameworkInitializer {
 
 		IPersistenceUtility hu = createHibernateUtility(config, configId);
 		PersistenceManager pm = createPersistenceManager(hu);
+		pm.setJdbcBatchSize(getJdbcBatchSize(config));
+		pm.setSlowCommitThresholdMillis(slowCommitThresholdMillis);
+		pm.setDeferredRelationMaintenance(deferredRelationMaintenance);
+		pm.setMaxRollbackPreImages(maxRollbackPreImages);
+		pm.setRetryPolicy(retryPolicy);
+		pm.setMergeConcurrentChanges(mergeConcurrentChanges);
+		pm.setPreflightVersionCheck(preflightVersionCheck);
 		PersistenceContext.setPersistenceManager(pm);
 
 		return pm;
@@ -142,6 +204,188 @@ public class HibernatePersistenceFrameworkInitializer {
 		}
 	}
 
+	/**
+	 * Enables JDBC batching if a batch size has been set. Hibernate is configured to order the inserts and updates by entity
+	 * class so that the statements of one class can be sent in one batch. Note that entities with an identity generator are
+	 * inserted immediately and cannot be batched (see TableHiloDerbyDialect for an alternative on Derby).
+	 * 
+	 * @param config
+	 */
+	protected void configureJdbcBatching(Configuration config) {
+		if (jdbcBatchSize > 0) {
+			config.setProperty(Environment.STATEMENT_BATCH_SIZE, String.valueOf(jdbcBatchSize));
+			config.setProperty(Environment.ORDER_INSERTS, "true");
+			config.setProperty(Environment.ORDER_UPDATES, "true");
+			// versioned entities are only batched if the driver reports the row counts of a batch (Derby and DB2 do)
+			config.setProperty(Environment.BATCH_VERSIONED_DATA, "true");
+		}
+	}
+
+	/**
+	 * Enables the tracked dirty check and the dynamic update of the HibernateUtility and excludes the inverse collections
+	 * from the optimistic lock if they have been set. The properties
+	 * of the Hibernate configuration are kept otherwise.
+	 * 
+	 * @param config
+	 */
+	protected void configureDirtyTracking(Configuration config) {
+		if (trackedDirtyCheck) {
+			config.setProperty(HibernateUtility.TRACKED_DIRTY_CHECK, "true");
+		}
+		if (dynamicUpdate) {
+			config.setProperty(HibernateUtility.DYNAMIC_UPDATE, "true");
+		}
+		if (!inverseOptimisticLock) {
+			config.setProperty(HibernateUtility.INVERSE_OPTIMISTIC_LOCK, "false");
+		}
+	}
+
+	/**
+	 * @return the JDBC batch size of the configuration, 0 if it is not set
+	 */
+	protected int getJdbcBatchSize(Configuration config) {
+		String batchSize = config.getProperty(Environment.STATEMENT_BATCH_SIZE);
+		if (StringUtils.isNotBlank(batchSize)) {
+			try {
+				return Integer.parseInt(batchSize.trim());
+			}
+			catch (NumberFormatException e) {
+				LogFactory.getLog(getClass()).warn("Invalid " + Environment.STATEMENT_BATCH_SIZE + ": " + batchSize);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the JDBC batch size set for the initialization
+	 */
+	public int getJdbcBatchSize() {
+		return jdbcBatchSize;
+	}
+
+	/**
+	 * Sets the JDBC batch size (hibernate.jdbc.batch_size) and enables the batched commit of the PersistenceManager.
+	 * 
+	 * @param newJdbcBatchSize the number of statements sent in one batch, 0 to keep the configuration as it is
+	 */
+	public void setJdbcBatchSize(int newJdbcBatchSize) {
+		jdbcBatchSize = newJdbcBatchSize;
+	}
+
+	/**
+	 * @return the duration in milliseconds from which on a commit is logged as slow, -1 if disabled
+	 */
+	public long getSlowCommitThresholdMillis() {
+		return slowCommitThresholdMillis;
+	}
+
+	/**
+	 * @param newSlowCommitThresholdMillis the duration in milliseconds from which on a commit is logged as slow, -1 to
+	 *            disable the slow commit log
+	 * @see PersistenceManager#setSlowCommitThresholdMillis(long)
+	 */
+	public void setSlowCommitThresholdMillis(long newSlowCommitThresholdMillis) {
+		slowCommitThresholdMillis = newSlowCommitThresholdMillis;
+	}
+
+	public boolean isTrackedDirtyCheck() {
+		return trackedDirtyCheck;
+	}
+
+	/**
+	 * Lets Hibernate take the dirty properties of a Persistable from the properties changed by its setters instead of
+	 * comparing the state of every object of the session on flush. Objects changed otherwise (relations, explicit
+	 * markModified, direct field access) are still compared. Only enable it if the persistent fields are changed by the
+	 * setters only.
+	 * 
+	 * @see HibernateUtility#TRACKED_DIRTY_CHECK
+	 */
+	public void setTrackedDirtyCheck(boolean newTrackedDirtyCheck) {
+		trackedDirtyCheck = newTrackedDirtyCheck;
+	}
+
+	public boolean isDynamicUpdate() {
+		return dynamicUpdate;
+	}
+
+	/**
+	 * Maps all classes with dynamic update, thus an UPDATE sets the changed columns only.
+	 * 
+	 * @see HibernateUtility#DYNAMIC_UPDATE
+	 */
+	public void setDynamicUpdate(boolean newDynamicUpdate) {
+		dynamicUpdate = newDynamicUpdate;
+	}
+
+	public boolean isDeferredRelationMaintenance() {
+		return deferredRelationMaintenance;
+	}
+
+	/**
+	 * @see PersistenceManager#setDeferredRelationMaintenance(boolean)
+	 */
+	public void setDeferredRelationMaintenance(boolean newDeferredRelationMaintenance) {
+		deferredRelationMaintenance = newDeferredRelationMaintenance;
+	}
+
+	public boolean isInverseOptimisticLock() {
+		return inverseOptimisticLock;
+	}
+
+	/**
+	 * Excludes all inverse (mappedBy) collections from the optimistic lock, their changes neither mark the owner changed
+	 * nor increment its version. The setting is part of the mapping, it is applied when the SessionFactory is built.
+	 * 
+	 * @see HibernateUtility#INVERSE_OPTIMISTIC_LOCK
+	 */
+	public void setInverseOptimisticLock(boolean newInverseOptimisticLock) {
+		inverseOptimisticLock = newInverseOptimisticLock;
+	}
+
+	public int getMaxRollbackPreImages() {
+		return maxRollbackPreImages;
+	}
+
+	/**
+	 * @see PersistenceManager#setMaxRollbackPreImages(int)
+	 */
+	public void setMaxRollbackPreImages(int newMaxRollbackPreImages) {
+		maxRollbackPreImages = newMaxRollbackPreImages;
+	}
+
+	public boolean isMergeConcurrentChanges() {
+		return mergeConcurrentChanges;
+	}
+
+	/**
+	 * @see PersistenceManager#setMergeConcurrentChanges(boolean)
+	 */
+	public void setMergeConcurrentChanges(boolean newMergeConcurrentChanges) {
+		mergeConcurrentChanges = newMergeConcurrentChanges;
+	}
+
+	public boolean isPreflightVersionCheck() {
+		return preflightVersionCheck;
+	}
+
+	/**
+	 * @see PersistenceManager#setPreflightVersionCheck(boolean)
+	 */
+	public void setPreflightVersionCheck(boolean newPreflightVersionCheck) {
+		preflightVersionCheck = newPreflightVersionCheck;
+	}
+
+	public RetryPolicy getRetryPolicy() {
+		return retryPolicy;
+	}
+
+	/**
+	 * @see PersistenceManager#setRetryPolicy(RetryPolicy)
+	 */
+	public void setRetryPolicy(RetryPolicy newRetryPolicy) {
+		retryPolicy = newRetryPolicy;
+	}
+
 	/**
 	 * @param config
 	 */
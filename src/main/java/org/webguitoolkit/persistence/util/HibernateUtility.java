@@ -3,42 +3,65 @@ package org.webguitoolkit.persistence.util;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.hibernate.EmptyInterceptor;
+import org.hibernate.EntityMode;
+import org.hibernate.FlushMode;
 import org.hibernate.HibernateException;
 import org.hibernate.LockOptions;
 import org.hibernate.NonUniqueObjectException;
+import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
 import org.hibernate.StaleStateException;
 import org.hibernate.Transaction;
 import org.hibernate.TransientObjectException;
+import org.hibernate.UnresolvableObjectException;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.collection.PersistentCollection;
 import org.hibernate.engine.CollectionKey;
+import org.hibernate.engine.EntityEntry;
 import org.hibernate.engine.EntityKey;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.engine.Status;
+import org.hibernate.event.InitializeCollectionEvent;
 import org.hibernate.event.PostLoadEvent;
+import org.hibernate.event.def.DefaultInitializeCollectionEventListener;
 import org.hibernate.event.def.DefaultPostLoadEventListener;
 import org.hibernate.mapping.PersistentClass;
 import org.hibernate.mapping.Property;
 import org.hibernate.mapping.SimpleValue;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.proxy.HibernateProxy;
 import org.hibernate.proxy.HibernateProxyHelper;
 import org.hibernate.stat.SessionStatistics;
+import org.hibernate.type.EntityType;
+import org.hibernate.type.OneToOneType;
+import org.hibernate.type.Type;
+import org.webguitoolkit.persistence.CommitMeasurement;
 import org.webguitoolkit.persistence.ConcurrentChangeException;
 import org.webguitoolkit.persistence.Persistable;
 import org.webguitoolkit.persistence.PersistenceContext;
 import org.webguitoolkit.persistence.PersistenceException;
 import org.webguitoolkit.persistence.PersistenceManager;
+import org.webguitoolkit.persistence.model.DeferredCollectionOperations;
 import org.webguitoolkit.persistence.model.IPersistable;
 import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+import org.webguitoolkit.persistence.model.RelationAccessor;
 
 /**
  * The HibernateUtility is a wrapper for a Hibernate Session object. The SessionFactory is kept as static variable in order to
@@ -62,7 +85,38 @@ public class HibernateUtility implements IPersistenceUtility {
 
 	private static final String DEFAULT_ID = "_defautlId";
 
+	/**
+	 * Configuration property: <code>true</code> lets Hibernate take the dirty properties from the properties changed by the
+	 * setters of the Persistables instead of comparing the state of all objects of the session
+	 */
+	public static final String TRACKED_DIRTY_CHECK = "webguitoolkit.persistence.tracked_dirty_check";
+
+	/**
+	 * Configuration property: <code>true</code> maps all classes with dynamic update, thus an UPDATE sets the changed
+	 * columns only
+	 */
+	public static final String DYNAMIC_UPDATE = "webguitoolkit.persistence.dynamic_update";
+
+	/**
+	 * Configuration property: <code>false</code> excludes all inverse (mappedBy) collections from the optimistic lock, a
+	 * change of such a collection does not increment the version of its owner. Inverse collections excluded by their
+	 * RelationManagement are excluded regardless of the property.
+	 */
+	public static final String INVERSE_OPTIMISTIC_LOCK = "webguitoolkit.persistence.inverse_optimistic_lock";
+
+	/**
+	 * Configuration property: the maximum number of ids in the IN list of the version check of
+	 * {@link #findStaleObjects(Collection)}, must not exceed the parameter limit of the database
+	 */
+	public static final String IN_LIST_SIZE = "webguitoolkit.persistence.in_list_size";
+
+	/**
+	 * the default size of the IN lists, the limit of Oracle
+	 */
+	public static final int DEFAULT_IN_LIST_SIZE = 1000;
+
 	private Configuration config;
+	private String configId;
 
 	// PZ: keep all SessionFactories in here. Used in multi-db scenarios with PFW (questions -> martin)
 	// Avoid unnecessary SessionFactory initialization when creating a Session. This is done only once now
@@ -77,6 +131,8 @@ public class HibernateUtility implements IPersistenceUtility {
 	// flag for PersistenceInterceptor that indicates if we have to load the object from the database or from the objects in use
 	private boolean isRefresh = false;
 
+	private int inListSize = DEFAULT_IN_LIST_SIZE;
+
 	// tells if this util will be used by hibernate-search
 	// if yes, we cannot reach the PersistanceManager, since HS runs in own threads
 	private boolean usedForSearchIndex = false;
@@ -99,11 +155,27 @@ public class HibernateUtility implements IPersistenceUtility {
 
 		if (factories.get(configId) == null) {
 			setListeners(config);
-			factories.put(configId, config.buildSessionFactory());
+			if (Boolean.parseBoolean(config.getProperty(DYNAMIC_UPDATE))) {
+				enableDynamicUpdate(config);
+			}
+			excludeInverseCollections(config, !"false".equalsIgnoreCase(config.getProperty(INVERSE_OPTIMISTIC_LOCK)));
+			SessionFactory newFactory = config.buildSessionFactory();
+			factories.put(configId, newFactory);
 			configs.put(configId, config);
+			registerClassDescriptors(config, configId, newFactory);
 		}
+		this.configId = configId;
 		this.config = configs.get(configId);
 		sessionFactory = factories.get(configId);
+		String configuredInListSize = this.config.getProperty(IN_LIST_SIZE);
+		if (configuredInListSize != null) {
+			try {
+				inListSize = Math.max(1, Integer.parseInt(configuredInListSize.trim()));
+			}
+			catch (NumberFormatException e) {
+				log.warn("Invalid " + IN_LIST_SIZE + ": " + configuredInListSize);
+			}
+		}
 	}
 
 	/**
@@ -135,14 +207,36 @@ public class HibernateUtility implements IPersistenceUtility {
 	}
 
 	/**
-	 * Add all persistable to Session
+	 * Add all persistable to Session. Another instance of an object in the session is evicted before, thus no
+	 * NonUniqueObjectException has to be resolved per object. New objects are removed from the passed Set.
 	 */
 	public void attach(Set<IPersistable> registeredObjects) {
 		log.trace(">>> attach()");
 		Session session = getSession();
+		org.hibernate.engine.PersistenceContext context = ((SessionImplementor)session).getPersistenceContext();
 		List<IPersistable> registered = new ArrayList<IPersistable>(registeredObjects);
 		for (IPersistable persistable : registered) {
+			if (persistable instanceof HibernateProxy) {
+				// the id of a proxy is not read from the object
+				attach(persistable);
+				continue;
+			}
+			if (session.contains(persistable)) {
+				continue;
+			}
+			if (persistable.getId() == 0) {
+				// object is not in the data base -> it is new
+				registeredObjects.remove(persistable);
+				continue;
+			}
 			try {
+				EntityPersister persister = ((SessionImplementor)session).getEntityPersister(null, persistable);
+				Object other = context.getEntity(new EntityKey(Long.valueOf(persistable.getId()), persister, EntityMode.POJO));
+				if (other != null) {
+					// remove other object and lock current
+					session.evict(other);
+					markDetached(other);
+				}
 				session.buildLockRequest(LockOptions.NONE).lock(persistable);
 			}
 			catch (TransientObjectException ex) {
@@ -155,6 +249,372 @@ public class HibernateUtility implements IPersistenceUtility {
 		log.trace("<<< attach()");
 	}
 
+	/**
+	 * @return a copy of the persistent state of the object as it has been read from the database or written by the last
+	 *         flush, in the order of the ClassMetadata properties. NULL if the object is not managed by the current
+	 *         session.
+	 */
+	public Object[] getLoadedState(IPersistable po) {
+		if (session == null || !session.isOpen()) {
+			return null;
+		}
+		EntityEntry entry = ((SessionImplementor)session).getPersistenceContext().getEntry(po);
+		if (entry == null || entry.getStatus() != Status.MANAGED || entry.getLoadedState() == null) {
+			return null;
+		}
+		return entry.getLoadedState().clone();
+	}
+
+	/**
+	 * Sets the persistent properties of the object to a state returned by {@link #getLoadedState(IPersistable)} without
+	 * reading the database. The collections of the state are the instances of the session, their elements can only be
+	 * restored if they have not been changed.
+	 * 
+	 * @return <code>false</code> if the state has not been restored because a collection has been changed, the object
+	 *         must be refreshed
+	 */
+	public boolean restoreState(IPersistable po, Object[] state) {
+		ClassMetadata metadata = sessionFactory.getClassMetadata(HibernateProxyHelper.getClassWithoutInitializingProxy(po));
+		if (metadata == null || metadata.getPropertyNames().length != state.length) {
+			return false;
+		}
+		Type[] types = metadata.getPropertyTypes();
+		for (int i = 0; i < types.length; i++) {
+			if (types[i].isCollectionType() && state[i] instanceof PersistentCollection
+					&& (((PersistentCollection)state[i]).isDirty() || ((PersistentCollection)state[i]).hasQueuedOperations())) {
+				return false;
+			}
+		}
+		metadata.setPropertyValues(po, state, EntityMode.POJO);
+		return true;
+	}
+
+	/**
+	 * @return a copy of the current persistent state of the object in the order of the ClassMetadata properties to merge
+	 *         it with a concurrent change, see {@link #getConflictingProperties(IPersistable, Object[], Object[])}. NULL
+	 *         if the object can not be merged because a collection has been changed or the class is not mapped.
+	 */
+	public Object[] getMergeState(IPersistable po) {
+		ClassMetadata metadata = sessionFactory.getClassMetadata(HibernateProxyHelper.getClassWithoutInitializingProxy(po));
+		if (metadata == null) {
+			return null;
+		}
+		Type[] types = metadata.getPropertyTypes();
+		Object[] state = metadata.getPropertyValues(po, EntityMode.POJO);
+		for (int i = 0; i < types.length; i++) {
+			if (types[i].isCollectionType()) {
+				if (state[i] == null) {
+					continue;
+				}
+				if (!(state[i] instanceof PersistentCollection)) {
+					// replaced collection
+					return null;
+				}
+				PersistentCollection collection = (PersistentCollection)state[i];
+				if (collection.isDirty() || collection.hasQueuedOperations()) {
+					return null;
+				}
+			}
+			else {
+				state[i] = types[i].deepCopy(state[i], EntityMode.POJO, (SessionFactoryImplementor)sessionFactory);
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * @return false if the mapping excludes the property from the optimistic lock, e.g. an inverse collection (see
+	 *         {@link #INVERSE_OPTIMISTIC_LOCK}), its changes do not increment the version. True for unmapped classes and
+	 *         properties.
+	 */
+	public boolean isOptimisticLocked(Class<?> entityClass, String propertyName) {
+		ClassMetadata metadata = sessionFactory.getClassMetadata(entityClass);
+		if (metadata == null) {
+			return true;
+		}
+		EntityPersister persister = ((SessionFactoryImplementor)sessionFactory).getEntityPersister(metadata
+				.getEntityName());
+		Integer index = persister.getEntityMetamodel().getPropertyIndexOrNull(propertyName);
+		return index == null || persister.getPropertyVersionability()[index.intValue()];
+	}
+
+	/**
+	 * Compares the local changes of an object with the changes of the database, which have been refreshed into the
+	 * object. Collections are not compared, neither are the properties excluded from the optimistic lock like the
+	 * modification timestamp and user, their local changes win.
+	 * 
+	 * @param base the state the local changes have been made on, e.g. the pre-image of the rollback
+	 * @param local the state with the local changes, see {@link #getMergeState(IPersistable)}
+	 * @return the names of the properties changed locally and in the database to different values, empty if the local
+	 *         changes can be merged
+	 */
+	public List<String> getConflictingProperties(IPersistable po, Object[] base, Object[] local) {
+		ClassMetadata metadata = sessionFactory.getClassMetadata(HibernateProxyHelper.getClassWithoutInitializingProxy(po));
+		String[] names = metadata.getPropertyNames();
+		Type[] types = metadata.getPropertyTypes();
+		Object[] current = metadata.getPropertyValues(po, EntityMode.POJO);
+		boolean[] versionability = ((SessionFactoryImplementor)sessionFactory).getEntityPersister(
+				metadata.getEntityName()).getPropertyVersionability();
+		List<String> conflicts = new ArrayList<String>();
+		for (int i = 0; i < types.length; i++) {
+			if (isMergedProperty(metadata, i) && versionability[i] && isChanged(types[i], base[i], local[i])
+					&& isChanged(types[i], base[i], current[i]) && isChanged(types[i], local[i], current[i])) {
+				conflicts.add(names[i]);
+			}
+		}
+		return conflicts;
+	}
+
+	/**
+	 * Applies the local changes of an object to the state of the database, which has been refreshed into the object.
+	 * The caller has to check the conflicts with {@link #getConflictingProperties(IPersistable, Object[], Object[])}
+	 * before.
+	 */
+	public void mergeState(IPersistable po, Object[] base, Object[] local) {
+		ClassMetadata metadata = sessionFactory.getClassMetadata(HibernateProxyHelper.getClassWithoutInitializingProxy(po));
+		Type[] types = metadata.getPropertyTypes();
+		Object[] state = metadata.getPropertyValues(po, EntityMode.POJO);
+		for (int i = 0; i < types.length; i++) {
+			if (isMergedProperty(metadata, i) && isChanged(types[i], base[i], local[i])) {
+				state[i] = local[i];
+			}
+		}
+		metadata.setPropertyValues(po, state, EntityMode.POJO);
+	}
+
+	/**
+	 * @return <code>true</code> for the properties merged by {@link #mergeState(IPersistable, Object[], Object[])}, the
+	 *         properties refreshed except for the version
+	 */
+	private boolean isMergedProperty(ClassMetadata metadata, int property) {
+		return property != metadata.getVersionProperty() && isColumnProperty(metadata.getPropertyTypes()[property]);
+	}
+
+	private boolean isChanged(Type type, Object oldValue, Object newValue) {
+		return !type.isEqual(oldValue, newValue, EntityMode.POJO, (SessionFactoryImplementor)sessionFactory);
+	}
+
+	/**
+	 * @return <code>false</code> for collections and the inverse side of one-to-one associations, their foreign keys are
+	 *         not columns of the class
+	 */
+	private static boolean isColumnProperty(Type type) {
+		return !type.isCollectionType() && !(type instanceof OneToOneType);
+	}
+
+	/**
+	 * Compares the versions of the objects with the versions in the database. The versions are read with one query per
+	 * entity class and IN list of at most {@link #IN_LIST_SIZE} ids. Does not load or attach the objects.
+	 * 
+	 * @param objects the objects to check, new objects, uninitialized proxies and objects of classes without version are
+	 *            ignored
+	 * @return the objects whose version differs from the database or that have been deleted in the database
+	 */
+	public List<IPersistable> findStaleObjects(Collection<? extends IPersistable> objects) {
+		Map<String, Map<Long, IPersistable>> objectsByEntity = groupByEntity(objects);
+
+		List<IPersistable> staleObjects = new ArrayList<IPersistable>();
+		Session session = getSession();
+		for (Map.Entry<String, Map<Long, IPersistable>> entry : objectsByEntity.entrySet()) {
+			ClassMetadata metadata = session.getSessionFactory().getClassMetadata(entry.getKey());
+			if (metadata == null || !metadata.isVersioned()) {
+				continue;
+			}
+			String hql = "select e." + metadata.getIdentifierPropertyName() + ", e."
+					+ metadata.getPropertyNames()[metadata.getVersionProperty()] + " from " + metadata.getEntityName()
+					+ " e where e." + metadata.getIdentifierPropertyName() + " in (:ids)";
+			List<Long> ids = new ArrayList<Long>(entry.getValue().keySet());
+			for (int start = 0; start < ids.size(); start += inListSize) {
+				List<Long> chunk = ids.subList(start, Math.min(start + inListSize, ids.size()));
+				Map<Long, IPersistable> unchecked = new HashMap<Long, IPersistable>();
+				for (Long id : chunk) {
+					unchecked.put(id, entry.getValue().get(id));
+				}
+				Query query = session.createQuery(hql).setParameterList("ids", chunk);
+				// the check must not flush the changes of the session
+				query.setFlushMode(FlushMode.MANUAL);
+				for (Object row : query.list()) {
+					Object[] values = (Object[])row;
+					IPersistable object = unchecked.remove(values[0]);
+					if (object != null) {
+						Object version = metadata.getVersion(object, EntityMode.POJO);
+						if (version == null || !version.equals(values[1])) {
+							staleObjects.add(object);
+						}
+					}
+				}
+				// deleted in the database
+				staleObjects.addAll(unchecked.values());
+			}
+		}
+		return staleObjects;
+	}
+
+	/**
+	 * Reloads the state of the objects from the database like {@link #refresh(IPersistable)}, but with one query per
+	 * entity class and IN list of at most {@link #IN_LIST_SIZE} ids instead of one query per object. The state is copied
+	 * into the objects, thus their identity is kept and objects attached to the session stay attached. The collections
+	 * of the objects are kept unlike {@link #refresh(IPersistable)}, which reloads them as well, the objects referenced
+	 * by the named associations are refreshed the same way.
+	 * 
+	 * @param objects the objects to refresh, new objects and uninitialized proxies are ignored
+	 * @param associations the names of the properties whose associated objects are refreshed as well, the objects of
+	 *            uninitialized collections are not loaded
+	 * @throws UnresolvableObjectException if an object has been deleted in the database
+	 */
+	public void refreshInBatches(Collection<? extends IPersistable> objects, String... associations)
+			throws PersistenceException {
+		Session session = getSession();
+		List<IPersistable> associatedObjects = new ArrayList<IPersistable>();
+		for (Map.Entry<String, Map<Long, IPersistable>> entry : groupByEntity(objects).entrySet()) {
+			ClassMetadata metadata = session.getSessionFactory().getClassMetadata(entry.getKey());
+			if (metadata == null) {
+				for (IPersistable object : entry.getValue().values()) {
+					refresh(object);
+				}
+				continue;
+			}
+			// select the columns of the class, the ids of the referenced objects instead of joining them
+			String[] names = metadata.getPropertyNames();
+			Type[] types = metadata.getPropertyTypes();
+			List<Integer> properties = new ArrayList<Integer>();
+			StringBuilder hql = new StringBuilder("select e.").append(metadata.getIdentifierPropertyName());
+			for (int i = 0; i < names.length; i++) {
+				if (!isColumnProperty(types[i])) {
+					continue;
+				}
+				hql.append(", e.").append(names[i]);
+				if (types[i].isEntityType()) {
+					hql.append(".id");
+				}
+				properties.add(Integer.valueOf(i));
+			}
+			hql.append(" from ").append(metadata.getEntityName()).append(" e where e.").append(
+					metadata.getIdentifierPropertyName()).append(" in (:ids)");
+
+			List<Long> ids = new ArrayList<Long>(entry.getValue().keySet());
+			for (int start = 0; start < ids.size(); start += inListSize) {
+				List<Long> chunk = ids.subList(start, Math.min(start + inListSize, ids.size()));
+				Map<Long, IPersistable> unrefreshed = new HashMap<Long, IPersistable>();
+				for (Long id : chunk) {
+					unrefreshed.put(id, entry.getValue().get(id));
+				}
+				Query query = session.createQuery(hql.toString()).setParameterList("ids", chunk);
+				// the refresh must not flush the changes of the session
+				query.setFlushMode(FlushMode.MANUAL);
+				for (Object row : query.list()) {
+					Object[] values = (Object[])row;
+					IPersistable object = unrefreshed.remove(values[0]);
+					if (object != null) {
+						copyState(object, metadata, properties, values);
+					}
+				}
+				if (!unrefreshed.isEmpty()) {
+					throw new UnresolvableObjectException(unrefreshed.keySet().iterator().next(), metadata.getEntityName());
+				}
+			}
+
+			for (String association : associations) {
+				if (!Arrays.asList(names).contains(association)) {
+					continue;
+				}
+				for (IPersistable object : entry.getValue().values()) {
+					Object value = metadata.getPropertyValue(object, association, EntityMode.POJO);
+					if (value instanceof IPersistable) {
+						associatedObjects.add((IPersistable)value);
+					}
+					else if (value instanceof Collection<?>
+							&& (!(value instanceof PersistentCollection) || ((PersistentCollection)value).wasInitialized())) {
+						for (Object element : (Collection<?>)value) {
+							if (element instanceof IPersistable) {
+								associatedObjects.add((IPersistable)element);
+							}
+						}
+					}
+				}
+			}
+		}
+		if (!associatedObjects.isEmpty()) {
+			refreshInBatches(associatedObjects);
+		}
+	}
+
+	/**
+	 * Copies the selected columns into the object and into the loaded state of its session entry, thus the refreshed
+	 * state is not taken for a change.
+	 * 
+	 * @param properties the indexes of the selected properties, the first column is the id
+	 */
+	private void copyState(IPersistable object, ClassMetadata metadata, List<Integer> properties, Object[] columns) {
+		Session session = getSession();
+		Type[] types = metadata.getPropertyTypes();
+		Object[] values = metadata.getPropertyValues(object, EntityMode.POJO);
+		for (int column = 1; column < columns.length; column++) {
+			int i = properties.get(column - 1).intValue();
+			Object value = columns[column];
+			if (value != null && types[i].isEntityType()) {
+				value = getReference(values[i], ((EntityType)types[i]).getAssociatedEntityName(), (Serializable)value);
+			}
+			values[i] = value;
+		}
+		metadata.setPropertyValues(object, values, EntityMode.POJO);
+
+		EntityEntry entry = ((SessionImplementor)session).getPersistenceContext().getEntry(object);
+		if (entry != null && entry.getStatus() == Status.MANAGED && entry.getLoadedState() != null) {
+			SessionFactoryImplementor factory = (SessionFactoryImplementor)session.getSessionFactory();
+			Object[] loadedState = entry.getLoadedState();
+			for (Integer index : properties) {
+				int i = index.intValue();
+				loadedState[i] = types[i].deepCopy(values[i], EntityMode.POJO, factory);
+			}
+			entry.postUpdate(object, loadedState, metadata.isVersioned() ? metadata.getVersion(object, EntityMode.POJO)
+					: null);
+		}
+	}
+
+	/**
+	 * @return the referenced object if it still has the id, else the object in use or a proxy of the session
+	 */
+	private Object getReference(Object current, String entityName, Serializable id) {
+		if (current instanceof HibernateProxy) {
+			if (id.equals(((HibernateProxy)current).getHibernateLazyInitializer().getIdentifier())) {
+				return current;
+			}
+		}
+		else if (current instanceof IPersistable && id.equals(Long.valueOf(((IPersistable)current).getId()))) {
+			return current;
+		}
+		return getSession().load(entityName, id);
+	}
+
+	/**
+	 * @return the objects stored in the database by entity name and id, uninitialized proxies are left out
+	 */
+	private Map<String, Map<Long, IPersistable>> groupByEntity(Collection<? extends IPersistable> objects) {
+		Map<String, Map<Long, IPersistable>> objectsByEntity = new LinkedHashMap<String, Map<Long, IPersistable>>();
+		for (IPersistable po : objects) {
+			IPersistable object = po;
+			if (object instanceof HibernateProxy) {
+				if (((HibernateProxy)object).getHibernateLazyInitializer().isUninitialized()) {
+					// the state is read from the database on first access
+					continue;
+				}
+				object = (IPersistable)((HibernateProxy)object).getHibernateLazyInitializer().getImplementation();
+			}
+			if (object.getId() == 0) {
+				continue;
+			}
+			String entityName = HibernateProxyHelper.getClassWithoutInitializingProxy(object).getName();
+			Map<Long, IPersistable> byId = objectsByEntity.get(entityName);
+			if (byId == null) {
+				byId = new LinkedHashMap<Long, IPersistable>();
+				objectsByEntity.put(entityName, byId);
+			}
+			byId.put(Long.valueOf(object.getId()), object);
+		}
+		return objectsByEntity;
+	}
+
 	/**
 	 * Closes the Session in order to detach all persistables.
 	 */
@@ -199,6 +659,41 @@ public class HibernateUtility implements IPersistenceUtility {
 		}
 	}
 
+	/**
+	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#flush()
+	 */
+	public void flush() throws PersistenceException {
+		try {
+			getSession().flush();
+		}
+		catch (StaleStateException e) {
+			throw new ConcurrentChangeException("Error during flush", e);
+		}
+		catch (HibernateException e) {
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#evict(org.webguitoolkit.persistence.model.IPersistable)
+	 */
+	public void evict(IPersistable po) {
+		if (session != null && session.isOpen() && session.contains(po)) {
+			session.evict(po);
+			markDetached(po);
+		}
+	}
+
+	/**
+	 * tells the PersistenceManager of the current thread that the object is not in the session anymore
+	 */
+	private void markDetached(Object po) {
+		PersistenceManager pm = PersistenceContext.getPersistenceManager();
+		if (pm != null && po instanceof IPersistable) {
+			pm.markDetached((IPersistable)po);
+		}
+	}
+
 	/**
 	 * 
 	 * @return a session. may be a new one.
@@ -300,10 +795,29 @@ public class HibernateUtility implements IPersistenceUtility {
 	 */
 	private void setListeners(Configuration config) {
 		config.setListener("post-load", new MyPostLoadEventListener());
-		config.setInterceptor(new PersistenceInterceptor());
+		config.setListener("load-collection", new DeferredOperationsInitializeCollectionEventListener());
+		config.setInterceptor(new PersistenceInterceptor(Boolean.parseBoolean(config.getProperty(TRACKED_DIRTY_CHECK))));
 		// config.setListener("pre-load", new MyPreLoadEventListener());
 	}
 
+	/**
+	 * Applies the changes the relation management has deferred for a collection when the collection is initialized
+	 * 
+	 * @see PersistenceManager#setDeferredRelationMaintenance(boolean)
+	 */
+	public class DeferredOperationsInitializeCollectionEventListener extends DefaultInitializeCollectionEventListener {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		public void onInitializeCollection(InitializeCollectionEvent event) throws HibernateException {
+			super.onInitializeCollection(event);
+			PersistenceManager pm = PersistenceContext.getPersistenceManager();
+			if (pm != null && pm.getDeferredCollectionOperations().size() > 0 && event.getCollection() instanceof Collection<?>) {
+				pm.getDeferredCollectionOperations().apply((Collection<?>)event.getCollection());
+			}
+		}
+	}
+
 	public class MyPostLoadEventListener extends DefaultPostLoadEventListener {
 		/**
 		 * 
@@ -421,6 +935,7 @@ public class HibernateUtility implements IPersistenceUtility {
 					// remove other object and lock current
 					Object other = session.get(ex.getEntityName(), ex.getIdentifier());
 					session.evict(other);
+					markDetached(other);
 					session.buildLockRequest(LockOptions.NONE).lock(po);
 				}
 				catch (Throwable e) {
@@ -508,10 +1023,81 @@ public class HibernateUtility implements IPersistenceUtility {
 		}
 	}
 
+	/**
+	 * registers the PersistableClassDescriptors of the mapped Persistable classes
+	 */
+	@SuppressWarnings("unchecked")
+	private void registerClassDescriptors(Configuration hibernateConfig, String configId, SessionFactory factory) {
+		Iterator<PersistentClass> classIter = hibernateConfig.getClassMappings();
+		while (classIter.hasNext()) {
+			Class<?> mappedClass = classIter.next().getMappedClass();
+			if (mappedClass != null && Persistable.class.isAssignableFrom(mappedClass)) {
+				Map<String, Integer> attributeLengths = new HashMap<String, Integer>();
+				loadProperties(hibernateConfig, mappedClass.getName(), attributeLengths);
+				ClassMetadata metadata = factory.getClassMetadata(mappedClass);
+				PersistableClassDescriptor.register(new PersistableClassDescriptor(mappedClass, configId, attributeLengths,
+						metadata == null ? null : metadata.getPropertyNames()));
+			}
+		}
+	}
+
+	/**
+	 * maps all classes of the configuration with dynamic update, an UPDATE sets only the columns of the dirty properties
+	 */
+	@SuppressWarnings("unchecked")
+	private void enableDynamicUpdate(Configuration hibernateConfig) {
+		hibernateConfig.buildMappings();
+		Iterator<PersistentClass> classIter = hibernateConfig.getClassMappings();
+		while (classIter.hasNext()) {
+			classIter.next().setDynamicUpdate(true);
+		}
+	}
+
+	/**
+	 * Excludes the inverse collections from the optimistic lock that are excluded by their RelationManagement, all inverse
+	 * collections if the optimistic lock of inverse collections is disabled. Hibernate does not increment the version of
+	 * the owner when they are changed.
+	 * 
+	 * @param inverseOptimisticLock false to exclude all inverse collections
+	 */
+	@SuppressWarnings("unchecked")
+	private void excludeInverseCollections(Configuration hibernateConfig, boolean inverseOptimisticLock) {
+		hibernateConfig.buildMappings();
+		Iterator<PersistentClass> classIter = hibernateConfig.getClassMappings();
+		while (classIter.hasNext()) {
+			PersistentClass classMapping = classIter.next();
+			Class<?> mappedClass = classMapping.getMappedClass();
+			Iterator<Property> propertyIter = classMapping.getPropertyIterator();
+			while (propertyIter.hasNext()) {
+				Property property = propertyIter.next();
+				if (!(property.getValue() instanceof org.hibernate.mapping.Collection)
+						|| !((org.hibernate.mapping.Collection)property.getValue()).isInverse()) {
+					continue;
+				}
+				boolean optimisticLock = inverseOptimisticLock;
+				if (optimisticLock && mappedClass != null) {
+					try {
+						optimisticLock = RelationAccessor.forField(mappedClass, property.getName()).isOptimisticLock();
+					}
+					catch (NoSuchFieldException e) {
+						// property access, keep the mapping
+					}
+				}
+				if (!optimisticLock) {
+					property.setOptimisticLocked(false);
+				}
+			}
+		}
+	}
+
 	/**
 	 * @return the length of the String properties from the hibernate configuration
 	 */
 	public int getPropertyLength(IPersistable po, String propertyName) {
+		PersistableClassDescriptor descriptor = PersistableClassDescriptor.getRegistered(configId, po.getClass());
+		if (descriptor != null && descriptor.getLength(propertyName) != PersistableClassDescriptor.UNKNOWN_LENGTH) {
+			return descriptor.getLength(propertyName);
+		}
 		Map<String, Integer> attributeLengths = this.attributeLengthByClass.get(po.getClass());
 		if (attributeLengths == null) {
 			// just call once
@@ -529,9 +1115,105 @@ public class HibernateUtility implements IPersistenceUtility {
 		return length;
 	}
 
-	public class PersistenceInterceptor extends EmptyInterceptor {
+	public class PersistenceInterceptor extends HydrationInterceptor {
 		private static final long serialVersionUID = 1L;
 
+		private final boolean trackedDirtyCheck;
+
+		public PersistenceInterceptor() {
+			this(false);
+		}
+
+		/**
+		 * @param trackedDirtyCheck <code>true</code> to take the dirty properties of a Persistable from the properties changed
+		 *            by its setters, see {@link Persistable#getTrackedDirtyProperties()}
+		 */
+		public PersistenceInterceptor(boolean trackedDirtyCheck) {
+			this.trackedDirtyCheck = trackedDirtyCheck;
+		}
+
+		@Override
+		public int[] findDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+				String[] propertyNames, Type[] types) {
+			if (trackedDirtyCheck && entity instanceof Persistable) {
+				PersistableClassDescriptor descriptor = PersistableClassDescriptor.getRegistered(entity.getClass());
+				// the indexes are only valid for the property order of the registered ClassMetadata
+				if (descriptor != null
+						&& (descriptor.getPropertyNames() == propertyNames || Arrays.equals(descriptor.getPropertyNames(),
+								propertyNames))) {
+					int[] dirty = ((Persistable)entity).getTrackedDirtyProperties();
+					if (dirty != null) {
+						return dirty;
+					}
+				}
+			}
+			// let Hibernate compare the state
+			return super.findDirty(entity, id, currentState, previousState, propertyNames, types);
+		}
+
+		@SuppressWarnings("rawtypes")
+		@Override
+		public void postFlush(Iterator entities) {
+			super.postFlush(entities);
+			PersistenceManager pm = PersistenceContext.getPersistenceManager();
+			DeferredCollectionOperations deferred = pm == null || pm.getDeferredCollectionOperations().size() == 0
+					? null : pm.getDeferredCollectionOperations();
+			if (!trackedDirtyCheck && deferred == null) {
+				return;
+			}
+			Set<Object> flushed = deferred == null ? null : Collections
+					.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+			while (entities.hasNext()) {
+				Object entity = entities.next();
+				if (trackedDirtyCheck && entity instanceof Persistable) {
+					// the flushed properties are in the loaded state now, a second flush must not write them again
+					((Persistable)entity).clearTrackedDirtyProperties();
+				}
+				if (flushed != null) {
+					flushed.add(entity);
+				}
+			}
+			if (deferred != null) {
+				// the owning sides of the flushed elements are in the database, the collections read them
+				deferred.dropFlushed(flushed);
+			}
+		}
+
+		@Override
+		public String onPrepareStatement(String sql) {
+			CommitMeasurement measurement = CommitMeasurement.current();
+			if (measurement != null) {
+				measurement.countPreparedStatement();
+			}
+			return super.onPrepareStatement(sql);
+		}
+
+		@Override
+		public boolean onSave(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+			countEntityWrite();
+			return super.onSave(entity, id, state, propertyNames, types);
+		}
+
+		@Override
+		public boolean onFlushDirty(Object entity, Serializable id, Object[] currentState, Object[] previousState,
+				String[] propertyNames, Type[] types) {
+			countEntityWrite();
+			return super.onFlushDirty(entity, id, currentState, previousState, propertyNames, types);
+		}
+
+		@Override
+		public void onDelete(Object entity, Serializable id, Object[] state, String[] propertyNames, Type[] types) {
+			countEntityWrite();
+			super.onDelete(entity, id, state, propertyNames, types);
+		}
+
+		private void countEntityWrite() {
+			CommitMeasurement measurement = CommitMeasurement.current();
+			if (measurement != null) {
+				measurement.countEntityWrite();
+			}
+		}
+
 		@Override
 		public Object getEntity(String entityName, Serializable id) {
 			// get the HibernateUtility from the current thread isRefresh on this one does not work correctly because it is the HU
@@ -555,14 +1237,9 @@ public class HibernateUtility implements IPersistenceUtility {
 			pm = PersistenceContext.getPersistenceManager();
 			// if there was no attach() before, try to lazy attach objects
 			if (!pm.isAttached() && id instanceof Long) {
-				Set<Persistable> objectsInUse = pm.getObjectsInUse();
-				for (IPersistable persistable : objectsInUse) {
-					if (persistable.getId() == (Long)id) {
-						Class<?> theClass = HibernateProxyHelper.getClassWithoutInitializingProxy(persistable);
-						if (theClass.getName().equals(entityName)) {
-							return persistable;
-						}
-					}
+				Persistable persistable = pm.findObjectInUse(entityName, (Long)id);
+				if (persistable != null) {
+					return persistable;
 				}
 			}
 			return super.getEntity(entityName, id);
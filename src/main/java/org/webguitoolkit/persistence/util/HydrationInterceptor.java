@@ -0,0 +1,67 @@
+package org.webguitoolkit.persistence.util;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.EntityMode;
+import org.webguitoolkit.persistence.Hydration;
+import org.webguitoolkit.persistence.Persistable;
+
+/**
+ * Interceptor that marks the instantiation of Persistables loaded by Hibernate, thus the constructor does not generate an
+ * object UID and creation date which are overwritten by the values of the database anyway (see {@link Hydration}).
+ * <p>
+ * The HibernateUtility uses it as base class of its PersistenceInterceptor, for JPA the JPAUtility chains the interceptor
+ * of the persistence unit behind it, see {@link ChainedHydrationInterceptor}.
+ */
+public class HydrationInterceptor extends EmptyInterceptor {
+	private static final long serialVersionUID = 1L;
+
+	// marker for entity names that are not Persistable classes
+	private static final Class<?> NO_PERSISTABLE = Void.class;
+
+	private static final ConcurrentMap<String, Class<?>> entityClasses = new ConcurrentHashMap<String, Class<?>>();
+
+	/**
+	 * Marks the instantiation and returns NULL, thus Hibernate instantiates the object by the no-arg constructor right
+	 * after this call.
+	 */
+	@Override
+	public Object instantiate(String entityName, EntityMode entityMode, Serializable id) {
+		markInstantiation(entityName, entityMode);
+		return super.instantiate(entityName, entityMode, id);
+	}
+
+	/**
+	 * marks the instantiation of the entity if it is a Persistable
+	 */
+	static void markInstantiation(String entityName, EntityMode entityMode) {
+		if (entityMode == EntityMode.POJO) {
+			Class<?> entityClass = getEntityClass(entityName);
+			if (entityClass != NO_PERSISTABLE) {
+				Hydration.begin(entityClass);
+			}
+		}
+	}
+
+	private static Class<?> getEntityClass(String entityName) {
+		Class<?> entityClass = entityClasses.get(entityName);
+		if (entityClass == null) {
+			entityClass = NO_PERSISTABLE;
+			try {
+				// the entity name is the class name unless the mapping defines another one
+				Class<?> mappedClass = Class.forName(entityName, false, Thread.currentThread().getContextClassLoader());
+				if (Persistable.class.isAssignableFrom(mappedClass)) {
+					entityClass = mappedClass;
+				}
+			}
+			catch (ClassNotFoundException e) {
+				// not a class name, constructed as usual
+			}
+			entityClasses.put(entityName, entityClass);
+		}
+		return entityClass;
+	}
+}
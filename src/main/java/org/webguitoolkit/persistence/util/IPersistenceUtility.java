@@ -9,6 +9,9 @@ import org.webguitoolkit.persistence.model.IPersistable;
 public interface IPersistenceUtility {
 
 	/**
+	 * attaches the objects to the underlying framework. The objects that are not attached, e.g. new objects or objects
+	 * unknown to the framework, are removed from the passed Set, thus it holds the attached objects afterwards.
+	 * 
 	 * @deprecated
 	 * @param registeredObjects
 	 */
@@ -35,6 +38,16 @@ public interface IPersistenceUtility {
 
 	void refresh(IPersistable po) throws PersistenceException;
 
+	/**
+	 * writes all pending changes of the current session to the database without committing the transaction
+	 */
+	void flush() throws PersistenceException;
+
+	/**
+	 * removes the IPersistable from the current session, its state is not written to the database anymore
+	 */
+	void evict(IPersistable po);
+
 	void beginTransaction();
 
 	/**
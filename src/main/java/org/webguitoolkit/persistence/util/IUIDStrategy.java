@@ -0,0 +1,14 @@
+package org.webguitoolkit.persistence.util;
+
+/**
+ * Creates the object UIDs of new persistent objects. Implementations must be thread safe.
+ *
+ * @see UIDStrategies
+ */
+public interface IUIDStrategy {
+
+	/**
+	 * @return a new object UID, unique at least for all objects of the classes using this strategy
+	 */
+	long nextUID();
+}
@@ -0,0 +1,212 @@
+package org.webguitoolkit.persistence.util;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A Set that compares its elements by identity (==) and keeps them in insertion order. Add, remove and contains are O(1).
+ * Does not support NULL elements.
+ * <p>
+ * The PersistenceManager uses this Set for the dirty objects. Before, a HashSet was used for the membership checks and an
+ * ArrayList for the insertion order, which made every removal O(n). The insertion order is still needed during commit to
+ * prevent exceptions due to cascade dependencies.
+ *
+ * @param <Typ>
+ */
+public class IdentityLinkedHashSet<Typ> extends AbstractSet<Typ> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private Entry<Typ>[] table;
+	private Entry<Typ> header;
+	private int size;
+	private int modCount;
+
+	public IdentityLinkedHashSet() {
+		super();
+		table = newTable(INITIAL_CAPACITY);
+		header = new Entry<Typ>(null, 0, null);
+		header.before = header;
+		header.after = header;
+	}
+
+	/**
+	 * Add the object to the end of the Set if not already contained. Throws an <code>IllegalArgumentException</code> if
+	 * object is NULL
+	 *
+	 * @return <code>true</code> if the Set was changed, <code>false</code> otherwise.
+	 */
+	@Override
+	public boolean add(Typ object) {
+		if (object == null)
+			throw new IllegalArgumentException("do not add NULL to this Set");
+		int hash = hash(object);
+		int index = hash & (table.length - 1);
+		for (Entry<Typ> e = table[index]; e != null; e = e.next) {
+			if (e.element == object)
+				return false;
+		}
+		Entry<Typ> entry = new Entry<Typ>(object, hash, table[index]);
+		table[index] = entry;
+		entry.after = header;
+		entry.before = header.before;
+		header.before.after = entry;
+		header.before = entry;
+		modCount++;
+		if (++size > table.length * 3 / 4)
+			resize();
+		return true;
+	}
+
+	/**
+	 * @return <code>true</code> if the Set was changed.
+	 */
+	@Override
+	public boolean remove(Object object) {
+		if (object == null)
+			return false;
+		int hash = hash(object);
+		int index = hash & (table.length - 1);
+		Entry<Typ> previous = null;
+		for (Entry<Typ> e = table[index]; e != null; e = e.next) {
+			if (e.element == object) {
+				if (previous == null)
+					table[index] = e.next;
+				else
+					previous.next = e.next;
+				unlink(e);
+				return true;
+			}
+			previous = e;
+		}
+		return false;
+	}
+
+	/**
+	 * @return <code>true</code> if this very object (not an equal one) is in the Set.
+	 */
+	@Override
+	public boolean contains(Object object) {
+		if (object == null)
+			return false;
+		for (Entry<Typ> e = table[hash(object) & (table.length - 1)]; e != null; e = e.next) {
+			if (e.element == object)
+				return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Clear the Set. The buffer is kept if it has not grown.
+	 */
+	@Override
+	public void clear() {
+		if (size == 0)
+			return;
+		if (table.length > INITIAL_CAPACITY)
+			table = newTable(INITIAL_CAPACITY);
+		else
+			Arrays.fill(table, null);
+		header.before = header;
+		header.after = header;
+		size = 0;
+		modCount++;
+	}
+
+	/**
+	 * @return an iterator that returns the elements in insertion order.
+	 */
+	@Override
+	public Iterator<Typ> iterator() {
+		return new EntryIterator();
+	}
+
+	private void unlink(Entry<Typ> e) {
+		e.before.after = e.after;
+		e.after.before = e.before;
+		e.before = null;
+		e.after = null;
+		e.element = null;
+		size--;
+		modCount++;
+	}
+
+	private void resize() {
+		Entry<Typ>[] newTable = newTable(table.length * 2);
+		// re-hash along the insertion order list, thus no need to walk the old buckets
+		for (Entry<Typ> e = header.after; e != header; e = e.after) {
+			int index = e.hash & (newTable.length - 1);
+			e.next = newTable[index];
+			newTable[index] = e;
+		}
+		table = newTable;
+	}
+
+	private static int hash(Object object) {
+		int h = System.identityHashCode(object);
+		// spread the higher bits because the table index only uses the lower ones
+		return h ^ (h >>> 16);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> Entry<T>[] newTable(int capacity) {
+		return new Entry[capacity];
+	}
+
+	private static class Entry<T> {
+		private T element;
+		private final int hash;
+		private Entry<T> next;
+		private Entry<T> before;
+		private Entry<T> after;
+
+		private Entry(T element, int hash, Entry<T> next) {
+			this.element = element;
+			this.hash = hash;
+			this.next = next;
+		}
+	}
+
+	private class EntryIterator implements Iterator<Typ> {
+		private Entry<Typ> nextEntry = header.after;
+		private Entry<Typ> lastReturned;
+		private int expectedModCount = modCount;
+
+		public boolean hasNext() {
+			return nextEntry != header;
+		}
+
+		public Typ next() {
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			if (nextEntry == header)
+				throw new NoSuchElementException();
+			lastReturned = nextEntry;
+			nextEntry = nextEntry.after;
+			return lastReturned.element;
+		}
+
+		public void remove() {
+			if (lastReturned == null)
+				throw new IllegalStateException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			IdentityLinkedHashSet.this.remove(lastReturned.element);
+			lastReturned = null;
+			expectedModCount = modCount;
+		}
+	}
+}
@@ -11,13 +11,16 @@ import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
 import javax.persistence.LockModeType;
-import javax.persistence.Persistence;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.TransactionRequiredException;
 import javax.persistence.metamodel.EntityType;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.Interceptor;
 import org.hibernate.StaleStateException;
+import org.hibernate.ejb.Ejb3Configuration;
 import org.hibernate.event.PostLoadEvent;
 import org.hibernate.event.def.DefaultPostLoadEventListener;
 import org.webguitoolkit.persistence.ConcurrentChangeException;
@@ -66,11 +69,38 @@ public class JPAUtility implements IPersistenceUtility {
 	protected void initialize(String configId) {
 		
 		if (factories.get(configId) == null) {
-			factories.put(configId, Persistence.createEntityManagerFactory(configId) );
+			factories.put(configId, createEntityManagerFactory(configId));
 		}
 		entityManagerFactory = factories.get(configId);
 	}
 
+	/**
+	 * Creates the factory of the persistence unit. The interceptor configured for the unit
+	 * (<code>hibernate.ejb.interceptor</code>) is chained behind a HydrationInterceptor, thus loaded objects do not
+	 * generate an object UID and creation date and the configured interceptor is called as before.
+	 */
+	protected EntityManagerFactory createEntityManagerFactory(String configId) {
+		Ejb3Configuration configuration = new Ejb3Configuration().configure(configId, getFactoryProperties());
+		if (configuration == null) {
+			throw new javax.persistence.PersistenceException("No persistence unit named " + configId);
+		}
+		Interceptor configured = configuration.getHibernateConfiguration().getInterceptor();
+		if (configured == null || configured == EmptyInterceptor.INSTANCE) {
+			configuration.setInterceptor(new HydrationInterceptor());
+		}
+		else if (!(configured instanceof HydrationInterceptor)) {
+			configuration.setInterceptor(new ChainedHydrationInterceptor(configured));
+		}
+		return configuration.buildEntityManagerFactory();
+	}
+
+	/**
+	 * Properties passed in addition to the persistence unit, empty by default.
+	 */
+	protected Map<String, String> getFactoryProperties() {
+		return new HashMap<String, String>();
+	}
+
 //	/**
 //	 * Create a HU an map the passed classes to its configuration.
 //	 * 
@@ -149,6 +179,30 @@ public class JPAUtility implements IPersistenceUtility {
 		}
 	}
 
+	/**
+	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#flush()
+	 */
+	public void flush() throws PersistenceException {
+		try {
+			getEntityManager().flush();
+		}
+		catch (OptimisticLockException e) {
+			throw new ConcurrentChangeException("Error during flush", e);
+		}
+		catch (javax.persistence.PersistenceException e) {
+			throw new PersistenceException(e);
+		}
+	}
+
+	/**
+	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#evict(org.webguitoolkit.persistence.model.IPersistable)
+	 */
+	public void evict(IPersistable po) {
+		if (entityManager != null && entityManager.isOpen() && entityManager.contains(po)) {
+			entityManager.detach(po);
+		}
+	}
+
 	/**
 	 * 
 	 * @return a session. may be a new one.
@@ -0,0 +1,403 @@
+package org.webguitoolkit.persistence.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.Transient;
+
+import org.webguitoolkit.persistence.model.IPersistable;
+import org.webguitoolkit.persistence.model.RelationManagement;
+
+/**
+ * The persistence metadata of a Persistable class needed by the aspects: for every public setter, adder and remover the
+ * resolved property name, the transient flag, the maximum length of String values, the relation management
+ * annotation and the collection changed by adders and removers.
+ * <p>
+ * The HibernateUtility registers a descriptor for every mapped class when the SessionFactory is created, thus the aspects
+ * do not need reflection or the mapping for intercepted methods. Descriptors of classes that are not registered (e.g.
+ * JPA) are created on first access, their lengths are unknown and must be read from the IPersistenceUtility.
+ * <p>
+ * The registered descriptors are kept by configuration. The aspects use one descriptor per class, it holds the mapping
+ * of the class only if all configurations map the class alike, otherwise its lengths and property indexes are unknown.
+ */
+public class PersistableClassDescriptor {
+
+	/**
+	 * The length of a property that has not been resolved from a mapping
+	 */
+	public static final int UNKNOWN_LENGTH = -2;
+
+	private static final ConcurrentMap<Class<?>, PersistableClassDescriptor> registry = new ConcurrentHashMap<Class<?>, PersistableClassDescriptor>();
+	// the registered descriptors by configuration id, guarded by the class
+	private static final Map<String, Map<Class<?>, PersistableClassDescriptor>> registryByConfig =
+			new HashMap<String, Map<Class<?>, PersistableClassDescriptor>>();
+	// incremented after each registration, caches of descriptors compare it to detect replaced descriptors
+	private static volatile int registrationCount;
+
+	private final Class<?> persistentClass;
+	private final String configId;
+	private final Map<String, Integer> lengths;
+	private final String[] propertyNames;
+	private final Map<String, Integer> propertyIndexes;
+	private final ConcurrentMap<String, MethodDescriptor> methods = new ConcurrentHashMap<String, MethodDescriptor>();
+
+	/**
+	 * @param persistentClass the class
+	 * @param configId the id of the configuration that maps the class, NULL if unknown
+	 * @param lengths the lengths of the String properties by property name (collections of Strings with the suffixes
+	 *            <code>.index</code> and <code>.element</code>), NULL if unknown
+	 */
+	public PersistableClassDescriptor(Class<?> persistentClass, String configId, Map<String, Integer> lengths) {
+		this(persistentClass, configId, lengths, null);
+	}
+
+	/**
+	 * @param persistentClass the class
+	 * @param configId the id of the configuration that maps the class, NULL if unknown
+	 * @param lengths the lengths of the String properties by property name (collections of Strings with the suffixes
+	 *            <code>.index</code> and <code>.element</code>), NULL if unknown
+	 * @param propertyNames the names of the mapped properties in the order of the Hibernate ClassMetadata, their position
+	 *            is the index of the modified properties of the Persistable. NULL if unknown.
+	 */
+	public PersistableClassDescriptor(Class<?> persistentClass, String configId, Map<String, Integer> lengths,
+			String[] propertyNames) {
+		this.persistentClass = persistentClass;
+		this.configId = configId;
+		this.lengths = lengths == null ? null : Collections.unmodifiableMap(lengths);
+		this.propertyNames = propertyNames;
+		if (propertyNames == null) {
+			this.propertyIndexes = Collections.emptyMap();
+		}
+		else {
+			Map<String, Integer> indexes = new HashMap<String, Integer>();
+			for (int i = 0; i < propertyNames.length; i++) {
+				indexes.put(propertyNames[i], Integer.valueOf(i));
+			}
+			this.propertyIndexes = indexes;
+		}
+		Map<String, Map<Class<?>, RelationManagement>> relationsByName = new HashMap<String, Map<Class<?>, RelationManagement>>();
+		for (Method method : persistentClass.getMethods()) {
+			String name = method.getName();
+			if (!Modifier.isStatic(method.getModifiers()) && !method.isBridge() && isInterceptedName(name)) {
+				Map<Class<?>, RelationManagement> relations = relationsByName.get(name);
+				if (relations == null) {
+					relations = new HashMap<Class<?>, RelationManagement>();
+					relationsByName.put(name, relations);
+				}
+				Class<?>[] parameterTypes = method.getParameterTypes();
+				if (parameterTypes.length == 1 && IPersistable.class.isAssignableFrom(parameterTypes[0])) {
+					relations.put(parameterTypes[0], method.getAnnotation(RelationManagement.class));
+				}
+			}
+		}
+		for (Map.Entry<String, Map<Class<?>, RelationManagement>> entry : relationsByName.entrySet()) {
+			methods.put(entry.getKey(), new MethodDescriptor(entry.getKey(), entry.getValue()));
+		}
+	}
+
+	/**
+	 * Registers the descriptor for its configuration, replaces a descriptor registered before for the class and the
+	 * configuration. If another configuration maps the class differently the descriptor of the class used by the
+	 * aspects is replaced by one without mapping.
+	 */
+	public static synchronized void register(PersistableClassDescriptor descriptor) {
+		if (descriptor.getConfigId() == null) {
+			throw new IllegalArgumentException("No configuration id for the descriptor of "
+					+ descriptor.getPersistentClass().getName());
+		}
+		Map<Class<?>, PersistableClassDescriptor> descriptors = registryByConfig.get(descriptor.getConfigId());
+		if (descriptors == null) {
+			descriptors = new HashMap<Class<?>, PersistableClassDescriptor>();
+			registryByConfig.put(descriptor.getConfigId(), descriptors);
+		}
+		Class<?> persistentClass = descriptor.getPersistentClass();
+		descriptors.put(persistentClass, descriptor);
+
+		PersistableClassDescriptor shared = descriptor;
+		for (Map<Class<?>, PersistableClassDescriptor> other : registryByConfig.values()) {
+			PersistableClassDescriptor otherDescriptor = other.get(persistentClass);
+			if (otherDescriptor != null && !otherDescriptor.hasSameMapping(descriptor)) {
+				// the lengths and property indexes of one configuration are wrong for the other
+				shared = new PersistableClassDescriptor(persistentClass, null, null);
+				break;
+			}
+		}
+		registry.put(persistentClass, shared);
+		registrationCount++;
+	}
+
+	/**
+	 * @return the number of registrations so far, a descriptor returned by {@link #forClass(Class)} may have been
+	 *         replaced if the number changed since
+	 */
+	public static int getRegistrationCount() {
+		return registrationCount;
+	}
+
+	/**
+	 * @return the registered descriptor of the class used by the aspects or NULL, the descriptor has no mapping if the
+	 *         configurations map the class differently
+	 */
+	public static PersistableClassDescriptor getRegistered(Class<?> persistentClass) {
+		return registry.get(persistentClass);
+	}
+
+	/**
+	 * @return the descriptor of the class registered for the configuration or NULL
+	 */
+	public static synchronized PersistableClassDescriptor getRegistered(String configId, Class<?> persistentClass) {
+		Map<Class<?>, PersistableClassDescriptor> descriptors = registryByConfig.get(configId);
+		return descriptors == null ? null : descriptors.get(persistentClass);
+	}
+
+	/**
+	 * @return the descriptor of the class, created without lengths if the class has not been registered
+	 */
+	public static PersistableClassDescriptor forClass(Class<?> persistentClass) {
+		PersistableClassDescriptor descriptor = registry.get(persistentClass);
+		if (descriptor == null) {
+			descriptor = new PersistableClassDescriptor(persistentClass, null, null);
+			PersistableClassDescriptor existing = registry.putIfAbsent(persistentClass, descriptor);
+			if (existing != null) {
+				descriptor = existing;
+			}
+		}
+		return descriptor;
+	}
+
+	public Class<?> getPersistentClass() {
+		return persistentClass;
+	}
+
+	/**
+	 * @return the id of the configuration that maps the class, NULL if the descriptor was not registered by a
+	 *         HibernateUtility
+	 */
+	public String getConfigId() {
+		return configId;
+	}
+
+	/**
+	 * @return the maximum length of the String property, -1 if there is no limit and {@link #UNKNOWN_LENGTH} if the
+	 *         mapping of the class is unknown
+	 */
+	public int getLength(String propertyName) {
+		if (lengths == null) {
+			return UNKNOWN_LENGTH;
+		}
+		Integer length = lengths.get(propertyName);
+		return length == null ? -1 : length.intValue();
+	}
+
+	/**
+	 * @return the names of the mapped properties in the order of the Hibernate ClassMetadata or NULL if the mapping is
+	 *         unknown
+	 */
+	public String[] getPropertyNames() {
+		return propertyNames;
+	}
+
+	private boolean hasSameMapping(PersistableClassDescriptor other) {
+		return Arrays.equals(propertyNames, other.propertyNames)
+				&& (lengths == null ? other.lengths == null : lengths.equals(other.lengths));
+	}
+
+	/**
+	 * @return the index of the mapped property or -1 if the property is not mapped or the mapping is unknown
+	 */
+	public int getPropertyIndex(String propertyName) {
+		Integer index = propertyIndexes.get(propertyName);
+		return index == null ? -1 : index.intValue();
+	}
+
+	/**
+	 * @param methodName the name of a public setter, adder or remover
+	 * @return the descriptor of the method
+	 */
+	public MethodDescriptor getMethod(String methodName) {
+		MethodDescriptor method = methods.get(methodName);
+		if (method == null) {
+			// not a public method of the class, resolve the property from the name only
+			method = new MethodDescriptor(methodName, null);
+			MethodDescriptor existing = methods.putIfAbsent(methodName, method);
+			if (existing != null) {
+				method = existing;
+			}
+		}
+		return method;
+	}
+
+	private static boolean isInterceptedName(String name) {
+		return name.startsWith("set") || name.startsWith("add") || name.startsWith("remove");
+	}
+
+	/**
+	 * The metadata of an intercepted method
+	 */
+	public class MethodDescriptor {
+		private final String methodName;
+		private final String propertyName;
+		private final boolean transientProperty;
+		private final int length;
+		private final int indexLength;
+		private final int elementLength;
+		private final int propertyIndex;
+		private final String collectionField;
+		private final RelationManagement relation;
+		// the relation management by parameter type if the method is overloaded
+		private final Map<Class<?>, RelationManagement> overloadedRelations;
+
+		private MethodDescriptor(String methodName, Map<Class<?>, RelationManagement> relations) {
+			this.methodName = methodName;
+			int prefix = methodName.startsWith("remove") ? 6 : 3;
+			if (methodName.length() > prefix) {
+				propertyName = methodName.substring(prefix, prefix + 1).toLowerCase() + methodName.substring(prefix + 1);
+			}
+			else {
+				propertyName = "";
+			}
+			this.transientProperty = PersistableClassDescriptor.isTransient(persistentClass, propertyName);
+			this.length = PersistableClassDescriptor.this.getLength(propertyName);
+			this.propertyIndex = PersistableClassDescriptor.this.getPropertyIndex(propertyName);
+			// the String properties added by addXyzProperty( key, value ) are stored in the map xyzProperties
+			String collectionName = propertyName.endsWith("Property") ? propertyName.replaceAll("Property", "Properties")
+					: propertyName;
+			this.indexLength = PersistableClassDescriptor.this.getLength(collectionName + ".index");
+			this.elementLength = PersistableClassDescriptor.this.getLength(collectionName + ".element");
+			if (relations == null || relations.isEmpty()) {
+				this.relation = null;
+				this.overloadedRelations = null;
+			}
+			else if (relations.size() == 1) {
+				this.relation = relations.values().iterator().next();
+				this.overloadedRelations = null;
+			}
+			else {
+				this.relation = null;
+				this.overloadedRelations = relations;
+			}
+			if (methodName.startsWith("set")) {
+				this.collectionField = null;
+			}
+			else if (relation != null) {
+				this.collectionField = relation.thisSide();
+			}
+			else {
+				// addMyMessage changes myMessages
+				this.collectionField = findCollectionField(persistentClass, propertyName, propertyName + "s");
+			}
+		}
+
+		public String getMethodName() {
+			return methodName;
+		}
+
+		/**
+		 * @return the name of the property derived from the method name, e.g. <code>text</code> for <code>setText</code>
+		 */
+		public String getPropertyName() {
+			return propertyName;
+		}
+
+		/**
+		 * @return <code>true</code> if the field of the property is transient, changes do not mark the object changed
+		 */
+		public boolean isTransient() {
+			return transientProperty;
+		}
+
+		/**
+		 * @return the maximum length of the property, see {@link PersistableClassDescriptor#getLength(String)}
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * @return the index of the mapped property, see {@link PersistableClassDescriptor#getPropertyIndex(String)}
+		 */
+		public int getPropertyIndex() {
+			return propertyIndex;
+		}
+
+		/**
+		 * @return the name of the collection field changed by an adder or remover, NULL for setters and if there is no
+		 *         collection field matching the method name
+		 */
+		public String getCollectionField() {
+			return collectionField;
+		}
+
+		/**
+		 * @return the maximum length of the keys of a String map filled by an adder
+		 */
+		public int getIndexLength() {
+			return indexLength;
+		}
+
+		/**
+		 * @return the maximum length of the values of a String map filled by an adder
+		 */
+		public int getElementLength() {
+			return elementLength;
+		}
+
+		/**
+		 * @return the relation management of a method with an IPersistable parameter or NULL, NULL for overloaded methods
+		 *         as well (see {@link #getRelation(Class)})
+		 */
+		public RelationManagement getRelation() {
+			return relation;
+		}
+
+		/**
+		 * @param parameterType the parameter type of the called method
+		 * @return the relation management of the method with the IPersistable parameter type or NULL, resolves overloaded
+		 *         methods
+		 */
+		public RelationManagement getRelation(Class<?> parameterType) {
+			if (overloadedRelations == null) {
+				return relation;
+			}
+			return overloadedRelations.get(parameterType);
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if the field of the property is annotated with Transient
+	 */
+	public static boolean isTransient(Class<?> theClass, String property) {
+		for (Class<?> current = theClass; current != null && current != Object.class; current = current.getSuperclass()) {
+			for (Field field : current.getDeclaredFields()) {
+				if (field.getName().equals(property)) {
+					return field.isAnnotationPresent(Transient.class);
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the first of the names that is a Collection field of the class or a superclass, NULL if none is
+	 */
+	private static String findCollectionField(Class<?> theClass, String... names) {
+		for (String name : names) {
+			for (Class<?> current = theClass; current != null && current != Object.class; current = current.getSuperclass()) {
+				for (Field field : current.getDeclaredFields()) {
+					if (field.getName().equals(name) && Collection.class.isAssignableFrom(field.getType())) {
+						return name;
+					}
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,12 @@
+package org.webguitoolkit.persistence.util;
+
+/**
+ * The UIDs as created before the strategies were introduced: random values from the synchronized UIDGenerator. Can be
+ * used by models that rely on the old UIDs.
+ */
+public class RandomUIDStrategy implements IUIDStrategy {
+
+	public long nextUID() {
+		return UIDGenerator.getInstance().getUID();
+	}
+}
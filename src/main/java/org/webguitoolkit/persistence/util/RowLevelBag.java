@@ -0,0 +1,141 @@
+package org.webguitoolkit.persistence.util;
+
+import java.io.Serializable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.hibernate.HibernateException;
+import org.hibernate.collection.PersistentBag;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.loader.CollectionAliases;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.type.Type;
+
+/**
+ * A bag that writes the changes of its rows. Hibernate recreates a bag in a join table whenever it has been changed,
+ * it deletes all rows and inserts every element again, because it can not tell duplicate rows apart. As long as the
+ * bag and its snapshot hold no duplicates, the RowLevelBag deletes the rows of the removed elements and inserts the
+ * rows of the added elements only. The changes are found by hash lookups in the elements and in the snapshot instead of
+ * comparing every element with every other.
+ * <p>
+ * Mapped with the {@link RowLevelBagType}, the elements are kept in a {@link HashIndexedList}. Another List passed to
+ * the bag, e.g. an ArrayList set by a setter, is copied into one, thus a flush checks the elements in linear time.
+ * Changes made through a reference to the passed List are not seen by the bag. The elements are compared by
+ * <code>equals</code>, which is the identity of the Persistables. The elements read from the database are added to the
+ * index when the collection has been read completely, the hash codes of elements that are still being hydrated are not
+ * valid.
+ */
+@SuppressWarnings("rawtypes")
+public class RowLevelBag extends PersistentBag {
+
+	private static final long serialVersionUID = 1L;
+
+	// the snapshot the snapshot elements have been collected from
+	private transient Serializable indexedSnapshot;
+	private transient Set<Object> snapshotElements;
+	// the elements read from the database until the end of the read
+	private transient List<Object> readElements;
+
+	public RowLevelBag() {
+		super();
+	}
+
+	public RowLevelBag(SessionImplementor session) {
+		super(session);
+	}
+
+	@SuppressWarnings("unchecked")
+	public RowLevelBag(SessionImplementor session, Collection coll) {
+		super(session, coll);
+		if (!(bag instanceof HashIndexedList<?>)) {
+			bag = new HashIndexedList<Object>(bag);
+		}
+	}
+
+	@Override
+	public void beginRead() {
+		super.beginRead();
+		readElements = new ArrayList<Object>();
+	}
+
+	@Override
+	public Object readFrom(ResultSet rs, CollectionPersister persister, CollectionAliases descriptor, Object owner)
+			throws HibernateException, SQLException {
+		Object element = persister.readElement(rs, owner, descriptor.getSuffixedElementAliases(), getSession());
+		if (element != null) {
+			readElements.add(element);
+		}
+		return element;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public boolean endRead() {
+		// the elements are hydrated now, thus their hash codes are valid
+		bag.addAll(readElements);
+		readElements = null;
+		return super.endRead();
+	}
+
+	@Override
+	public boolean needsRecreate(CollectionPersister persister) {
+		if (persister.isOneToMany()) {
+			return false;
+		}
+		return !isUnique();
+	}
+
+	@Override
+	public Iterator getDeletes(CollectionPersister persister, boolean indexIsFormula) throws HibernateException {
+		if (!isUnique()) {
+			return super.getDeletes(persister, indexIsFormula);
+		}
+		Collection<?> current = bag instanceof HashIndexedList<?> ? bag : new HashSet<Object>(bag);
+		List<Object> deletes = new ArrayList<Object>();
+		for (Object old : (List<?>)getSnapshot()) {
+			if (!current.contains(old)) {
+				deletes.add(old);
+			}
+		}
+		return deletes.iterator();
+	}
+
+	@Override
+	public boolean needsInserting(Object entry, int i, Type elemType) throws HibernateException {
+		if (!isUnique()) {
+			return super.needsInserting(entry, i, elemType);
+		}
+		return !getSnapshotElements().contains(entry);
+	}
+
+	/**
+	 * @return <code>true</code> if neither the bag nor its snapshot hold duplicates, thus a row is identified by its
+	 *         element
+	 */
+	private boolean isUnique() {
+		if (bag instanceof HashIndexedList<?>) {
+			if (((HashIndexedList<?>)bag).hasDuplicates()) {
+				return false;
+			}
+		}
+		else if (new HashSet<Object>(bag).size() != bag.size()) {
+			return false;
+		}
+		return getSnapshotElements().size() == ((List<?>)getSnapshot()).size();
+	}
+
+	private Set<Object> getSnapshotElements() {
+		Serializable snapshot = getSnapshot();
+		if (snapshotElements == null || snapshot != indexedSnapshot) {
+			snapshotElements = new HashSet<Object>((List<?>)snapshot);
+			indexedSnapshot = snapshot;
+		}
+		return snapshotElements;
+	}
+}
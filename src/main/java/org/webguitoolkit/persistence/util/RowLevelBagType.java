@@ -0,0 +1,67 @@
+package org.webguitoolkit.persistence.util;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.HibernateException;
+import org.hibernate.collection.PersistentCollection;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.type.Type;
+import org.hibernate.usertype.UserCollectionType;
+
+/**
+ * Maps a List without index column as {@link RowLevelBag}, thus a change of a ManyToMany List writes the changed rows
+ * of the join table instead of recreating it:
+ *
+ * <pre>
+ * [at]ManyToMany
+ * [at]CollectionType(type = &quot;org.webguitoolkit.persistence.util.RowLevelBagType&quot;)
+ * private List&lt;Tag&gt; tags = new HashIndexedList&lt;Tag&gt;();
+ * </pre>
+ *
+ * Loaded Lists are {@link HashIndexedList}s, other Lists are copied into one when they are wrapped.
+ */
+@SuppressWarnings("rawtypes")
+public class RowLevelBagType implements UserCollectionType {
+
+	public PersistentCollection instantiate(SessionImplementor session, CollectionPersister persister)
+			throws HibernateException {
+		return new RowLevelBag(session);
+	}
+
+	public PersistentCollection wrap(SessionImplementor session, Object collection) {
+		return new RowLevelBag(session, (Collection)collection);
+	}
+
+	public Iterator getElementsIterator(Object collection) {
+		return ((Collection)collection).iterator();
+	}
+
+	public boolean contains(Object collection, Object entity) {
+		return ((Collection)collection).contains(entity);
+	}
+
+	public Object indexOf(Object collection, Object entity) {
+		int index = ((List)collection).indexOf(entity);
+		return index < 0 ? null : Integer.valueOf(index);
+	}
+
+	@SuppressWarnings("unchecked")
+	public Object replaceElements(Object original, Object target, CollectionPersister persister, Object owner,
+			Map copyCache, SessionImplementor session) throws HibernateException {
+		Type elementType = persister.getElementType();
+		Collection result = (Collection)target;
+		result.clear();
+		for (Object element : (Collection)original) {
+			result.add(elementType.replace(element, null, session, owner, copyCache));
+		}
+		return result;
+	}
+
+	public Object instantiate(int anticipatedSize) {
+		return new HashIndexedList<Object>(anticipatedSize < 0 ? 10 : anticipatedSize);
+	}
+}
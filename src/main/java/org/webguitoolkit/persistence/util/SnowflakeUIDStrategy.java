@@ -0,0 +1,184 @@
+package org.webguitoolkit.persistence.util;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Lock-free, time ordered UIDs. A UID consists of
+ * <ul>
+ * <li>41 bits milliseconds since 2011-01-01 (enough until 2080)</li>
+ * <li>10 bits node id</li>
+ * <li>12 bits sequence within the millisecond</li>
+ * </ul>
+ * The timestamp and the sequence are kept in one AtomicLong and are advanced by compare-and-set, thus the UIDs of one
+ * node are strictly unique and increasing without locking. If more than 4096 UIDs are created in one millisecond or the
+ * clock goes backwards the sequence carries over into the timestamp, i.e. the UIDs run slightly ahead of the clock until
+ * it catches up.
+ * <p>
+ * Since the UIDs are increasing, new rows are appended at the end of the object UID index instead of being spread over
+ * the whole B-tree as with random UIDs.
+ * <p>
+ * The node id must be unique for all nodes writing to the same database. It is read from the system property
+ * <code>wgt.persistence.uid.node</code> (0..1023), <b>which is required on every node if several nodes write to the same
+ * database</b>. Without the property the node id is derived from the last 10 bits of a non-loopback IPv4 address of the
+ * host, e.g. x.y.0.5 and x.y.4.5 get the same node id and may create the same UIDs. If the host has no such address
+ * (e.g. IPv6 only) a random node id is used. Both fallbacks are meant for single node deployments and are logged as a
+ * warning.
+ * <p>
+ * The node id is resolved when the first UID is created, not when the strategy is created.
+ */
+public class SnowflakeUIDStrategy implements IUIDStrategy {
+
+	public static final String NODE_PROPERTY = "wgt.persistence.uid.node";
+
+	/**
+	 * 2011-01-01 00:00:00 GMT
+	 */
+	public static final long EPOCH = 1293840000000L;
+
+	public static final int NODE_BITS = 10;
+	public static final int SEQUENCE_BITS = 12;
+	public static final long MAX_NODE = (1L << NODE_BITS) - 1;
+
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+	private static final long UNRESOLVED = -1;
+
+	private volatile long node;
+
+	/**
+	 * (milliseconds since EPOCH << SEQUENCE_BITS) | sequence of the last UID
+	 */
+	private final AtomicLong state = new AtomicLong();
+
+	/**
+	 * creates a strategy with the node id of the system property or the host, see {@link #getDefaultNode()}
+	 */
+	public SnowflakeUIDStrategy() {
+		this.node = UNRESOLVED;
+	}
+
+	/**
+	 * @param node the node id (0..1023)
+	 */
+	public SnowflakeUIDStrategy(long node) {
+		if (node < 0 || node > MAX_NODE)
+			throw new IllegalArgumentException("node must be between 0 and " + MAX_NODE + ": " + node);
+		this.node = node;
+	}
+
+	public long nextUID() {
+		long node = getNode();
+		while (true) {
+			long last = state.get();
+			long now = System.currentTimeMillis() - EPOCH;
+			long next;
+			if (now > (last >>> SEQUENCE_BITS)) {
+				next = now << SEQUENCE_BITS;
+			}
+			else {
+				// same millisecond, sequence exhausted or clock went backwards
+				next = last + 1;
+			}
+			if (state.compareAndSet(last, next)) {
+				return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS)
+						| (next & SEQUENCE_MASK);
+			}
+		}
+	}
+
+	/**
+	 * @return the node id of the UIDs
+	 */
+	public long getNode() {
+		long resolved = node;
+		if (resolved == UNRESOLVED) {
+			synchronized (this) {
+				if (node == UNRESOLVED) {
+					node = getDefaultNode();
+				}
+				resolved = node;
+			}
+		}
+		return resolved;
+	}
+
+	/**
+	 * @return the time in milliseconds when the UID has been created
+	 */
+	public static long getTimestamp(long uid) {
+		return (uid >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+	}
+
+	/**
+	 * @return the node id of the system property, derived from the IP address of the host or random if the host has no
+	 *         non-loopback IPv4 address
+	 * @throws IllegalStateException if the property is invalid
+	 */
+	public static long getDefaultNode() {
+		String property = System.getProperty(NODE_PROPERTY);
+		if (StringUtils.isNotBlank(property)) {
+			try {
+				long node = Long.parseLong(property.trim());
+				if (node >= 0 && node <= MAX_NODE) {
+					return node;
+				}
+			}
+			catch (NumberFormatException e) {
+				// handled below
+			}
+			throw new IllegalStateException("Invalid " + NODE_PROPERTY + ", must be between 0 and " + MAX_NODE + ": "
+					+ property);
+		}
+		InetAddress address = getNodeAddress();
+		if (address == null) {
+			long node = new Random().nextInt((int)MAX_NODE + 1);
+			LogFactory.getLog(SnowflakeUIDStrategy.class).warn(
+					"No IPv4 address to derive the UID node id from, using the random node id " + node + ". Set "
+							+ NODE_PROPERTY + " if several nodes write to the same database.");
+			return node;
+		}
+		byte[] bytes = address.getAddress();
+		// the last bits of the address differ most within a network
+		long node = (((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF)) & MAX_NODE;
+		LogFactory.getLog(SnowflakeUIDStrategy.class).warn(
+				"UID node id " + node + " derived from " + address.getHostAddress() + ", it is not unique for hosts whose"
+						+ " addresses share the last 10 bits. Set " + NODE_PROPERTY
+						+ " if several nodes write to the same database.");
+		return node;
+	}
+
+	/**
+	 * @return the IPv4 address of the host if it is not a loopback address, otherwise the first non-loopback IPv4
+	 *         address of the network interfaces, NULL if there is none
+	 */
+	private static InetAddress getNodeAddress() {
+		try {
+			InetAddress localHost = InetAddress.getLocalHost();
+			if (localHost instanceof Inet4Address && !localHost.isLoopbackAddress()) {
+				return localHost;
+			}
+			for (NetworkInterface networkInterface : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+				if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+					continue;
+				}
+				for (InetAddress address : Collections.list(networkInterface.getInetAddresses())) {
+					if (address instanceof Inet4Address && !address.isLoopbackAddress()) {
+						return address;
+					}
+				}
+			}
+		}
+		catch (Exception e) {
+			LogFactory.getLog(SnowflakeUIDStrategy.class).warn("Could not determine the address of the host", e);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,72 @@
+package org.webguitoolkit.persistence.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the UID strategies. A strategy can be registered for a model base class (e.g. a subclass of
+ * PersistablePFW1), it is used for all subclasses of it. Classes without a registered strategy use the default
+ * strategy, a {@link SnowflakeUIDStrategy}.
+ * <p>
+ * Register the strategies during the initialization, before objects are created.
+ *
+ * @see org.webguitoolkit.persistence.Persistable#getUIDStrategy()
+ */
+public class UIDStrategies {
+
+	private static volatile IUIDStrategy defaultStrategy = new SnowflakeUIDStrategy();
+	private static final Map<Class<?>, IUIDStrategy> registered = new ConcurrentHashMap<Class<?>, IUIDStrategy>();
+	private static final Map<Class<?>, IUIDStrategy> resolved = new ConcurrentHashMap<Class<?>, IUIDStrategy>();
+
+	private UIDStrategies() {
+	}
+
+	/**
+	 * @return the strategy registered for the class or its nearest superclass, the default strategy if there is none
+	 */
+	public static IUIDStrategy getStrategy(Class<?> persistentClass) {
+		IUIDStrategy strategy = resolved.get(persistentClass);
+		if (strategy == null) {
+			strategy = defaultStrategy;
+			for (Class<?> theClass = persistentClass; theClass != null; theClass = theClass.getSuperclass()) {
+				IUIDStrategy found = registered.get(theClass);
+				if (found != null) {
+					strategy = found;
+					break;
+				}
+			}
+			resolved.put(persistentClass, strategy);
+		}
+		return strategy;
+	}
+
+	/**
+	 * registers the strategy for the base class and all its subclasses
+	 */
+	public static void setStrategy(Class<?> baseClass, IUIDStrategy strategy) {
+		if (strategy == null) {
+			registered.remove(baseClass);
+		}
+		else {
+			registered.put(baseClass, strategy);
+		}
+		resolved.clear();
+	}
+
+	/**
+	 * @return the strategy of all classes without a registered strategy
+	 */
+	public static IUIDStrategy getDefaultStrategy() {
+		return defaultStrategy;
+	}
+
+	/**
+	 * sets the strategy of all classes without a registered strategy
+	 */
+	public static void setDefaultStrategy(IUIDStrategy strategy) {
+		if (strategy == null)
+			throw new IllegalArgumentException("the default strategy must not be NULL");
+		defaultStrategy = strategy;
+		resolved.clear();
+	}
+}
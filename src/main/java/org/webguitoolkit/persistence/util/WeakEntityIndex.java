@@ -0,0 +1,138 @@
+package org.webguitoolkit.persistence.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.hibernate.proxy.HibernateProxyHelper;
+import org.webguitoolkit.persistence.model.IPersistable;
+
+/**
+ * A weak index of persistent objects by entity name and database id. The objects are only weakly referenced, entries of
+ * garbage collected objects are removed through a ReferenceQueue on the next access.
+ * <p>
+ * The PersistenceManager keeps this index in sync with the objects in use, thus the PersistenceInterceptor can find an
+ * object in use in O(1) instead of iterating over all objects in use. The objects in use themselves are found by object
+ * UID through the WeakPersistableRegistry. Like the registry the index keeps the first object added for a key.
+ *
+ * @param <Typ>
+ */
+public class WeakEntityIndex<Typ extends IPersistable> {
+
+	private final Map<EntityKey, Entry<Typ>> byEntityKey = new HashMap<EntityKey, Entry<Typ>>();
+	private final ReferenceQueue<Typ> queue = new ReferenceQueue<Typ>();
+
+	/**
+	 * Adds the object to the index if there is no other object with the same entity name and id yet. Objects without
+	 * database id (0) are not indexed, a new object is added again after it has been saved.
+	 */
+	public void add(Typ object) {
+		if (object == null)
+			throw new IllegalArgumentException("do not add NULL to this index");
+		expungeStaleEntries();
+		if (object.getId() == 0) {
+			return;
+		}
+		EntityKey key = new EntityKey(HibernateProxyHelper.getClassWithoutInitializingProxy(object).getName(), object
+				.getId());
+		Entry<Typ> existing = byEntityKey.get(key);
+		if (existing != null && existing.get() != null) {
+			// the object or another object with the same key is in use already
+			return;
+		}
+		byEntityKey.put(key, new Entry<Typ>(object, key, queue));
+	}
+
+	/**
+	 * removes the object from the index if it is indexed
+	 */
+	public void remove(IPersistable object) {
+		if (object == null)
+			return;
+		expungeStaleEntries();
+		if (object.getId() == 0) {
+			return;
+		}
+		EntityKey key = new EntityKey(HibernateProxyHelper.getClassWithoutInitializingProxy(object).getName(), object
+				.getId());
+		Entry<Typ> existing = byEntityKey.get(key);
+		if (existing != null && existing.get() == object) {
+			byEntityKey.remove(key);
+		}
+	}
+
+	/**
+	 * @param entityName the class name of the object
+	 * @param id the database id
+	 * @return the object or NULL if there is none
+	 */
+	public Typ get(String entityName, long id) {
+		expungeStaleEntries();
+		Entry<Typ> entry = byEntityKey.get(new EntityKey(entityName, id));
+		return entry == null ? null : entry.get();
+	}
+
+	/**
+	 * @return the number of indexed objects, including garbage collected objects that have not been removed yet
+	 */
+	public int size() {
+		expungeStaleEntries();
+		return byEntityKey.size();
+	}
+
+	public void clear() {
+		byEntityKey.clear();
+		// the entries of the queue are not in the maps anymore
+		while (queue.poll() != null) {
+			// nothing to do
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void expungeStaleEntries() {
+		Reference<? extends Typ> reference;
+		while ((reference = queue.poll()) != null) {
+			removeEntry((Entry<Typ>)reference);
+		}
+	}
+
+	private void removeEntry(Entry<Typ> entry) {
+		if (byEntityKey.get(entry.key) == entry) {
+			byEntityKey.remove(entry.key);
+		}
+	}
+
+	private static class Entry<T extends IPersistable> extends WeakReference<T> {
+		private final EntityKey key;
+
+		private Entry(T object, EntityKey key, ReferenceQueue<T> queue) {
+			super(object, queue);
+			this.key = key;
+		}
+	}
+
+	private static class EntityKey {
+		private final String entityName;
+		private final long id;
+
+		private EntityKey(String entityName, long id) {
+			this.entityName = entityName;
+			this.id = id;
+		}
+
+		@Override
+		public int hashCode() {
+			return entityName.hashCode() * 31 + (int)(id ^ (id >>> 32));
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof EntityKey))
+				return false;
+			EntityKey otherKey = (EntityKey)other;
+			return id == otherKey.id && entityName.equals(otherKey.entityName);
+		}
+	}
+}
@@ -65,10 +65,10 @@ public class WeakHashSet<Typ> implements Set<Typ> {
 	}
 
 	/**
-	 * Clear the Set by creating a new buffer
+	 * Clear the Set
 	 */
 	public void clear() {
-		base = new WeakHashMap<Typ, Object>();
+		base.clear();
 	}
 
 	/**
@@ -98,7 +98,7 @@ public class WeakHashSet<Typ> implements Set<Typ> {
 	 * @retun true if the Sets size is 0.
 	 */
 	public boolean isEmpty() {
-		return base.size() > 0;
+		return base.isEmpty();
 	}
 
 	/**
@@ -0,0 +1,279 @@
+package org.webguitoolkit.persistence.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.webguitoolkit.persistence.model.IPersistable;
+
+/**
+ * A weak Set of persistent objects keyed by their object UID. Replaces the WeakHashSet for the objects in use of the
+ * PersistenceManager: the objects are kept as long as the application references them and are removed automatically
+ * after they have been garbage collected.
+ * <p>
+ * The entries are stored with open addressing (linear probing) over the primitive object UIDs, thus add, remove and
+ * contains hash once and do not call equals() of the objects. The ReferenceQueue is drained on every access, so entries of
+ * collected objects do not pile up. The Set keeps the first object added for an object UID, a later object with the same
+ * object UID is not added. Does not support NULL elements and is not thread safe.
+ * <p>
+ * The iterator works on a snapshot of the live objects, thus the Set can be modified while iterating.
+ *
+ * @param <Typ>
+ */
+public class WeakPersistableRegistry<Typ extends IPersistable> extends AbstractSet<Typ> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] keys;
+	private Entry<Typ>[] entries;
+	private int size;
+	private int resizeThreshold;
+	private final ReferenceQueue<Typ> queue = new ReferenceQueue<Typ>();
+
+	public WeakPersistableRegistry() {
+		super();
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Add the object to the Set if there is no object with the same object UID yet. Throws an
+	 * <code>IllegalArgumentException</code> if object is NULL
+	 *
+	 * @return <code>true</code> if the Set was changed, <code>false</code> otherwise.
+	 */
+	@Override
+	public boolean add(Typ object) {
+		if (object == null)
+			throw new IllegalArgumentException("do not add NULL to this Set");
+		expungeStaleEntries();
+		long key = object.getObjectUId();
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		for (Entry<Typ> entry = entries[index]; entry != null; entry = entries[index]) {
+			if (keys[index] == key) {
+				if (entry.get() != null) {
+					return false;
+				}
+				// the object has been collected but its entry is not drained yet
+				entries[index] = new Entry<Typ>(object, key, queue);
+				return true;
+			}
+			index = (index + 1) & mask;
+		}
+		keys[index] = key;
+		entries[index] = new Entry<Typ>(object, key, queue);
+		if (++size > resizeThreshold) {
+			resize(keys.length * 2);
+		}
+		return true;
+	}
+
+	/**
+	 * removes the object with the object UID of the passed IPersistable
+	 *
+	 * @return <code>true</code> if the Set was changed.
+	 */
+	@Override
+	public boolean remove(Object object) {
+		if (!(object instanceof IPersistable))
+			return false;
+		expungeStaleEntries();
+		int index = indexOf(((IPersistable)object).getObjectUId());
+		if (index < 0)
+			return false;
+		boolean live = entries[index].get() != null;
+		delete(index);
+		return live;
+	}
+
+	/**
+	 * @return <code>true</code> if an object with the object UID of the passed IPersistable is in the Set.
+	 */
+	@Override
+	public boolean contains(Object object) {
+		if (!(object instanceof IPersistable))
+			return false;
+		return get(((IPersistable)object).getObjectUId()) != null;
+	}
+
+	/**
+	 * @return the object with the object UID or NULL
+	 */
+	public Typ get(long objectUId) {
+		expungeStaleEntries();
+		int index = indexOf(objectUId);
+		return index < 0 ? null : entries[index].get();
+	}
+
+	/**
+	 * @return the number of objects, objects collected since the last access may be included
+	 */
+	@Override
+	public int size() {
+		expungeStaleEntries();
+		return size;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Clear the Set. The buffer is kept if it has not grown.
+	 */
+	@Override
+	public void clear() {
+		if (keys.length > INITIAL_CAPACITY) {
+			allocate(INITIAL_CAPACITY);
+		}
+		else {
+			Arrays.fill(entries, null);
+		}
+		size = 0;
+		// the drained entries are not found in the table anymore
+		while (queue.poll() != null) {
+			// nothing to do
+		}
+	}
+
+	/**
+	 * @return the live objects. The list is a strong snapshot, later changes of the Set are not reflected.
+	 */
+	public List<Typ> snapshot() {
+		expungeStaleEntries();
+		List<Typ> result = new ArrayList<Typ>(size);
+		for (Entry<Typ> entry : entries) {
+			if (entry != null) {
+				Typ object = entry.get();
+				if (object != null) {
+					result.add(object);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return an iterator over a snapshot of the live objects, remove() removes the object from the Set.
+	 */
+	@Override
+	public Iterator<Typ> iterator() {
+		final Iterator<Typ> snapshot = snapshot().iterator();
+		return new Iterator<Typ>() {
+			private Typ last;
+
+			public boolean hasNext() {
+				return snapshot.hasNext();
+			}
+
+			public Typ next() {
+				last = snapshot.next();
+				return last;
+			}
+
+			public void remove() {
+				if (last == null)
+					throw new IllegalStateException();
+				WeakPersistableRegistry.this.remove(last);
+				last = null;
+			}
+		};
+	}
+
+	private int indexOf(long key) {
+		int mask = keys.length - 1;
+		int index = hash(key) & mask;
+		for (Entry<Typ> entry = entries[index]; entry != null; entry = entries[index]) {
+			if (keys[index] == key) {
+				return index;
+			}
+			index = (index + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * removes the entry at the index and shifts the following entries of the probe sequence back, thus no tombstones
+	 * are needed
+	 */
+	private void delete(int index) {
+		int mask = keys.length - 1;
+		int hole = index;
+		int next = (hole + 1) & mask;
+		while (entries[next] != null) {
+			int home = hash(keys[next]) & mask;
+			// move the entry into the hole if its home slot is not between the hole and its current slot
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				keys[hole] = keys[next];
+				entries[hole] = entries[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+		entries[hole] = null;
+		size--;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void expungeStaleEntries() {
+		Reference<? extends Typ> reference;
+		while ((reference = queue.poll()) != null) {
+			Entry<Typ> stale = (Entry<Typ>)reference;
+			int index = indexOf(stale.key);
+			// the slot may hold a newer entry for the same UID
+			if (index >= 0 && entries[index] == stale) {
+				delete(index);
+			}
+		}
+	}
+
+	private void resize(int capacity) {
+		long[] oldKeys = keys;
+		Entry<Typ>[] oldEntries = entries;
+		allocate(capacity);
+		int mask = capacity - 1;
+		for (int i = 0; i < oldEntries.length; i++) {
+			if (oldEntries[i] != null) {
+				int index = hash(oldKeys[i]) & mask;
+				while (entries[index] != null) {
+					index = (index + 1) & mask;
+				}
+				keys[index] = oldKeys[i];
+				entries[index] = oldEntries[i];
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		entries = new Entry[capacity];
+		// keep the load factor low, linear probing degrades fast with long clusters
+		resizeThreshold = capacity / 2;
+	}
+
+	private static int hash(long key) {
+		// finalizer of MurmurHash3, spreads all bits of the UID to the lower bits used for the index
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int)key;
+	}
+
+	private static class Entry<T> extends WeakReference<T> {
+		private final long key;
+
+		private Entry(T object, long key, ReferenceQueue<T> queue) {
+			super(object, queue);
+			this.key = key;
+		}
+	}
+}
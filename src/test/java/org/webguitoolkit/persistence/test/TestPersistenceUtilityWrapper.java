@@ -99,6 +99,21 @@ public class TestPersistenceUtilityWrapper extends HibernateUtility {
 		getWrappedPersistenceUtility().refresh(po);
 	}
 
+	/**
+	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#flush()
+	 */
+	public void flush() throws PersistenceException {
+		assertActivatedPersistenceUtility();
+		getWrappedPersistenceUtility().flush();
+	}
+
+	/**
+	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#evict(org.webguitoolkit.persistence.model.IPersistable)
+	 */
+	public void evict(IPersistable po) {
+		getWrappedPersistenceUtility().evict(po);
+	}
+
 	/**
 	 * @see org.webguitoolkit.persistence.util.IPersistenceUtility#rollbackTransaction()
 	 */
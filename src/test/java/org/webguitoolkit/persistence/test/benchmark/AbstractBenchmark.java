@@ -0,0 +1,85 @@
+package org.webguitoolkit.persistence.test.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.StringTokenizer;
+
+import org.webguitoolkit.persistence.test.model.TestCaseForPFW;
+
+/**
+ * Base class for the benchmarks. Benchmarks are named *Benchmark so they are not executed by the regular test run, start
+ * them explicitly, e.g.
+ * 
+ * <pre>
+ * mvn test -Dtest=DirtyObjectsBenchmark -Dbenchmark.sizes=10000,100000
+ * </pre>
+ * 
+ * The system property <code>benchmark.sizes</code> overrides the default sizes of a benchmark.
+ */
+public abstract class AbstractBenchmark extends TestCaseForPFW {
+
+	public static final String SIZES_PROPERTY = "benchmark.sizes";
+
+	/**
+	 * @param defaultSizes comma separated list of sizes used if the system property is not set
+	 * @return the sizes the benchmark shall run with
+	 */
+	protected int[] getSizes(String defaultSizes) {
+		String sizes = System.getProperty(SIZES_PROPERTY, defaultSizes);
+		StringTokenizer tokenizer = new StringTokenizer(sizes, ", ");
+		int[] result = new int[tokenizer.countTokens()];
+		for (int i = 0; tokenizer.hasMoreTokens(); i++) {
+			result[i] = Integer.parseInt(tokenizer.nextToken());
+		}
+		return result;
+	}
+
+	/**
+	 * Print one result line.
+	 * 
+	 * @param name the name of the measured operation
+	 * @param size the number of processed objects
+	 * @param nanos the elapsed time
+	 */
+	protected void report(String name, int size, long nanos) {
+		double millis = nanos / 1000000.0;
+		double perSecond = nanos > 0 ? size * 1000000000.0 / nanos : 0;
+		System.out.println(String.format("BENCHMARK %-40s size=%-9d time=%10.1f ms  %12.0f objects/s", name, size, millis, perSecond));
+	}
+
+	/**
+	 * Print the bytes allocated per call since startBytes, nothing if the VM does not provide them.
+	 * 
+	 * @param name the name of the measured operation
+	 * @param size the number of calls
+	 * @param startBytes the result of {@link #allocatedBytes()} before the calls
+	 */
+	protected void reportAllocation(String name, int size, long startBytes) {
+		long bytes = allocatedBytes();
+		if (bytes >= 0 && startBytes >= 0) {
+			System.out.println(String.format("BENCHMARK %-40s size=%-9d %10.1f bytes/call", name, size, (bytes - startBytes)
+					/ (double)size));
+		}
+	}
+
+	/**
+	 * @return the bytes allocated by the current thread, read from the HotSpot thread MXBean, or -1 if the VM does not
+	 *         provide them
+	 */
+	protected long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/**
+	 * Try to get a similar heap state for each measurement.
+	 */
+	protected void gc() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+	}
+}
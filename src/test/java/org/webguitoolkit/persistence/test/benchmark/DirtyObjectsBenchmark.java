@@ -0,0 +1,45 @@
+package org.webguitoolkit.persistence.test.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+/**
+ * Measures commit and rollback of large numbers of dirty objects. Both end with the clean-up of the dirty objects which
+ * resets every object and was quadratic before.
+ */
+public class DirtyObjectsBenchmark extends AbstractBenchmark {
+
+	public void testCommitAndRollback() throws Exception {
+		for (int size : getSizes("10000,100000,500000")) {
+			List<TestObject> objects = new ArrayList<TestObject>(size);
+			for (int i = 0; i < size; i++) {
+				objects.add(new TestObject("Message " + i));
+			}
+			gc();
+			long start = System.nanoTime();
+			getPersistenceManager().commit();
+			report("commit new objects", size, System.nanoTime() - start);
+
+			for (TestObject object : objects) {
+				object.setActive(true);
+			}
+			gc();
+			start = System.nanoTime();
+			getPersistenceManager().rollback();
+			report("rollback changed objects", size, System.nanoTime() - start);
+
+			for (int i = 0; i < size; i++) {
+				new TestObject("Rollback " + i);
+			}
+			gc();
+			start = System.nanoTime();
+			getPersistenceManager().rollback();
+			report("rollback new objects", size, System.nanoTime() - start);
+
+			assertTrue("dirty objects left after rollback", getPersistenceManager().getDirtyObjects().isEmpty());
+			getPersistenceManager().close();
+		}
+	}
+}
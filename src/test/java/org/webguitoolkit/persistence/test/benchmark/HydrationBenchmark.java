@@ -0,0 +1,46 @@
+package org.webguitoolkit.persistence.test.benchmark;
+
+import java.util.List;
+
+import org.webguitoolkit.persistence.Hydration;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+/**
+ * Measures the rows hydrated per second when loading objects with and without the cheap construction of loaded objects
+ * (see Hydration). The objects are loaded by a new session each time, thus none of them is in use.
+ */
+public class HydrationBenchmark extends AbstractBenchmark {
+
+	public void testHydration() throws Exception {
+		for (int size : getSizes("10000,100000")) {
+			for (int i = 0; i < size; i++) {
+				new TestObject("Hydration " + size + " " + i);
+			}
+			getPersistenceManager().commit();
+			getPersistenceManager().close();
+
+			try {
+				// warm up, the first query also pays for compiling the statement
+				load(size, true);
+				load(size, false);
+				report("load with UID generation", size, load(size, false));
+				report("load with cheap hydration", size, load(size, true));
+			}
+			finally {
+				Hydration.setEnabled(true);
+			}
+		}
+	}
+
+	private long load(int size, boolean cheap) {
+		Hydration.setEnabled(cheap);
+		reinitPersistenceManager();
+		gc();
+		long start = System.nanoTime();
+		List<?> loaded = getSession().createQuery("from TestObject where text like 'Hydration " + size + " %'").list();
+		long nanos = System.nanoTime() - start;
+		assertEquals("wrong number of loaded objects", size, loaded.size());
+		getPersistenceManager().close();
+		return nanos;
+	}
+}
@@ -0,0 +1,224 @@
+package org.webguitoolkit.persistence.test.benchmark;
+
+import java.lang.reflect.Field;
+
+import javax.persistence.ManyToMany;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+
+import org.apache.commons.lang.StringUtils;
+import org.webguitoolkit.persistence.model.RelationAccessor;
+import org.webguitoolkit.persistence.model.RelationAccessor.Cardinality;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+/**
+ * Measures the relation management of the aspects and the RelationManagementHelper for each cardinality. The field
+ * lookup of a relation change is also compared with the reflective lookup the RelationManagementHelper did before the
+ * fields were resolved once by the RelationAccessor.
+ */
+public class RelationBenchmark extends AbstractBenchmark {
+
+	public void testOneToMany() throws Exception {
+		for (int size : getSizes("10000,100000")) {
+			TestObject parent = new TestObject("Relation parent " + size);
+			RelatedObject[] children = createRelated(size);
+			gc();
+			long start = System.nanoTime();
+			for (RelatedObject child : children) {
+				parent.addOne2many(child);
+			}
+			report("add children to OneToMany", size, System.nanoTime() - start);
+			assertEquals("wrong number of children", size, parent.getOne2many().size());
+
+			gc();
+			start = System.nanoTime();
+			for (RelatedObject child : children) {
+				parent.removeOne2many(child);
+			}
+			report("remove children from OneToMany", size, System.nanoTime() - start);
+			assertTrue("children left", parent.getOne2many().isEmpty());
+
+			getPersistenceManager().rollback();
+		}
+	}
+
+	public void testManyToOne() throws Exception {
+		for (int size : getSizes("10000,100000")) {
+			TestObject parent = new TestObject("Relation parent " + size);
+			RelatedObject[] children = createRelated(size);
+			gc();
+			long start = System.nanoTime();
+			for (RelatedObject child : children) {
+				child.setMany2one(parent);
+			}
+			report("set parent of ManyToOne", size, System.nanoTime() - start);
+			getPersistenceManager().rollback();
+		}
+	}
+
+	public void testOneToOne() throws Exception {
+		for (int size : getSizes("10000,100000")) {
+			TestObject[] objects = new TestObject[size];
+			for (int i = 0; i < size; i++) {
+				objects[i] = new TestObject("Relation one " + i);
+			}
+			RelatedObject[] related = createRelated(size);
+			gc();
+			long start = System.nanoTime();
+			for (int i = 0; i < size; i++) {
+				objects[i].setOne2one(related[i]);
+			}
+			report("set partner of OneToOne", size, System.nanoTime() - start);
+			assertSame("partner not set", objects[0], related[0].getOne2one());
+			getPersistenceManager().rollback();
+		}
+	}
+
+	public void testManyToMany() throws Exception {
+		for (int size : getSizes("10000,100000")) {
+			TestObject parent = new TestObject("Relation parent " + size);
+			RelatedObject[] related = createRelated(size);
+			gc();
+			long start = System.nanoTime();
+			for (RelatedObject object : related) {
+				parent.addMany2many(object);
+			}
+			report("add partners to ManyToMany", size, System.nanoTime() - start);
+			assertEquals("wrong number of partners", size, parent.getMany2many().size());
+			getPersistenceManager().rollback();
+		}
+	}
+
+	public void testFieldLookup() throws Exception {
+		for (int size : getSizes("100000,1000000")) {
+			compareFieldLookup("OneToMany", TestObject.class, "one2many", RelatedObject.class, "many2one", size);
+			compareFieldLookup("ManyToOne", RelatedObject.class, "many2one", TestObject.class, "one2many", size);
+			compareFieldLookup("OneToOne", TestObject.class, "one2one", RelatedObject.class, "one2one", size);
+			compareFieldLookup("ManyToMany", TestObject.class, "many2many", RelatedObject.class, "many2many", size);
+		}
+	}
+
+	/**
+	 * Resolves the fields of both sides, their cardinality and mark changed flag like a relation change does, once with
+	 * the reflective lookup and once with the RelationAccessor, and prints both times and the speedup.
+	 */
+	private void compareFieldLookup(String cardinality, Class<?> myClass, String myFieldName, Class<?> partnerClass,
+			String partnerFieldName, int size) throws Exception {
+		// warm up both paths
+		lookupReflective(myClass, myFieldName, partnerClass, partnerFieldName, size);
+		lookupCached(myClass, myFieldName, partnerClass, partnerFieldName, size);
+
+		gc();
+		long start = System.nanoTime();
+		long reflectiveResult = lookupReflective(myClass, myFieldName, partnerClass, partnerFieldName, size);
+		long reflective = System.nanoTime() - start;
+		report("reflective lookup " + cardinality, size, reflective);
+
+		gc();
+		start = System.nanoTime();
+		long cachedResult = lookupCached(myClass, myFieldName, partnerClass, partnerFieldName, size);
+		long cached = System.nanoTime() - start;
+		report("cached lookup " + cardinality, size, cached);
+
+		assertEquals("lookups differ for " + cardinality, reflectiveResult, cachedResult);
+		double speedup = reflective / (double)Math.max(cached, 1);
+		System.out.println(String.format("BENCHMARK %-40s size=%-9d %10.1f times faster", "speedup " + cardinality,
+				size, speedup));
+	}
+
+	/**
+	 * The lookup of RelationManagementHelper before the RelationAccessor: getDeclaredField, setAccessible and the
+	 * annotation checks per call
+	 * 
+	 * @return a checksum of the cardinalities and mark changed flags
+	 */
+	private static long lookupReflective(Class<?> myClass, String myFieldName, Class<?> partnerClass,
+			String partnerFieldName, int size) throws NoSuchFieldException {
+		long result = 0;
+		for (int i = 0; i < size; i++) {
+			Field myField = getDeclaredField(myClass, myFieldName);
+			myField.setAccessible(true);
+			Field partnerField = getDeclaredField(partnerClass, partnerFieldName);
+			partnerField.setAccessible(true);
+			result += getCardinality(myField).ordinal() + getCardinality(partnerField).ordinal();
+			if (checkIfMarkChange(myField)) {
+				result++;
+			}
+			if (checkIfMarkChange(partnerField)) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a checksum of the cardinalities and mark changed flags
+	 */
+	private static long lookupCached(Class<?> myClass, String myFieldName, Class<?> partnerClass,
+			String partnerFieldName, int size) throws NoSuchFieldException {
+		long result = 0;
+		for (int i = 0; i < size; i++) {
+			RelationAccessor myField = RelationAccessor.forField(myClass, myFieldName);
+			RelationAccessor partnerField = RelationAccessor.forField(partnerClass, partnerFieldName);
+			result += myField.getCardinality().ordinal() + partnerField.getCardinality().ordinal();
+			if (myField.isMarkChange()) {
+				result++;
+			}
+			if (partnerField.isMarkChange()) {
+				result++;
+			}
+		}
+		return result;
+	}
+
+	private static Field getDeclaredField(Class<?> clazz, String field) throws NoSuchFieldException {
+		try {
+			return clazz.getDeclaredField(field);
+		}
+		catch (NoSuchFieldException fe) {
+			if (clazz.getSuperclass().equals(Object.class)) {
+				throw fe;
+			}
+			return getDeclaredField(clazz.getSuperclass(), field);
+		}
+	}
+
+	private static Cardinality getCardinality(Field field) {
+		if (field.isAnnotationPresent(OneToMany.class)) {
+			return Cardinality.ONE_TO_MANY;
+		}
+		if (field.isAnnotationPresent(ManyToMany.class)) {
+			return Cardinality.MANY_TO_MANY;
+		}
+		if (field.isAnnotationPresent(OneToOne.class)) {
+			return Cardinality.ONE_TO_ONE;
+		}
+		if (field.isAnnotationPresent(ManyToOne.class)) {
+			return Cardinality.MANY_TO_ONE;
+		}
+		return Cardinality.NONE;
+	}
+
+	private static boolean checkIfMarkChange(Field field) {
+		if (field.isAnnotationPresent(OneToMany.class)) {
+			return StringUtils.isEmpty(field.getAnnotation(OneToMany.class).mappedBy());
+		}
+		if (field.isAnnotationPresent(ManyToMany.class)) {
+			return StringUtils.isEmpty(field.getAnnotation(ManyToMany.class).mappedBy());
+		}
+		if (field.isAnnotationPresent(OneToOne.class)) {
+			return StringUtils.isEmpty(field.getAnnotation(OneToOne.class).mappedBy());
+		}
+		return true;
+	}
+
+	private RelatedObject[] createRelated(int size) {
+		RelatedObject[] related = new RelatedObject[size];
+		for (int i = 0; i < size; i++) {
+			related[i] = new RelatedObject("Relation child " + i);
+		}
+		return related;
+	}
+}
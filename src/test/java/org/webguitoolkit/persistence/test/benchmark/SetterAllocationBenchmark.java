@@ -0,0 +1,44 @@
+package org.webguitoolkit.persistence.test.benchmark;
+
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+/**
+ * Measures time and allocated bytes per intercepted setter call. The allocated bytes are read from the HotSpot thread
+ * MXBean, on other VMs only the time is reported.
+ */
+public class SetterAllocationBenchmark extends AbstractBenchmark {
+
+	public void testSetterAllocation() throws Exception {
+		for (int size : getSizes("100000,1000000")) {
+			TestObject object = new TestObject("Allocation");
+			String text = "Allocation text";
+			// warm up
+			for (int i = 0; i < size; i++) {
+				object.setText(text);
+				object.setActive(true);
+			}
+			getPersistenceManager().rollback();
+			object = new TestObject("Allocation");
+
+			gc();
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			for (int i = 0; i < size; i++) {
+				object.setText(text);
+			}
+			report("String setter", size, System.nanoTime() - start);
+			reportAllocation("String setter", size, bytes);
+
+			gc();
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			for (int i = 0; i < size; i++) {
+				object.setActive(true);
+			}
+			report("boolean setter", size, System.nanoTime() - start);
+			reportAllocation("boolean setter", size, bytes);
+
+			getPersistenceManager().rollback();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.webguitoolkit.persistence.test.benchmark;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.webguitoolkit.persistence.util.IUIDStrategy;
+import org.webguitoolkit.persistence.util.RandomUIDStrategy;
+import org.webguitoolkit.persistence.util.SnowflakeUIDStrategy;
+
+/**
+ * Throughput of the UID strategies with several threads creating UIDs at the same time. The sizes are the number of UIDs
+ * per thread, the thread counts can be set with the system property <code>benchmark.threads</code>.
+ */
+public class UIDBenchmark extends AbstractBenchmark {
+
+	public void testThroughput() throws Exception {
+		String threads = System.getProperty("benchmark.threads", "1,4," + Runtime.getRuntime().availableProcessors());
+		for (int size : getSizes("1000000")) {
+			for (String threadCount : threads.split(",")) {
+				int count = Integer.parseInt(threadCount.trim());
+				// warm up
+				measure(new RandomUIDStrategy(), count, size);
+				measure(new SnowflakeUIDStrategy(), count, size);
+				report("random UIDs, " + count + " threads", count * size, measure(new RandomUIDStrategy(), count, size));
+				report("snowflake UIDs, " + count + " threads", count * size, measure(new SnowflakeUIDStrategy(), count, size));
+			}
+		}
+	}
+
+	private long measure(final IUIDStrategy strategy, int threadCount, final int uidsPerThread) throws InterruptedException {
+		final CountDownLatch start = new CountDownLatch(1);
+		final long[] sink = new long[threadCount];
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			final int index = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+					long sum = 0;
+					for (int i = 0; i < uidsPerThread; i++) {
+						sum += strategy.nextUID();
+					}
+					sink[index] = sum;
+				}
+			};
+			threads[t].start();
+		}
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		return System.nanoTime() - begin;
+	}
+}
@@ -0,0 +1,68 @@
+package org.webguitoolkit.persistence.test.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.WeakHashSet;
+import org.webguitoolkit.persistence.util.WeakPersistableRegistry;
+
+/**
+ * Compares the WeakHashSet with the WeakPersistableRegistry used for the objects in use: add, contains, iterate a
+ * snapshot (as PersistenceManager.attach() does) and remove.
+ */
+public class WeakRegistryBenchmark extends AbstractBenchmark {
+
+	private static final int ROUNDS = 3;
+
+	public void testWeakSets() throws Exception {
+		for (int size : getSizes("1000,100000,1000000")) {
+			List<TestObject> objects = new ArrayList<TestObject>(size);
+			for (int i = 0; i < size; i++) {
+				objects.add(new TestObject("Object " + i));
+			}
+			getPersistenceManager().clearDirtyObjects();
+
+			// the first rounds warm up the JIT, the last round is reported
+			for (int round = 1; round <= ROUNDS; round++) {
+				boolean report = round == ROUNDS;
+				measure("WeakHashSet", new WeakHashSet<TestObject>(), objects, report);
+				measure("WeakPersistableRegistry", new WeakPersistableRegistry<TestObject>(), objects, report);
+			}
+		}
+	}
+
+	private void measure(String name, Set<TestObject> set, List<TestObject> objects, boolean report) {
+		int size = objects.size();
+		gc();
+		long start = System.nanoTime();
+		for (TestObject object : objects) {
+			set.add(object);
+		}
+		long added = System.nanoTime();
+		int found = 0;
+		for (TestObject object : objects) {
+			if (set.contains(object)) {
+				found++;
+			}
+		}
+		long contained = System.nanoTime();
+		List<TestObject> snapshot = new ArrayList<TestObject>(set);
+		long iterated = System.nanoTime();
+		for (TestObject object : objects) {
+			set.remove(object);
+		}
+		long removed = System.nanoTime();
+
+		assertEquals("not all objects found", size, found);
+		assertEquals("wrong snapshot size", size, snapshot.size());
+		assertTrue("not empty after remove", set.isEmpty());
+		if (report) {
+			report(name + " add", size, added - start);
+			report(name + " contains", size, contained - added);
+			report(name + " snapshot", size, iterated - contained);
+			report(name + " remove", size, removed - iterated);
+		}
+	}
+}
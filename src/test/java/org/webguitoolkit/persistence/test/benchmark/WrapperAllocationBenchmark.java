@@ -0,0 +1,55 @@
+package org.webguitoolkit.persistence.test.benchmark;
+
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+/**
+ * Measures time and allocated bytes of reading and iterating a collection wrapped with an observer, as a template
+ * rendering the children of an object would do.
+ */
+public class WrapperAllocationBenchmark extends AbstractBenchmark {
+
+	private static final int CHILDREN = 20;
+
+	public void testWrappedCollectionRead() throws Exception {
+		for (int size : getSizes("100000,1000000")) {
+			TestObject object = new TestObject("Wrapper");
+			for (int i = 0; i < CHILDREN; i++) {
+				object.getOne2manyWrapped().add(new RelatedObject("Wrapper child " + i));
+			}
+			// warm up
+			int count = readAndIterate(object, size);
+
+			gc();
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			for (int i = 0; i < size; i++) {
+				count += object.getOne2manyWrapped().size();
+			}
+			report("wrapped collection read", size, System.nanoTime() - start);
+			reportAllocation("wrapped collection read", size, bytes);
+
+			gc();
+			bytes = allocatedBytes();
+			start = System.nanoTime();
+			count += readAndIterate(object, size);
+			report("wrapped collection iteration", size, System.nanoTime() - start);
+			reportAllocation("wrapped collection iteration", size, bytes);
+
+			assertTrue(count > 0);
+			getPersistenceManager().rollback();
+		}
+	}
+
+	private int readAndIterate(TestObject object, int size) {
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			for (RelatedObject child : object.getOne2manyWrapped()) {
+				if (child != null) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,87 @@
+package org.webguitoolkit.persistence.test.changelog;
+
+import java.util.concurrent.CountDownLatch;
+
+import junit.framework.TestCase;
+
+import org.webguitoolkit.persistence.changelog.AsyncChangeLogSink;
+import org.webguitoolkit.persistence.changelog.ChangeRecord;
+import org.webguitoolkit.persistence.changelog.MemoryChangeLogSink;
+import org.webguitoolkit.persistence.changelog.AsyncChangeLogSink.BackpressurePolicy;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+
+public class AsyncChangeLogSinkTest extends TestCase {
+
+	public void testWriteAndFlush() {
+		MemoryChangeLogSink memory = new MemoryChangeLogSink();
+		AsyncChangeLogSink sink = new AsyncChangeLogSink(memory, 16, BackpressurePolicy.BLOCK);
+		for (int i = 0; i < 1000; i++) {
+			sink.write(record(i));
+		}
+		assertTrue("flush timed out", sink.flush(10000));
+		assertEquals("wrong number of records", 1000, memory.getRecords().size());
+		assertEquals("wrong written count", 1000, sink.getWrittenCount());
+		assertEquals("records dropped", 0, sink.getDroppedCount());
+		assertEquals("wrong order", 999, memory.getRecords().get(999).getObjectUId());
+		assertTrue("wrong max queue depth", sink.getMaxQueueDepth() <= 16);
+		sink.close();
+	}
+
+	public void testDrop() throws Exception {
+		BlockingSink blocking = new BlockingSink();
+		AsyncChangeLogSink sink = new AsyncChangeLogSink(blocking, 4, BackpressurePolicy.DROP);
+		sink.write(record(0));
+		// wait until the consumer hangs in the delegate, then fill the queue
+		blocking.entered.await();
+		for (int i = 1; i <= 10; i++) {
+			sink.write(record(i));
+		}
+		assertEquals("wrong queue depth", 4, sink.getQueueDepth());
+		assertEquals("wrong dropped count", 6, sink.getDroppedCount());
+		blocking.release.countDown();
+		assertTrue("flush timed out", sink.flush(10000));
+		assertEquals("wrong number of records", 5, blocking.getRecords().size());
+		sink.close();
+	}
+
+	public void testCallerRuns() throws Exception {
+		BlockingSink blocking = new BlockingSink();
+		AsyncChangeLogSink sink = new AsyncChangeLogSink(blocking, 2, BackpressurePolicy.CALLER_RUNS);
+		sink.write(record(0));
+		blocking.entered.await();
+		sink.write(record(1));
+		sink.write(record(2));
+		assertEquals("wrong queue depth", 2, sink.getQueueDepth());
+		blocking.release.countDown();
+		// the record is either queued or written by the caller, nothing is dropped
+		sink.write(record(3));
+		assertTrue("flush timed out", sink.flush(10000));
+		assertEquals("wrong number of records", 4, blocking.getRecords().size());
+		assertEquals("records dropped", 0, sink.getDroppedCount());
+		sink.close();
+	}
+
+	private ChangeRecord record(long uid) {
+		return new ChangeRecord(String.class, uid, Long.valueOf(uid), ModificationType.NEW, "test", 0, null, null);
+	}
+
+	/**
+	 * blocks the first write until released
+	 */
+	private static class BlockingSink extends MemoryChangeLogSink {
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		@Override
+		public void write(ChangeRecord record) {
+			entered.countDown();
+			try {
+				release.await();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			super.write(record);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package org.webguitoolkit.persistence.test.model;
+
+import org.hibernate.cfg.Configuration;
+import org.webguitoolkit.persistence.model.IPersistable;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.HibernatePersistenceFrameworkInitializer;
+import org.webguitoolkit.persistence.util.HibernateUtility;
+
+public class AttachEpochTest extends TestCaseForPFW {
+
+	private static int attachCount;
+
+	@Override
+	protected HibernatePersistenceFrameworkInitializer createInitializer() {
+		return new HibernatePersistenceFrameworkInitializer() {
+			@Override
+			protected HibernateUtility createHibernateUtility(Configuration config, String configId) {
+				return new HibernateUtility(config, configId) {
+					@Override
+					public void attach(IPersistable po) {
+						attachCount++;
+						super.attach(po);
+					}
+				};
+			}
+		};
+	}
+
+	@Override
+	protected String getHibernateConfigId() {
+		return "attachEpochConfig";
+	}
+
+	public void testAttachOncePerSession() throws Exception {
+		TestObject object = new TestObject("Attach");
+		RelatedObject related = new RelatedObject("Attach related");
+		related.setMany2one(object);
+		getPersistenceManager().commit();
+		// the new objects have been attached in the session of the commit
+		getPersistenceManager().close();
+
+		attachCount = 0;
+		for (int i = 0; i < 10; i++) {
+			object.setText("Attach " + i);
+			object.getOne2many();
+		}
+		assertEquals("object must be attached once", 1, attachCount);
+
+		getPersistenceManager().commit();
+		object.setText("Attach after commit");
+		assertEquals("the session is kept by the commit", 1, attachCount);
+	}
+
+	public void testAttachAgainAfterDetach() throws Exception {
+		TestObject object = new TestObject("Detach");
+		getPersistenceManager().commit();
+		getPersistenceManager().close();
+
+		attachCount = 0;
+		object.setText("Detach 1");
+		assertEquals("object not attached", 1, attachCount);
+
+		getPersistenceManager().detach();
+		object.setText("Detach 2");
+		object.setText("Detach 3");
+		assertEquals("object must be attached again after detach", 2, attachCount);
+
+		getPersistenceManager().close();
+		object.setActive(true);
+		assertEquals("object must be attached again after close", 3, attachCount);
+		getPersistenceManager().commit();
+	}
+
+	public void testEvictedObjectIsAttachedAgain() throws Exception {
+		TestObject object = new TestObject("Evict");
+		getPersistenceManager().commit();
+		object.setText("Evict 1");
+
+		attachCount = 0;
+		getPersistenceManager().getPersistenceUtility().evict(object);
+		object.setText("Evict 2");
+		assertEquals("evicted object must be attached again", 1, attachCount);
+		getPersistenceManager().commit();
+	}
+}
@@ -0,0 +1,119 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.Statistics;
+import org.webguitoolkit.persistence.PersistenceException;
+import org.webguitoolkit.persistence.UnitOfWork;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.HibernateUtility;
+
+public class BatchRefreshTest extends TestCaseForPFW {
+
+	@Override
+	protected Configuration createHibernateConfiguration(boolean createDrop) {
+		// several IN lists per class
+		return super.createHibernateConfiguration(createDrop).setProperty(HibernateUtility.IN_LIST_SIZE, "3").setProperty(
+				"hibernate.generate_statistics", "true");
+	}
+
+	@Override
+	protected String getHibernateConfigId() {
+		return "batchRefreshConfig";
+	}
+
+	public void testRefreshDetachedObjects() throws Exception {
+		List<TestObject> objects = createObjects("Detached", 7);
+		getPersistenceManager().close();
+		changeTextConcurrently("Detached changed", objects.toArray(new TestObject[objects.size()]));
+
+		Statistics statistics = getSession().getSessionFactory().getStatistics();
+		statistics.clear();
+		getPersistenceManager().refreshInBatches(objects);
+		assertEquals("not refreshed with one query per IN list", 3, statistics.getQueryExecutionCount());
+		for (TestObject object : objects) {
+			assertEquals("text not refreshed", "Detached changed", object.getText());
+			assertFalse("object attached", isAttached(object));
+		}
+
+		// the refreshed version is the version of the database
+		objects.get(0).setText("Detached committed");
+		getPersistenceManager().commit();
+	}
+
+	public void testRefreshAttachedObjects() throws Exception {
+		List<TestObject> objects = createObjects("Attached", 4);
+		getPersistenceManager().attach(true);
+		for (TestObject object : objects) {
+			assertTrue("object not attached", isAttached(object));
+		}
+		changeTextConcurrently("Attached changed", objects.toArray(new TestObject[objects.size()]));
+
+		getPersistenceManager().refreshInBatches(objects);
+		for (TestObject object : objects) {
+			assertEquals("text not refreshed", "Attached changed", object.getText());
+			assertTrue("object detached", isAttached(object));
+		}
+
+		// the refreshed state is the loaded state of the session, only the changed object is updated
+		Statistics statistics = getSession().getSessionFactory().getStatistics();
+		statistics.clear();
+		objects.get(1).setText("Attached committed");
+		getPersistenceManager().commit();
+		assertEquals("unchanged objects updated", 1, statistics.getEntityUpdateCount());
+	}
+
+	public void testRefreshAssociation() throws Exception {
+		TestObject object = createObjects("Association", 1).get(0);
+		RelatedObject related = new RelatedObject("Association related");
+		object.setOne2one(related);
+		getPersistenceManager().commit();
+		getPersistenceManager().close();
+		final long relatedId = related.getId();
+		commitConcurrently(new UnitOfWork<Object>() {
+			public Object execute() throws PersistenceException {
+				load(RelatedObject.class, relatedId).setText("Association changed");
+				return null;
+			}
+		});
+
+		getPersistenceManager().refreshInBatches(Arrays.asList(object));
+		assertEquals("association refreshed", "Association related", related.getText());
+
+		getPersistenceManager().refreshInBatches(Arrays.asList(object), "one2one");
+		assertSame("reference replaced", related, object.getOne2one());
+		assertEquals("association not refreshed", "Association changed", related.getText());
+	}
+
+	public void testRefreshReloadsCollections() throws Exception {
+		TestObject object = createObjects("Collection", 1).get(0);
+		object.getRelatedList().add(new RelatedObject("Collection 0"));
+		getPersistenceManager().commit();
+
+		final long id = object.getId();
+		commitConcurrently(new UnitOfWork<Object>() {
+			public Object execute() throws PersistenceException {
+				load(TestObject.class, id).getRelatedList().add(new RelatedObject("Collection 1"));
+				return null;
+			}
+		});
+
+		getPersistenceManager().refreshInBatches(Arrays.asList(object));
+		assertEquals("collection reloaded", 1, object.getRelatedList().size());
+		getPersistenceManager().refresh(Arrays.asList(object));
+		assertEquals("collection not reloaded", 2, object.getRelatedList().size());
+	}
+
+	private List<TestObject> createObjects(String prefix, int count) throws Exception {
+		List<TestObject> objects = new ArrayList<TestObject>();
+		for (int i = 0; i < count; i++) {
+			objects.add(new TestObject(prefix + " " + i));
+		}
+		getPersistenceManager().commit();
+		return objects;
+	}
+}
@@ -0,0 +1,82 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.webguitoolkit.persistence.CommitBatch;
+import org.webguitoolkit.persistence.PersistenceManager.ChunkMode;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.HibernatePersistenceFrameworkInitializer;
+
+public class BatchedCommitTest extends TestCaseForPFW {
+
+	@Override
+	protected HibernatePersistenceFrameworkInitializer createInitializer() {
+		HibernatePersistenceFrameworkInitializer hpfi = super.createInitializer();
+		hpfi.setJdbcBatchSize(20);
+		return hpfi;
+	}
+
+	@Override
+	protected String getHibernateConfigId() {
+		return "batchedCommitConfig";
+	}
+
+	public void testBatchesByClassAndOperation() throws Exception {
+		assertTrue("batched commit not enabled", getPersistenceManager().isBatchedCommit());
+
+		List<RelatedObject> children = new ArrayList<RelatedObject>();
+		List<TestObject> parents = createParents(45, children);
+		getPersistenceManager().commit();
+
+		List<CommitBatch> batches = getPersistenceManager().getLastCommitBatches();
+		assertEquals("wrong number of groups", 2, batches.size());
+		assertBatch(batches.get(0), TestObject.class, ModificationType.NEW, 45);
+		assertBatch(batches.get(1), RelatedObject.class, ModificationType.NEW, 45);
+
+		for (TestObject parent : parents) {
+			parent.setText("Changed " + parent.getText());
+		}
+		children.get(0).markDeleted();
+		getPersistenceManager().commit();
+		batches = getPersistenceManager().getLastCommitBatches();
+		assertEquals("groups of the previous commit kept", 2, batches.size());
+		assertBatch(batches.get(0), TestObject.class, ModificationType.CHANGED, 45);
+		assertBatch(batches.get(1), RelatedObject.class, ModificationType.DELETED, 1);
+	}
+
+	public void testChunksAreSummedUp() throws Exception {
+		createParents(45, new ArrayList<RelatedObject>());
+		getPersistenceManager().commit(20, ChunkMode.FLUSH);
+
+		List<CommitBatch> batches = getPersistenceManager().getLastCommitBatches();
+		int objects = 0;
+		for (CommitBatch batch : batches) {
+			assertEquals("wrong operation", ModificationType.NEW, batch.getOperation());
+			objects += batch.getObjectCount();
+		}
+		assertEquals("writes of earlier chunks lost", 90, objects);
+		// each chunk is flushed in batches of its own
+		assertTrue("too few batches estimated", getPersistenceManager().getLastCommitEstimatedBatchCount() >= 5);
+	}
+
+	private List<TestObject> createParents(int count, List<RelatedObject> children) {
+		List<TestObject> parents = new ArrayList<TestObject>();
+		for (int i = 0; i < count; i++) {
+			TestObject parent = new TestObject("Parent " + i);
+			parents.add(parent);
+			RelatedObject child = new RelatedObject("Child " + i);
+			child.setMany2one(parent);
+			children.add(child);
+		}
+		return parents;
+	}
+
+	private void assertBatch(CommitBatch batch, Class<?> entityClass, ModificationType operation, int objectCount) {
+		assertEquals("wrong class", entityClass, batch.getEntityClass());
+		assertEquals("wrong operation", operation, batch.getOperation());
+		assertEquals("wrong number of objects", objectCount, batch.getObjectCount());
+	}
+}
@@ -0,0 +1,80 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.cfg.Configuration;
+import org.webguitoolkit.persistence.StaleObjectsException;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.HibernateUtility;
+
+public class BulkAttachTest extends TestCaseForPFW {
+
+	@Override
+	protected Configuration createHibernateConfiguration(boolean createDrop) {
+		// several IN lists per class
+		return super.createHibernateConfiguration(createDrop).setProperty(HibernateUtility.IN_LIST_SIZE, "3");
+	}
+
+	@Override
+	protected String getHibernateConfigId() {
+		return "bulkAttachConfig";
+	}
+
+	public void testAttachAllObjectsInUse() throws Exception {
+		List<TestObject> objects = createObjects("Bulk", 10);
+		getPersistenceManager().close();
+		for (TestObject object : objects) {
+			assertFalse("object still in session", isAttached(object));
+		}
+
+		getPersistenceManager().attach();
+		for (TestObject object : objects) {
+			assertTrue("object not attached", isAttached(object));
+		}
+
+		// attaching again keeps the objects
+		getPersistenceManager().attach(true);
+		for (TestObject object : objects) {
+			assertTrue("object not attached", isAttached(object));
+		}
+	}
+
+	public void testFindStaleObjects() throws Exception {
+		List<TestObject> objects = createObjects("Stale", 8);
+		getPersistenceManager().close();
+		changeTextConcurrently("Stale concurrent", objects.get(1), objects.get(6));
+
+		List<?> stale = ((HibernateUtility)getPersistenceUtility()).findStaleObjects(objects);
+		assertEquals("wrong number of stale objects", 2, stale.size());
+		assertTrue("stale object not found", stale.contains(objects.get(1)));
+		assertTrue("stale object not found", stale.contains(objects.get(6)));
+	}
+
+	public void testStaleObjectsReportedTogether() throws Exception {
+		List<TestObject> objects = createObjects("Report", 5);
+		getPersistenceManager().close();
+		changeTextConcurrently("Report concurrent", objects.get(0), objects.get(4));
+
+		try {
+			getPersistenceManager().attach(true);
+			fail("stale objects not detected");
+		}
+		catch (StaleObjectsException e) {
+			assertEquals("wrong number of stale objects", 2, e.getStaleObjects().size());
+			assertTrue("stale object not reported", e.getStaleObjects().contains(objects.get(0)));
+			assertTrue("stale object not reported", e.getStaleObjects().contains(objects.get(4)));
+		}
+		assertFalse("stale object attached", isAttached(objects.get(0)));
+		assertTrue("object not attached", isAttached(objects.get(2)));
+	}
+
+	private List<TestObject> createObjects(String prefix, int count) throws Exception {
+		List<TestObject> objects = new ArrayList<TestObject>();
+		for (int i = 0; i < count; i++) {
+			objects.add(new TestObject(prefix + " " + i));
+		}
+		getPersistenceManager().commit();
+		return objects;
+	}
+}
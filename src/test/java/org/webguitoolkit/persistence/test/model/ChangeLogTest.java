@@ -0,0 +1,56 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.List;
+
+import org.webguitoolkit.persistence.changelog.ChangeRecord;
+import org.webguitoolkit.persistence.changelog.MemoryChangeLogSink;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+public class ChangeLogTest extends TestCaseForPFW {
+
+	private MemoryChangeLogSink sink;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		sink = new MemoryChangeLogSink();
+		getPersistenceManager().setChangeLogSink(sink);
+	}
+
+	public void testRecords() throws Exception {
+		TestObject created = new TestObject("created");
+		TestObject changed = new TestObject("changed");
+		getPersistenceManager().commit("creator");
+
+		List<ChangeRecord> records = sink.getRecords();
+		assertEquals("wrong number of records", 2, records.size());
+		assertEquals("wrong operation", ModificationType.NEW, records.get(0).getOperation());
+		assertEquals("wrong object", created.getObjectUId(), records.get(0).getObjectUId());
+		assertEquals("wrong user", "creator", records.get(0).getUser());
+		assertEquals("wrong class", TestObject.class, records.get(1).getEntityClass());
+		sink.clear();
+
+		changed.setText("changed again");
+		created.markDeleted();
+		getPersistenceManager().commit("modifier");
+
+		records = sink.getRecords();
+		assertEquals("wrong number of records", 2, records.size());
+		assertEquals("wrong operation", ModificationType.DELETED, records.get(0).getOperation());
+		ChangeRecord change = records.get(1);
+		assertEquals("wrong operation", ModificationType.CHANGED, change.getOperation());
+		assertEquals("wrong object", changed.getObjectUId(), change.getObjectUId());
+		assertEquals("wrong user", "modifier", change.getUser());
+		assertEquals("wrong number of modifications", 1, change.getModifications().size());
+		assertEquals("wrong modification", "setText ( changed again )", change.getModifications().get(0));
+		assertTrue("wrong line", sink.getLines().get(1).startsWith("modifier CHANGED at '"));
+	}
+
+	public void testNoRecordsOnRollback() throws Exception {
+		new TestObject("rolled back");
+		getPersistenceManager().rollback();
+		getPersistenceManager().commit();
+		assertTrue("rolled back changes logged", sink.getRecords().isEmpty());
+	}
+}
@@ -0,0 +1,60 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.webguitoolkit.persistence.PersistenceManager.ChunkMode;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+public class ChunkedCommitTest extends TestCaseForPFW {
+
+	public void testFlushChunks() throws Exception {
+		List<TestObject> parents = createObjects("Flush", 25);
+		getPersistenceManager().commit(10, ChunkMode.FLUSH);
+		assertReleased(parents);
+		assertEquals("wrong number of objects in database", 25, count("Flush"));
+	}
+
+	public void testCommitChunks() throws Exception {
+		List<TestObject> parents = createObjects("Commit", 25);
+		getPersistenceManager().commit(7, ChunkMode.COMMIT);
+		assertReleased(parents);
+		assertEquals("wrong number of objects in database", 25, count("Commit"));
+	}
+
+	public void testChildInNextChunk() throws Exception {
+		// the child is saved and evicted by cascade with its parent before its own chunk is written
+		List<TestObject> parents = createObjects("Cascade", 3);
+		getPersistenceManager().commit(1, ChunkMode.FLUSH);
+		assertReleased(parents);
+		assertEquals("wrong number of objects in database", 3, count("Cascade"));
+		assertEquals("wrong number of children in database", 3, ((Number)getSession().createQuery(
+				"select count(*) from RelatedObject where text like 'Cascade%'").uniqueResult()).intValue());
+	}
+
+	private List<TestObject> createObjects(String prefix, int count) {
+		List<TestObject> parents = new ArrayList<TestObject>();
+		for (int i = 0; i < count; i++) {
+			TestObject parent = new TestObject(prefix + " parent " + i);
+			parents.add(parent);
+			new RelatedObject(prefix + " child " + i).setMany2one(parent);
+		}
+		return parents;
+	}
+
+	private void assertReleased(List<TestObject> parents) {
+		assertTrue("dirty objects left", getPersistenceManager().getDirtyObjects().isEmpty());
+		for (TestObject parent : parents) {
+			assertEquals("object not reset", ModificationType.NONE, parent.getModificationType());
+			assertTrue("object not saved", parent.getId() != 0);
+			assertFalse("object still in session", getSession().contains(parent));
+		}
+	}
+
+	private int count(String prefix) {
+		return ((Number)getSession().createQuery("select count(*) from TestObject where text like '" + prefix + "%'")
+				.uniqueResult()).intValue();
+	}
+}
@@ -0,0 +1,55 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import org.webguitoolkit.persistence.CommitStatistics;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+public class CommitStatisticsTest extends TestCaseForPFW {
+
+	public void testCommitCounts() throws Exception {
+		CommitStatistics statistics = getPersistenceManager().getCommitStatistics();
+		long globalCommits = CommitStatistics.getGlobal().getCommitCount();
+
+		TestObject parent = new TestObject("parent");
+		new RelatedObject("child").setMany2one(parent);
+		getPersistenceManager().commit();
+
+		assertEquals("wrong commit count", 1, statistics.getCommitCount());
+		assertEquals("wrong new count", 2, statistics.getNewObjectCount());
+		assertTrue("wrong entity write count", statistics.getEntityWriteCount() >= 2);
+		assertTrue("no statements counted", statistics.getPreparedStatementCount() >= 2);
+		assertTrue("global statistics not updated", CommitStatistics.getGlobal().getCommitCount() > globalCommits);
+
+		parent.setText("changed");
+		getPersistenceManager().commit();
+		assertEquals("wrong commit count", 2, statistics.getCommitCount());
+		assertEquals("wrong changed count", 1, statistics.getChangedObjectCount());
+
+		new TestObject("rolled back");
+		getPersistenceManager().rollback();
+		assertEquals("wrong rollback count", 1, statistics.getRollbackCount());
+	}
+
+	public void testSlowCommit() throws Exception {
+		CommitStatistics statistics = getPersistenceManager().getCommitStatistics();
+		getPersistenceManager().setSlowCommitThresholdMillis(0);
+		new TestObject("slow");
+		getPersistenceManager().commit();
+		assertEquals("commit not logged as slow", 1, statistics.getSlowCommitCount());
+
+		getPersistenceManager().setSlowCommitThresholdMillis(-1);
+		new TestObject("not slow");
+		getPersistenceManager().commit();
+		assertEquals("commit logged as slow", 1, statistics.getSlowCommitCount());
+	}
+
+	public void testMBean() throws Exception {
+		CommitStatistics.getGlobal();
+		assertTrue("global statistics not registered", ManagementFactory.getPlatformMBeanServer().isRegistered(
+				new ObjectName(CommitStatistics.GLOBAL_OBJECT_NAME)));
+	}
+}
@@ -0,0 +1,97 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.Collection;
+
+import org.hibernate.Hibernate;
+import org.webguitoolkit.persistence.model.IPersistable;
+import org.webguitoolkit.persistence.query.QueryFactory;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.HibernatePersistenceFrameworkInitializer;
+
+public class DeferredRelationTest extends TestCaseForPFW {
+
+	@Override
+	protected HibernatePersistenceFrameworkInitializer createInitializer() {
+		HibernatePersistenceFrameworkInitializer hpfi = super.createInitializer();
+		hpfi.setDeferredRelationMaintenance(true);
+		return hpfi;
+	}
+
+	@Override
+	protected String getHibernateConfigId() {
+		return "deferredRelationConfig";
+	}
+
+	public void testQueueAppliedOnInitialization() throws Exception {
+		TestObject parent = loadParent("Applied");
+		RelatedObject child = new RelatedObject("Applied child new");
+		child.setMany2one(parent);
+		assertSame("owning side not set", parent, child.getMany2one());
+		assertFalse("children loaded by the relation management", Hibernate.isInitialized(parent.getOne2many()));
+		assertEquals("change not queued", 1, getPersistenceManager().getDeferredCollectionOperations().size());
+
+		assertEquals("queued child not applied", 4, parent.getOne2many().size());
+		assertTrue("queued child not applied", parent.getOne2many().contains(child));
+		assertEquals("queue not emptied", 0, getPersistenceManager().getDeferredCollectionOperations().size());
+		getPersistenceManager().commit();
+	}
+
+	public void testQueueDroppedAtCommit() throws Exception {
+		TestObject parent = loadParent("Dropped");
+		RelatedObject child = new RelatedObject("Dropped child new");
+		child.setMany2one(parent);
+		getPersistenceManager().commit();
+		assertEquals("queue not dropped", 0, getPersistenceManager().getDeferredCollectionOperations().size());
+
+		assertFalse("children loaded", Hibernate.isInitialized(parent.getOne2many()));
+		assertEquals("wrong number of children", 4, parent.getOne2many().size());
+		assertTrue("new child not read", parent.getOne2many().contains(child));
+	}
+
+	public void testQueueDroppedAfterFlush() throws Exception {
+		TestObject parent = loadParent("Flushed");
+		RelatedObject child = new RelatedObject("Flushed child new");
+		child.setMany2one(parent);
+		assertEquals("change not queued", 1, getPersistenceManager().getDeferredCollectionOperations().size());
+
+		// a flush within the transaction writes the owning side, like a chunk of a chunked commit
+		getPersistenceUtility().beginTransaction();
+		getPersistenceUtility().save(child);
+		getPersistenceUtility().flush();
+		assertEquals("queue not dropped", 0, getPersistenceManager().getDeferredCollectionOperations().size());
+		assertEquals("flushed child added twice", 4, parent.getOne2many().size());
+		getPersistenceManager().rollback();
+	}
+
+	public void testInitializedCollectionChangedImmediately() throws Exception {
+		TestObject parent = loadParent("Initialized");
+		assertEquals("wrong number of children", 3, parent.getOne2many().size());
+		RelatedObject child = new RelatedObject("Initialized child new");
+		child.setMany2one(parent);
+		assertEquals("change queued", 0, getPersistenceManager().getDeferredCollectionOperations().size());
+		assertTrue("child not added", parent.getOne2many().contains(child));
+		getPersistenceManager().commit();
+	}
+
+	/**
+	 * @return the parent with three children read in a new session, the children are not loaded
+	 */
+	private TestObject loadParent(String prefix) throws Exception {
+		TestObject parent = new TestObject(prefix + " parent");
+		for (int i = 0; i < 3; i++) {
+			new RelatedObject(prefix + " child " + i).setMany2one(parent);
+		}
+		getPersistenceManager().commit();
+		getPersistenceManager().close();
+		reinitPersistenceManager();
+
+		Collection<IPersistable> result = new QueryFactory().newHQLQuery(
+				"from TestObject where text = '" + prefix + " parent'").execute();
+		assertEquals("parent not found", 1, result.size());
+		TestObject loaded = (TestObject)result.iterator().next();
+		assertNotSame("parent not loaded from database", parent, loaded);
+		assertFalse("children loaded", Hibernate.isInitialized(loaded.getOne2many()));
+		return loaded;
+	}
+}
@@ -0,0 +1,116 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.Arrays;
+
+import org.hibernate.EntityMode;
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.Statistics;
+import org.webguitoolkit.persistence.Persistable;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.HibernatePersistenceFrameworkInitializer;
+import org.webguitoolkit.persistence.util.PersistableClassDescriptor;
+
+public class DirtyTrackingTest extends TestCaseForPFW {
+
+	@Override
+	protected HibernatePersistenceFrameworkInitializer createInitializer() {
+		HibernatePersistenceFrameworkInitializer hpfi = super.createInitializer();
+		hpfi.setTrackedDirtyCheck(true);
+		hpfi.setDynamicUpdate(true);
+		return hpfi;
+	}
+
+	@Override
+	protected Configuration createHibernateConfiguration(boolean createDrop) {
+		return super.createHibernateConfiguration(createDrop).setProperty("hibernate.generate_statistics", "true");
+	}
+
+	@Override
+	protected String getHibernateConfigId() {
+		return "dirtyTrackingConfig";
+	}
+
+	public void testSetterTracksProperty() throws Exception {
+		TestObject object = new TestObject("Tracked");
+		object.setActive(true);
+		getPersistenceManager().commit();
+		assertNull("committed object must fall back to the state comparison", object.getTrackedDirtyProperties());
+
+		object.setText("Tracked changed");
+		PersistableClassDescriptor descriptor = PersistableClassDescriptor.getRegistered(TestObject.class);
+		assertNotNull("descriptor not registered", descriptor);
+		int[] dirty = object.getTrackedDirtyProperties();
+		assertNotNull("changed properties unknown", dirty);
+		assertTrue("text not tracked", contains(dirty, descriptor.getPropertyIndex("text")));
+		assertTrue("modification date not tracked", contains(dirty,
+				descriptor.getPropertyIndex(Persistable.ATTRIBUTE_MODIFIED_AT)));
+		assertFalse("active must not be dirty", contains(dirty, descriptor.getPropertyIndex("active")));
+		getPersistenceManager().commit();
+
+		TestObject loaded = reload(object);
+		assertEquals("text not updated", "Tracked changed", loaded.getText());
+		assertTrue("unchanged column lost", loaded.getActive());
+		assertEquals("version not incremented", object.getVersionNo(), loaded.getVersionNo());
+	}
+
+	public void testExplicitMarkIsNotTracked() throws Exception {
+		TestObject object = new TestObject("Untracked");
+		getPersistenceManager().commit();
+
+		object.setText("Untracked changed");
+		object.markModified(ModificationType.CHANGED);
+		assertNull("explicit mark must fall back to the state comparison", object.getTrackedDirtyProperties());
+		getPersistenceManager().commit();
+		assertNull("reset after commit", object.getTrackedDirtyProperties());
+
+		assertEquals("text not updated", "Untracked changed", reload(object).getText());
+	}
+
+	public void testCommitWritesChangeOnce() throws Exception {
+		TestObject object = new TestObject("Once");
+		getPersistenceManager().commit();
+		long version = object.getVersionNo();
+
+		Statistics statistics = getSession().getSessionFactory().getStatistics();
+		statistics.clear();
+		object.setText("Once changed");
+		// the commit flushes and the commit of the transaction flushes again
+		getPersistenceManager().commit();
+		assertEquals("object updated more than once", 1, statistics.getEntityUpdateCount());
+		assertEquals("version incremented more than once", version + 1, reload(object).getVersionNo());
+	}
+
+	public void testChangeWithoutAspectsIsWritten() throws Exception {
+		TestObject object = new TestObject("Direct");
+		getPersistenceManager().commit();
+		getPersistenceManager().attach(object);
+
+		Statistics statistics = getSession().getSessionFactory().getStatistics();
+		statistics.clear();
+		getSession().getSessionFactory().getClassMetadata(TestObject.class).setPropertyValue(object, "text",
+				"Direct changed", EntityMode.POJO);
+		assertNull("unmarked object must fall back to the state comparison", object.getTrackedDirtyProperties());
+		getPersistenceManager().commit();
+		assertEquals("change not written", 1, statistics.getEntityUpdateCount());
+		assertEquals("text not updated", "Direct changed", reload(object).getText());
+	}
+
+	public void testNewObjectIsNotTracked() {
+		TestObject object = new TestObject("New");
+		assertNull("new objects are inserted completely", object.getTrackedDirtyProperties());
+	}
+
+	private TestObject reload(TestObject object) throws Exception {
+		long id = object.getId();
+		getPersistenceManager().close();
+		reinitPersistenceManager();
+		TestObject loaded = load(TestObject.class, id);
+		assertNotSame("object not loaded from database", object, loaded);
+		return loaded;
+	}
+
+	private static boolean contains(int[] indexes, int index) {
+		return index >= 0 && Arrays.binarySearch(indexes, index) >= 0;
+	}
+}
@@ -0,0 +1,93 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.webguitoolkit.persistence.Hydration;
+import org.webguitoolkit.persistence.model.IPersistable;
+import org.webguitoolkit.persistence.query.QueryFactory;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.IUIDStrategy;
+import org.webguitoolkit.persistence.util.UIDStrategies;
+
+public class HydrationTest extends TestCaseForPFW {
+
+	private CountingStrategy strategy;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		strategy = new CountingStrategy();
+		UIDStrategies.setStrategy(TestObject.class, strategy);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		UIDStrategies.setStrategy(TestObject.class, null);
+		Hydration.end();
+		super.tearDown();
+	}
+
+	public void testLoadedObjectsKeepDatabaseValues() throws Exception {
+		List<TestObject> created = new ArrayList<TestObject>();
+		for (int i = 0; i < 5; i++) {
+			created.add(new TestObject("Hydration " + i));
+		}
+		assertEquals("new objects must generate an UID", 5, strategy.count);
+		getPersistenceManager().commit();
+		getPersistenceManager().close();
+		reinitPersistenceManager();
+
+		strategy.count = 0;
+		Collection<IPersistable> loaded = new QueryFactory().newHQLQuery(
+				"from TestObject where text like 'Hydration%' order by text").execute();
+		assertEquals("wrong number of loaded objects", 5, loaded.size());
+		assertEquals("loaded objects must not generate an UID", 0, strategy.count);
+		int i = 0;
+		for (IPersistable object : loaded) {
+			TestObject original = created.get(i++);
+			TestObject copy = (TestObject)object;
+			assertNotSame("object not loaded from database", original, copy);
+			assertEquals("wrong object UID", original.getObjectUId(), copy.getObjectUId());
+			assertEquals("wrong creation date", original.getCreatedAt().getTime(), copy.getCreatedAt().getTime());
+		}
+
+		TestObject fresh = new TestObject("Hydration new");
+		assertEquals("new object after loading must generate an UID", 1, strategy.count);
+		assertNotNull("new object without creation date", fresh.getCreatedAt());
+	}
+
+	public void testMarkOnlyAppliesToItsClass() {
+		Hydration.begin(RelatedObject.class);
+		TestObject object = new TestObject("Hydration other class");
+		assertEquals("object of another class must generate an UID", 1, strategy.count);
+		assertTrue("no object UID", object.getObjectUId() != 0);
+
+		// the mark has been consumed
+		RelatedObject related = new RelatedObject("Hydration related");
+		assertTrue("no object UID", related.getObjectUId() != 0);
+		assertNotNull("no creation date", related.getCreatedAt());
+	}
+
+	public void testNewObjectsKeepGeneratingValues() {
+		long before = System.currentTimeMillis();
+		TestObject object = new TestObject("Hydration created");
+		assertTrue("no object UID", object.getObjectUId() != 0);
+		Timestamp createdAt = object.getCreatedAt();
+		assertNotNull("no creation date", createdAt);
+		assertTrue("wrong creation date", createdAt.getTime() >= before);
+	}
+
+	private static class CountingStrategy implements IUIDStrategy {
+		private volatile int count;
+		private long last;
+
+		public synchronized long nextUID() {
+			count++;
+			return ++last + System.nanoTime();
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.concurrent.CyclicBarrier;
+
+import org.webguitoolkit.persistence.PersistenceManager;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.HibernatePersistenceFrameworkInitializer;
+
+public class InverseOptimisticLockTest extends TestCaseForPFW {
+
+	private static final int THREADS = 5;
+
+	@Override
+	protected HibernatePersistenceFrameworkInitializer createInitializer() {
+		HibernatePersistenceFrameworkInitializer hpfi = super.createInitializer();
+		hpfi.setInverseOptimisticLock(false);
+		return hpfi;
+	}
+
+	@Override
+	protected String getHibernateConfigId() {
+		return "inverseOptimisticLockConfig";
+	}
+
+	public void testWrapperDoesNotMarkParent() throws Exception {
+		TestObject parent = new TestObject("Parent");
+		getPersistenceManager().commit();
+		long version = parent.getVersionNo();
+
+		RelatedObject child = new RelatedObject("Child");
+		parent.getOne2manyWrapped().add(child);
+		assertEquals("parent marked changed", ModificationType.NONE, parent.getModificationType());
+		assertSame("relation not managed", parent, child.getMany2oneWrapped());
+		getPersistenceManager().commit();
+		getPersistenceManager().close();
+
+		TestObject loaded = load(TestObject.class, parent.getId());
+		assertEquals("child not added", 1, loaded.getOne2manyWrapped().size());
+		assertEquals("parent version incremented", version, loaded.getVersionNo());
+	}
+
+	public void testMarkingFollowsMapping() {
+		TestObject parent = new TestObject("Mapping");
+		assertFalse("inverse collection locked", getPersistenceManager().isOptimisticLocked(parent, "one2manyWrapped"));
+		assertTrue("property not locked", getPersistenceManager().isOptimisticLocked(parent, "text"));
+	}
+
+	public void testConcurrentChildren() throws Exception {
+		TestObject parent = new TestObject("Contended parent");
+		getPersistenceManager().commit();
+		final long parentId = parent.getId();
+		long version = parent.getVersionNo();
+
+		runConcurrently(THREADS, new ConcurrentTask() {
+			public void run(int index, PersistenceManager pm, CyclicBarrier loaded) throws Exception {
+				TestObject sharedParent = load(TestObject.class, parentId);
+				sharedParent.getOne2many().size();
+				// all threads add to the same version of the parent
+				loaded.await();
+				sharedParent.addOne2many(new RelatedObject("Child " + index));
+				pm.commit();
+			}
+		});
+
+		getPersistenceManager().close();
+		TestObject reloaded = load(TestObject.class, parentId);
+		assertEquals("children lost", THREADS, reloaded.getOne2many().size());
+		assertEquals("parent version incremented", version, reloaded.getVersionNo());
+	}
+}
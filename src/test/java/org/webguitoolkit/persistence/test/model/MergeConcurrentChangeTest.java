@@ -0,0 +1,72 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.Arrays;
+
+import org.webguitoolkit.persistence.CommitStatistics;
+import org.webguitoolkit.persistence.MergeConflictException;
+import org.webguitoolkit.persistence.PersistenceException;
+import org.webguitoolkit.persistence.UnitOfWork;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.HibernatePersistenceFrameworkInitializer;
+
+public class MergeConcurrentChangeTest extends TestCaseForPFW {
+
+	@Override
+	protected HibernatePersistenceFrameworkInitializer createInitializer() {
+		HibernatePersistenceFrameworkInitializer hpfi = super.createInitializer();
+		hpfi.setMergeConcurrentChanges(true);
+		return hpfi;
+	}
+
+	@Override
+	protected String getHibernateConfigId() {
+		return "mergeConcurrentChangeConfig";
+	}
+
+	public void testDisjointChangesAreMerged() throws Exception {
+		TestObject object = new TestObject("Merge");
+		getPersistenceManager().commit();
+		getPersistenceManager().close();
+		object.setText("Merge local");
+
+		final long id = object.getId();
+		commitConcurrently(new UnitOfWork<Object>() {
+			public Object execute() throws PersistenceException {
+				load(TestObject.class, id).setActive(true);
+				return null;
+			}
+		});
+
+		// both commits changed the modification timestamp and user, which must not conflict
+		CommitStatistics statistics = getPersistenceManager().getCommitStatistics();
+		long merges = statistics.getMergeCount();
+		getPersistenceManager().commit("local");
+		assertEquals("changes not merged", merges + 1, statistics.getMergeCount());
+		assertEquals("object still dirty", ModificationType.NONE, object.getModificationType());
+
+		getPersistenceManager().close();
+		TestObject reloaded = load(TestObject.class, object.getId());
+		assertEquals("local change lost", "Merge local", reloaded.getText());
+		assertTrue("concurrent change lost", reloaded.getActive());
+		assertEquals("local modification user lost", "local", reloaded.getModifiedBy());
+	}
+
+	public void testOverlappingChangesConflict() throws Exception {
+		TestObject object = new TestObject("Conflict");
+		getPersistenceManager().commit();
+		getPersistenceManager().close();
+
+		object.setText("Conflict local");
+		changeTextConcurrently("Conflict database", object);
+
+		try {
+			getPersistenceManager().commit();
+			fail("conflict not detected");
+		}
+		catch (MergeConflictException e) {
+			assertEquals("wrong conflicts", Arrays.asList("text"), e.getConflictingProperties(object));
+		}
+		assertEquals("object not refreshed", "Conflict database", object.getText());
+	}
+}
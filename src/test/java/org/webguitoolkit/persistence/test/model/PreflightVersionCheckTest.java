@@ -0,0 +1,79 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.stat.Statistics;
+import org.webguitoolkit.persistence.StaleObjectsException;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.HibernatePersistenceFrameworkInitializer;
+import org.webguitoolkit.persistence.util.HibernateUtility;
+
+public class PreflightVersionCheckTest extends TestCaseForPFW {
+
+	@Override
+	protected HibernatePersistenceFrameworkInitializer createInitializer() {
+		HibernatePersistenceFrameworkInitializer hpfi = super.createInitializer();
+		hpfi.setPreflightVersionCheck(true);
+		return hpfi;
+	}
+
+	@Override
+	protected Configuration createHibernateConfiguration(boolean createDrop) {
+		// several IN lists per class
+		return super.createHibernateConfiguration(createDrop).setProperty(HibernateUtility.IN_LIST_SIZE, "3").setProperty(
+				"hibernate.generate_statistics", "true");
+	}
+
+	@Override
+	protected String getHibernateConfigId() {
+		return "preflightVersionCheckConfig";
+	}
+
+	public void testStaleObjectsReportedBeforeWriting() throws Exception {
+		List<TestObject> objects = createObjects("Preflight", 8);
+		getPersistenceManager().close();
+		changeTextConcurrently("Preflight concurrent", objects.get(2), objects.get(7));
+
+		for (TestObject object : objects) {
+			object.setText("Preflight changed");
+		}
+		objects.get(5).markModified(ModificationType.DELETED);
+
+		Statistics statistics = getSession().getSessionFactory().getStatistics();
+		statistics.clear();
+		try {
+			getPersistenceManager().commit();
+			fail("stale objects not detected");
+		}
+		catch (StaleObjectsException e) {
+			assertEquals("wrong number of stale objects", 2, e.getStaleObjects().size());
+			assertTrue("stale object not reported", e.getStaleObjects().contains(objects.get(2)));
+			assertTrue("stale object not reported", e.getStaleObjects().contains(objects.get(7)));
+		}
+		assertEquals("objects updated", 0, statistics.getEntityUpdateCount());
+		assertEquals("objects deleted", 0, statistics.getEntityDeleteCount());
+	}
+
+	public void testCurrentObjectsAreCommitted() throws Exception {
+		List<TestObject> objects = createObjects("Current", 4);
+		for (TestObject object : objects) {
+			object.setText("Current changed");
+		}
+		getPersistenceManager().commit();
+		for (TestObject object : objects) {
+			assertEquals("object still dirty", ModificationType.NONE, object.getModificationType());
+		}
+	}
+
+	private List<TestObject> createObjects(String prefix, int count) throws Exception {
+		List<TestObject> objects = new ArrayList<TestObject>();
+		for (int i = 0; i < count; i++) {
+			objects.add(new TestObject(prefix + " " + i));
+		}
+		getPersistenceManager().commit();
+		return objects;
+	}
+}
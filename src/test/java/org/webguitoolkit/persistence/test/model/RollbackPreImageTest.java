@@ -0,0 +1,79 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.webguitoolkit.persistence.CommitStatistics;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+public class RollbackPreImageTest extends TestCaseForPFW {
+
+	public void testRollbackRestoresPreImages() throws Exception {
+		List<TestObject> objects = createObjects("Restore", 5);
+		for (TestObject object : objects) {
+			object.setText("Restore changed");
+		}
+		objects.get(4).markModified(ModificationType.DELETED);
+		assertEquals("pre-images not captured", 5, getPersistenceManager().getRollbackPreImageCount());
+
+		CommitStatistics statistics = getPersistenceManager().getCommitStatistics();
+		long restored = statistics.getRestoredObjectCount();
+		long refreshed = statistics.getRefreshedObjectCount();
+		getPersistenceManager().rollback();
+		assertEquals("objects not restored", restored + 5, statistics.getRestoredObjectCount());
+		assertEquals("objects refreshed", refreshed, statistics.getRefreshedObjectCount());
+		assertEquals("pre-images kept", 0, getPersistenceManager().getRollbackPreImageCount());
+		for (int i = 0; i < objects.size(); i++) {
+			assertEquals("text not restored", "Restore " + i, objects.get(i).getText());
+			assertEquals("object still dirty", ModificationType.NONE, objects.get(i).getModificationType());
+		}
+
+		// the restored state is the state of the database
+		objects.get(0).setText("Restore committed");
+		getPersistenceManager().commit();
+	}
+
+	public void testChangedCollectionIsRefreshed() throws Exception {
+		RelatedObject related = new RelatedObject("Collection related");
+		TestObject object = createObjects("Collection", 1).get(0);
+		object.setText("Collection changed");
+		object.addMany2many(related);
+
+		CommitStatistics statistics = getPersistenceManager().getCommitStatistics();
+		long refreshed = statistics.getRefreshedObjectCount();
+		getPersistenceManager().rollback();
+		assertEquals("object not refreshed", refreshed + 1, statistics.getRefreshedObjectCount());
+		assertEquals("text not refreshed", "Collection 0", object.getText());
+		assertTrue("collection not refreshed", object.getMany2many().isEmpty());
+	}
+
+	public void testPreImagesAreLimited() throws Exception {
+		List<TestObject> objects = createObjects("Limit", 3);
+		getPersistenceManager().setMaxRollbackPreImages(2);
+		for (TestObject object : objects) {
+			object.setText("Limit changed");
+		}
+		assertEquals("pre-images not limited", 2, getPersistenceManager().getRollbackPreImageCount());
+
+		CommitStatistics statistics = getPersistenceManager().getCommitStatistics();
+		long restored = statistics.getRestoredObjectCount();
+		long refreshed = statistics.getRefreshedObjectCount();
+		getPersistenceManager().rollback();
+		assertEquals("objects not restored", restored + 2, statistics.getRestoredObjectCount());
+		assertEquals("object without pre-image not refreshed", refreshed + 1, statistics.getRefreshedObjectCount());
+		for (int i = 0; i < objects.size(); i++) {
+			assertEquals("text not restored", "Limit " + i, objects.get(i).getText());
+		}
+	}
+
+	private List<TestObject> createObjects(String prefix, int count) throws Exception {
+		List<TestObject> objects = new ArrayList<TestObject>();
+		for (int i = 0; i < count; i++) {
+			objects.add(new TestObject(prefix + " " + i));
+		}
+		getPersistenceManager().commit();
+		return objects;
+	}
+}
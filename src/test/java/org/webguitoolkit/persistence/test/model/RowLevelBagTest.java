@@ -0,0 +1,131 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.persister.collection.CollectionPersister;
+import org.hibernate.stat.Statistics;
+import org.webguitoolkit.persistence.model.util.PersistentList;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.HashIndexedList;
+import org.webguitoolkit.persistence.util.RowLevelBag;
+
+public class RowLevelBagTest extends TestCaseForPFW {
+
+	@Override
+	protected Configuration createHibernateConfiguration(boolean createDrop) {
+		return super.createHibernateConfiguration(createDrop).setProperty("hibernate.generate_statistics", "true");
+	}
+
+	@Override
+	protected String getHibernateConfigId() {
+		return "rowLevelBagConfig";
+	}
+
+	public void testRemoveWritesOneRow() throws Exception {
+		TestObject parent = createParent("Remove", 5);
+		getPersistenceManager().close();
+
+		TestObject loaded = load(TestObject.class, parent.getId());
+		List<RelatedObject> list = loaded.getRelatedList();
+		assertTrue("list not wrapped", list instanceof PersistentList<?>);
+		assertTrue("list not mapped as row level bag",
+				((PersistentList<RelatedObject>)list).getDelegate() instanceof RowLevelBag);
+		RelatedObject removed = list.get(2);
+		Statistics statistics = getSession().getSessionFactory().getStatistics();
+		statistics.clear();
+		assertTrue("element not removed", list.remove(removed));
+		assertFalse("element still contained", list.contains(removed));
+		getPersistenceManager().commit();
+		assertEquals("join table recreated", 0, statistics.getCollectionRecreateCount());
+		assertEquals("join table removed", 0, statistics.getCollectionRemoveCount());
+		assertEquals("rows not updated", 1, statistics.getCollectionUpdateCount());
+
+		getPersistenceManager().close();
+		List<RelatedObject> reloaded = load(TestObject.class, parent.getId()).getRelatedList();
+		assertEquals("wrong number of rows", 4, reloaded.size());
+		assertFalse("row not deleted", reloaded.contains(removed));
+	}
+
+	public void testRemoveFromLoadedBagDeletesOneRow() throws Exception {
+		TestObject parent = createParent("Loaded", 5);
+		// a new PersistenceManager reads the elements from the database instead of reusing the objects in use
+		reinitPersistenceManager();
+
+		List<RelatedObject> list = load(TestObject.class, parent.getId()).getRelatedList();
+		RowLevelBag bag = (RowLevelBag)((PersistentList<RelatedObject>)list).getDelegate();
+		RelatedObject removed = list.get(2);
+		assertTrue("loaded element not indexed", list.contains(removed));
+		assertTrue("element not removed", list.remove(removed));
+
+		CollectionPersister persister = ((SessionFactoryImplementor)getSession().getSessionFactory())
+				.getCollectionPersister(TestObject.class.getName() + ".relatedList");
+		assertFalse("join table recreated", bag.needsRecreate(persister));
+		int deletes = 0;
+		for (Iterator<?> it = bag.getDeletes(persister, false); it.hasNext(); it.next()) {
+			deletes++;
+		}
+		assertEquals("wrong number of deleted rows", 1, deletes);
+
+		Statistics statistics = getSession().getSessionFactory().getStatistics();
+		statistics.clear();
+		getPersistenceManager().commit();
+		assertEquals("join table recreated", 0, statistics.getCollectionRecreateCount());
+		getPersistenceManager().close();
+		assertEquals("wrong number of rows", 4, load(TestObject.class, parent.getId()).getRelatedList().size());
+	}
+
+	public void testAddAndSetWriteChangedRows() throws Exception {
+		TestObject parent = createParent("Set", 3);
+		getPersistenceManager().close();
+
+		TestObject loaded = load(TestObject.class, parent.getId());
+		Statistics statistics = getSession().getSessionFactory().getStatistics();
+		statistics.clear();
+		RelatedObject replaced = loaded.getRelatedList().set(0, new RelatedObject("Set replacement"));
+		loaded.getRelatedList().add(new RelatedObject("Set added"));
+		getPersistenceManager().commit();
+		assertEquals("join table recreated", 0, statistics.getCollectionRecreateCount());
+
+		getPersistenceManager().close();
+		List<RelatedObject> reloaded = load(TestObject.class, parent.getId()).getRelatedList();
+		assertEquals("wrong number of rows", 4, reloaded.size());
+		assertFalse("replaced row not deleted", reloaded.contains(replaced));
+	}
+
+	public void testHashIndex() {
+		HashIndexedList<String> list = new HashIndexedList<String>(Arrays.asList("a", "b", "c", "b"));
+		assertTrue("duplicate not detected", list.hasDuplicates());
+		assertEquals("wrong index", 1, list.indexOf("b"));
+		assertEquals("wrong last index", 3, list.lastIndexOf("b"));
+
+		assertTrue("element not removed", list.remove("b"));
+		assertTrue("remaining duplicate lost", list.contains("b"));
+		assertFalse("duplicate still counted", list.hasDuplicates());
+
+		for (Iterator<String> it = list.iterator(); it.hasNext();) {
+			if ("a".equals(it.next())) {
+				it.remove();
+			}
+		}
+		assertFalse("removal by iterator not indexed", list.contains("a"));
+
+		list.subList(0, 1).clear();
+		assertFalse("removal by sub list not indexed", list.contains("c"));
+		assertEquals("wrong elements", Arrays.asList("b"), list);
+		assertEquals("missing element found", -1, list.indexOf("x"));
+	}
+
+	private TestObject createParent(String text, int size) throws Exception {
+		TestObject parent = new TestObject(text);
+		for (int i = 0; i < size; i++) {
+			parent.getRelatedList().add(new RelatedObject(text + " " + i));
+		}
+		getPersistenceManager().commit();
+		return parent;
+	}
+}
@@ -1,6 +1,17 @@
 package org.webguitoolkit.persistence.test.model;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import org.webguitoolkit.persistence.PersistenceContext;
+import org.webguitoolkit.persistence.PersistenceException;
+import org.webguitoolkit.persistence.PersistenceManager;
+import org.webguitoolkit.persistence.UnitOfWork;
 import org.webguitoolkit.persistence.model.IPersistable;
+import org.webguitoolkit.persistence.query.QueryFactory;
 import org.webguitoolkit.persistence.test.BaseHibernateTest;
 import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
 import org.webguitoolkit.persistence.test.testobjects.TestObject;
@@ -10,6 +21,25 @@ public abstract class TestCaseForPFW extends BaseHibernateTest{
 
 	public static final String LOG4J_PFW_XML_FILE = "/log4j-pfw.xml";
 
+	/**
+	 * the user of the commits of {@link #commitConcurrently(UnitOfWork)}
+	 */
+	public static final String CONCURRENT_USER = "concurrent";
+
+	/**
+	 * The work of a thread of {@link TestCaseForPFW#runConcurrently(int, ConcurrentTask)}
+	 */
+	protected interface ConcurrentTask {
+
+		/**
+		 * @param index the index of the thread
+		 * @param pm the PersistenceManager of the thread, it is the current one of the thread and closed afterwards
+		 * @param loaded the barrier of all threads, the threads wait there after loading their objects to change the
+		 *            same versions
+		 */
+		void run(int index, PersistenceManager pm, CyclicBarrier loaded) throws Exception;
+	}
+
 	/**
 	 * 
 	 */
@@ -37,4 +67,103 @@ public abstract class TestCaseForPFW extends BaseHibernateTest{
 	protected String getLog4jXmlFilename() {
 		return LOG4J_PFW_XML_FILE;
 	}
+
+	/**
+	 * Loads the object with the current PersistenceManager of the thread, an object in use is returned as it is.
+	 */
+	protected static <T extends IPersistable> T load(Class<T> type, long id) throws PersistenceException {
+		Collection<IPersistable> result = new QueryFactory().newHQLQuery(
+				"from " + type.getSimpleName() + " where id = " + id).execute();
+		assertEquals("object not found", 1, result.size());
+		return type.cast(result.iterator().next());
+	}
+
+	/**
+	 * Executes the changes with a second PersistenceManager and session and commits them as {@link #CONCURRENT_USER},
+	 * like another user changing the same objects. The objects must be loaded within the unit of work. The
+	 * PersistenceManager of the test is the current one again afterwards.
+	 */
+	protected void commitConcurrently(UnitOfWork<?> changes) throws PersistenceException {
+		PersistenceManager testManager = getPersistenceManager();
+		reinitPersistenceManager();
+		PersistenceManager concurrentManager = getPersistenceManager();
+		setPersistenceManager(testManager);
+		PersistenceContext.setPersistenceManager(concurrentManager);
+		try {
+			changes.execute();
+			concurrentManager.commit(CONCURRENT_USER);
+		}
+		finally {
+			concurrentManager.close();
+			PersistenceContext.setPersistenceManager(testManager);
+		}
+	}
+
+	/**
+	 * Runs the task in threads with an own PersistenceManager and session each and waits for them. A failed thread resets
+	 * the barrier, thus the other threads do not wait forever. Fails if a thread failed.
+	 * 
+	 * @return the PersistenceManagers of the threads by index
+	 */
+	protected List<PersistenceManager> runConcurrently(int threadCount, final ConcurrentTask task) throws Exception {
+		final List<PersistenceManager> managers = new ArrayList<PersistenceManager>();
+		PersistenceManager testManager = getPersistenceManager();
+		for (int i = 0; i < threadCount; i++) {
+			reinitPersistenceManager();
+			managers.add(getPersistenceManager());
+		}
+		setPersistenceManager(testManager);
+		PersistenceContext.setPersistenceManager(testManager);
+
+		final CyclicBarrier loaded = new CyclicBarrier(threadCount);
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < threadCount; i++) {
+			final int index = i;
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					PersistenceManager pm = managers.get(index);
+					PersistenceContext.setPersistenceManager(pm);
+					try {
+						task.run(index, pm, loaded);
+					}
+					catch (Throwable e) {
+						errors.add(e);
+						loaded.reset();
+					}
+					finally {
+						try {
+							pm.close();
+						}
+						catch (PersistenceException e) {
+							errors.add(e);
+						}
+						PersistenceContext.setPersistenceManager(null);
+					}
+				}
+			};
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue("concurrent threads failed: " + errors, errors.isEmpty());
+		return managers;
+	}
+
+	/**
+	 * Sets the text of the objects with {@link #commitConcurrently(UnitOfWork)}, which increments their versions.
+	 */
+	protected void changeTextConcurrently(final String text, final TestObject... objects) throws PersistenceException {
+		commitConcurrently(new UnitOfWork<Object>() {
+			public Object execute() throws PersistenceException {
+				for (TestObject object : objects) {
+					load(TestObject.class, object.getId()).setText(text);
+				}
+				return null;
+			}
+		});
+	}
 }
@@ -0,0 +1,140 @@
+package org.webguitoolkit.persistence.test.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+
+import org.webguitoolkit.persistence.CommitStatistics;
+import org.webguitoolkit.persistence.ConcurrentChangeException;
+import org.webguitoolkit.persistence.PersistenceException;
+import org.webguitoolkit.persistence.PersistenceManager;
+import org.webguitoolkit.persistence.RetryPolicy;
+import org.webguitoolkit.persistence.StaleObjectsException;
+import org.webguitoolkit.persistence.UnitOfWork;
+import org.webguitoolkit.persistence.model.IPersistable;
+import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+public class UnitOfWorkRetryTest extends TestCaseForPFW {
+
+	private static final int THREADS = 8;
+	private static final int INCREMENTS = 3;
+
+	@Override
+	protected String getHibernateConfigId() {
+		return "unitOfWorkRetryConfig";
+	}
+
+	public void testContendedCounter() throws Exception {
+		TestObject counter = new TestObject("0");
+		getPersistenceManager().commit();
+		final long counterId = counter.getId();
+
+		final RetryPolicy policy = new RetryPolicy(THREADS * INCREMENTS, 5, 100);
+		List<PersistenceManager> managers = runConcurrently(THREADS, new ConcurrentTask() {
+			public void run(int index, PersistenceManager pm, final CyclicBarrier loaded) throws Exception {
+				for (int increment = 0; increment < INCREMENTS; increment++) {
+					final boolean first = increment == 0;
+					pm.execute(new UnitOfWork<Object>() {
+						private boolean waited = !first;
+
+						public Object execute() throws PersistenceException {
+							TestObject sharedCounter = load(TestObject.class, counterId);
+							if (!waited) {
+								// all threads increment the same version of the counter
+								waited = true;
+								try {
+									loaded.await();
+								}
+								catch (Exception e) {
+									throw new PersistenceException(e);
+								}
+							}
+							sharedCounter.setText(String.valueOf(Integer.parseInt(sharedCounter.getText()) + 1));
+							return null;
+						}
+					}, policy);
+				}
+			}
+		});
+
+		long retries = 0;
+		long conflicts = 0;
+		for (PersistenceManager pm : managers) {
+			CommitStatistics statistics = pm.getCommitStatistics();
+			assertEquals("retries exhausted", 0, statistics.getExhaustedRetryCount());
+			retries += statistics.getRetryCount();
+			conflicts += statistics.getConflictCount(TestObject.class);
+		}
+		assertTrue("no conflicts counted", conflicts >= THREADS - 1);
+		assertEquals("conflicts not retried", conflicts, retries);
+
+		getPersistenceManager().close();
+		assertEquals("increments lost", String.valueOf(THREADS * INCREMENTS), load(TestObject.class, counterId)
+				.getText());
+	}
+
+	public void testRetriesAreBounded() throws Exception {
+		final TestObject object = new TestObject("Bounded");
+		getPersistenceManager().commit();
+
+		CommitStatistics statistics = getPersistenceManager().getCommitStatistics();
+		statistics.reset();
+		final int[] attempts = new int[1];
+		try {
+			getPersistenceManager().execute(new UnitOfWork<Object>() {
+				public Object execute() throws PersistenceException {
+					attempts[0]++;
+					object.setText("Bounded changed");
+					throw new StaleObjectsException("Always stale", Collections.<IPersistable> singletonList(object));
+				}
+			}, new RetryPolicy(3, 0, 0));
+			fail("conflict not passed to the caller");
+		}
+		catch (ConcurrentChangeException e) {
+			// expected
+		}
+		assertEquals("wrong number of attempts", 3, attempts[0]);
+		assertEquals("wrong number of retries", 2, statistics.getRetryCount());
+		assertEquals("exhausted retries not counted", 1, statistics.getExhaustedRetryCount());
+		assertEquals("conflicts not counted", 3, statistics.getConflictCount(TestObject.class));
+		assertEquals("changes not rolled back", "Bounded", object.getText());
+	}
+
+	public void testFailedUnitOfWorkIsRolledBack() throws Exception {
+		final TestObject object = new TestObject("Failed");
+		getPersistenceManager().commit();
+
+		try {
+			getPersistenceManager().execute(new UnitOfWork<Object>() {
+				public Object execute() throws PersistenceException {
+					object.setText("Failed changed");
+					throw new IllegalStateException("Failed unit of work");
+				}
+			});
+			fail("failure not passed to the caller");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		assertEquals("changes not rolled back", "Failed", object.getText());
+		assertEquals("object still dirty", ModificationType.NONE, object.getModificationType());
+
+		// an unrelated commit must not write the changes of the failed unit of work
+		new TestObject("Unrelated");
+		getPersistenceManager().commit();
+		getPersistenceManager().close();
+		assertEquals("changes of the failed unit of work committed", "Failed", load(TestObject.class, object.getId())
+				.getText());
+	}
+
+	public void testBackoff() {
+		RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+		for (int attempt = 1; attempt < 10; attempt++) {
+			long full = Math.min(100L << (attempt - 1), 1000);
+			long backoff = policy.getBackoffMillis(attempt);
+			assertTrue("backoff too short: " + backoff, backoff >= full / 2);
+			assertTrue("backoff too long: " + backoff, backoff <= full);
+		}
+	}
+}
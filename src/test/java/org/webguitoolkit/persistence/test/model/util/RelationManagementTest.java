@@ -1,8 +1,10 @@
 package org.webguitoolkit.persistence.test.model.util;
 
+import java.util.HashSet;
 import java.util.Set;
 
 import org.webguitoolkit.persistence.model.IPersistable.ModificationType;
+import org.webguitoolkit.persistence.model.util.PersistentSet;
 import org.webguitoolkit.persistence.test.model.TestCaseForPFW;
 import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
 import org.webguitoolkit.persistence.test.testobjects.TestObject;
@@ -26,4 +28,22 @@ public class RelationManagementTest extends TestCaseForPFW {
 		
 		assertTrue(berlin.getModificationType() == ModificationType.CHANGED );
 	}
+
+	public void testWrapperCached() throws Exception {
+		TestObject berlin = new TestObject("Berlin");
+		Set<RelatedObject> wrapper = berlin.getOne2manyWrapped();
+		assertTrue("collection not wrapped", wrapper instanceof PersistentSet<?>);
+		assertSame("wrapper not cached", wrapper, berlin.getOne2manyWrapped());
+
+		// a new collection gets a new wrapper
+		Set<RelatedObject> replacement = new HashSet<RelatedObject>();
+		berlin.setOne2manyWrapped(replacement);
+		Set<RelatedObject> newWrapper = berlin.getOne2manyWrapped();
+		assertNotSame("wrapper of the replaced collection returned", wrapper, newWrapper);
+		assertSame("wrong collection wrapped", replacement, ((PersistentSet<RelatedObject>)newWrapper).getDelegate());
+		assertSame("wrapper not cached", newWrapper, berlin.getOne2manyWrapped());
+
+		// unwrapped collections are not affected
+		assertFalse("collection wrapped", berlin.getOne2many() instanceof PersistentSet<?>);
+	}
 }
@@ -0,0 +1,52 @@
+package org.webguitoolkit.persistence.test.registration;
+
+import java.util.Collection;
+
+import org.webguitoolkit.persistence.PersistenceManager;
+import org.webguitoolkit.persistence.query.hibernate.AllOfAKindQuery;
+import org.webguitoolkit.persistence.test.model.TestCaseForPFW;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+public class ObjectsInUseIndexTest extends TestCaseForPFW {
+
+	public void testFindObjectInUse() throws Exception {
+		PersistenceManager pm = getPersistenceManager();
+		TestObject object = new TestObject("indexed");
+		assertNull("new object in use", pm.findObjectInUseByObjectUId(object.getObjectUId()));
+		pm.commit();
+
+		assertSame("saved object not found by id", object, pm.findObjectInUse(TestObject.class.getName(), object.getId()));
+		assertSame("saved object not found by UID", object, pm.findObjectInUseByObjectUId(object.getObjectUId()));
+		assertNull("found with wrong entity name", pm.findObjectInUse(RelatedObject.class.getName(), object.getId()));
+
+		pm.removeObjectInUse(object);
+		assertNull("removed object found", pm.findObjectInUse(TestObject.class.getName(), object.getId()));
+		assertNull("removed object found", pm.findObjectInUseByObjectUId(object.getObjectUId()));
+	}
+
+	public void testLazyAttachUsesObjectInUse() throws Exception {
+		TestObject object = new TestObject("lazy");
+		getPersistenceManager().commit();
+		getPersistenceManager().close();
+
+		// the query does not attach the object in use but the interceptor returns it
+		AllOfAKindQuery<TestObject> query = new AllOfAKindQuery<TestObject>(getPersistenceManager(), TestObject.class);
+		Collection<TestObject> result = query.execute();
+		assertSame("object in use not returned", object, result.iterator().next());
+	}
+
+	public void testGarbageCollectedObjectRemoved() throws Exception {
+		TestObject object = new TestObject("collected");
+		getPersistenceManager().commit();
+		long objectUId = object.getObjectUId();
+		getPersistenceManager().close();
+		object = null;
+
+		for (int i = 0; i < 20 && getPersistenceManager().findObjectInUseByObjectUId(objectUId) != null; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		assertNull("collected object still indexed", getPersistenceManager().findObjectInUseByObjectUId(objectUId));
+	}
+}
@@ -2,6 +2,7 @@ package org.webguitoolkit.persistence.test.testobjects;
 
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -23,9 +24,11 @@ import javax.persistence.OrderBy;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 
+import org.hibernate.annotations.CollectionType;
 import org.webguitoolkit.persistence.Persistable;
 import org.webguitoolkit.persistence.model.RelationManagement;
 import org.webguitoolkit.persistence.model.util.WrapWithObserver;
+import org.webguitoolkit.persistence.util.HashIndexedList;
 
 
 @Entity
@@ -82,6 +85,13 @@ public class TestObject extends Persistable implements ITextable {
 	@RelationManagement(thisSide="one2manyWrapped", relationSide="many2oneWrapped")
 	private Set<RelatedObject> one2manyWrapped;
 
+	// MANY 2 MANY LIST
+	@ManyToMany( fetch=FetchType.LAZY )
+	@JoinTable(name = "MANY2MANY_LIST", joinColumns = { @JoinColumn(name = "TESTOBJECT_ID") }, inverseJoinColumns = { @JoinColumn(name = "RELATED_ID") })
+	@CollectionType(type = "org.webguitoolkit.persistence.util.RowLevelBagType")
+	@WrapWithObserver()
+	private List<RelatedObject> relatedList;
+
 	/**
 	 * Default constructor required by Hibernate
 	 */
@@ -91,6 +101,7 @@ public class TestObject extends Persistable implements ITextable {
 		many2many = new HashSet<RelatedObject>();
 		one2many = new HashSet<RelatedObject>();
 		one2manyWrapped = new HashSet<RelatedObject>();
+		relatedList = new HashIndexedList<RelatedObject>();
 	}
 	
 	public TestObject(String text) {
@@ -242,4 +253,11 @@ public class TestObject extends Persistable implements ITextable {
 		return one2manyWrapped;
 	}
 
+	/**
+	 * @return the relatedList
+	 */
+	public List<RelatedObject> getRelatedList() {
+		return relatedList;
+	}
+
 }
@@ -0,0 +1,44 @@
+package org.webguitoolkit.persistence.test.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.hibernate.EmptyInterceptor;
+import org.hibernate.EntityMode;
+import org.webguitoolkit.persistence.Hydration;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.ChainedHydrationInterceptor;
+
+public class ChainedHydrationInterceptorTest extends TestCase {
+
+	public void testConfiguredInterceptorIsCalled() {
+		final List<String> instantiated = new ArrayList<String>();
+		ChainedHydrationInterceptor interceptor = new ChainedHydrationInterceptor(new EmptyInterceptor() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public Object instantiate(String entityName, EntityMode entityMode, Serializable id) {
+				instantiated.add(entityName);
+				return null;
+			}
+
+			@Override
+			public String onPrepareStatement(String sql) {
+				return sql + " /* configured */";
+			}
+		});
+
+		try {
+			assertNull("object instantiated", interceptor.instantiate(TestObject.class.getName(), EntityMode.POJO, Long
+					.valueOf(1)));
+		}
+		finally {
+			Hydration.end();
+		}
+		assertEquals("instantiation not passed on", 1, instantiated.size());
+		assertEquals("statement not passed on", "select 1 /* configured */", interceptor.onPrepareStatement("select 1"));
+	}
+}
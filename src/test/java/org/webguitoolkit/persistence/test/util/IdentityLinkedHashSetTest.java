@@ -0,0 +1,63 @@
+package org.webguitoolkit.persistence.test.util;
+
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.webguitoolkit.persistence.util.IdentityLinkedHashSet;
+
+public class IdentityLinkedHashSetTest extends TestCase {
+
+	public void testInsertionOrder() throws Exception {
+		IdentityLinkedHashSet<Integer> set = new IdentityLinkedHashSet<Integer>();
+		Integer[] values = new Integer[1000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = new Integer(i);
+			assertTrue("not added", set.add(values[i]));
+		}
+		assertFalse("added twice", set.add(values[10]));
+		assertEquals("wrong size", values.length, set.size());
+
+		// remove every second element
+		for (int i = 0; i < values.length; i += 2) {
+			assertTrue("not removed", set.remove(values[i]));
+		}
+		assertEquals("wrong size", values.length / 2, set.size());
+
+		int expected = 1;
+		for (Integer value : set) {
+			assertSame("wrong order", values[expected], value);
+			expected += 2;
+		}
+	}
+
+	public void testIdentity() throws Exception {
+		IdentityLinkedHashSet<String> set = new IdentityLinkedHashSet<String>();
+		String one = new String("value");
+		String two = new String("value");
+		assertTrue(set.add(one));
+		assertTrue("equal but not identical object must be added", set.add(two));
+		assertTrue(set.contains(one));
+		assertFalse(set.contains(new String("value")));
+		assertTrue(set.remove(two));
+		assertTrue(set.contains(one));
+		assertFalse(set.contains(two));
+	}
+
+	public void testIteratorRemoveAndClear() throws Exception {
+		IdentityLinkedHashSet<Object> set = new IdentityLinkedHashSet<Object>();
+		for (int i = 0; i < 100; i++) {
+			set.add(new Object());
+		}
+		for (Iterator<Object> it = set.iterator(); it.hasNext();) {
+			it.next();
+			it.remove();
+		}
+		assertTrue(set.isEmpty());
+
+		set.add(new Object());
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertFalse(set.iterator().hasNext());
+	}
+}
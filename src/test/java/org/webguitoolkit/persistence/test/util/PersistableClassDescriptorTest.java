@@ -0,0 +1,96 @@
+package org.webguitoolkit.persistence.test.util;
+
+import org.webguitoolkit.persistence.test.model.TestCaseForPFW;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.PersistableClassDescriptor;
+import org.webguitoolkit.persistence.util.PersistableClassDescriptor.MethodDescriptor;
+
+public class PersistableClassDescriptorTest extends TestCaseForPFW {
+
+	public void testRegisteredAtStartup() {
+		PersistableClassDescriptor descriptor = PersistableClassDescriptor.getRegistered(TestObject.class);
+		assertNotNull("mapped class not registered", descriptor);
+		assertNotNull("mapped class not registered", PersistableClassDescriptor.getRegistered(RelatedObject.class));
+		assertNotNull("no config id", descriptor.getConfigId());
+	}
+
+	public void testConflictingRegistrations() {
+		PersistableClassDescriptor.register(new PersistableClassDescriptor(Conflicting.class, "configA", null,
+				new String[] { "text", "active" }));
+		PersistableClassDescriptor.register(new PersistableClassDescriptor(Conflicting.class, "configB", null,
+				new String[] { "active", "text" }));
+		assertEquals("index of another configuration used", -1, PersistableClassDescriptor.forClass(Conflicting.class)
+				.getPropertyIndex("text"));
+		assertEquals("wrong index", 0, PersistableClassDescriptor.getRegistered("configA", Conflicting.class)
+				.getPropertyIndex("text"));
+		assertEquals("wrong index", 1, PersistableClassDescriptor.getRegistered("configB", Conflicting.class)
+				.getPropertyIndex("text"));
+
+		// registering the configuration again must not resolve the conflict
+		PersistableClassDescriptor.register(new PersistableClassDescriptor(Conflicting.class, "configA", null,
+				new String[] { "text", "active" }));
+		assertEquals("index of another configuration used", -1, PersistableClassDescriptor.forClass(Conflicting.class)
+				.getPropertyIndex("text"));
+	}
+
+	public void testSameMappingShared() {
+		PersistableClassDescriptor.register(new PersistableClassDescriptor(Shared.class, "configA", null,
+				new String[] { "text", "active" }));
+		PersistableClassDescriptor.register(new PersistableClassDescriptor(Shared.class, "configB", null,
+				new String[] { "text", "active" }));
+		assertEquals("wrong index", 1, PersistableClassDescriptor.forClass(Shared.class).getPropertyIndex("active"));
+	}
+
+	public void testSetter() {
+		MethodDescriptor setText = PersistableClassDescriptor.forClass(TestObject.class).getMethod("setText");
+		assertEquals("wrong property name", "text", setText.getPropertyName());
+		assertFalse("text is persistent", setText.isTransient());
+		assertEquals("wrong length", 60, setText.getLength());
+		assertNull("no relation method", setText.getRelation());
+
+		MethodDescriptor setActive = PersistableClassDescriptor.forClass(TestObject.class).getMethod("setActive");
+		assertEquals("no length for boolean", -1, setActive.getLength());
+	}
+
+	public void testTransient() {
+		MethodDescriptor method = PersistableClassDescriptor.forClass(TestObject.class).getMethod("setTransientValue");
+		assertTrue("transientValue is transient", method.isTransient());
+		// fields of the superclass
+		assertTrue("modificationType is transient", PersistableClassDescriptor.isTransient(TestObject.class,
+				"modificationType"));
+		assertFalse("unknown field is not transient", PersistableClassDescriptor.isTransient(TestObject.class,
+				"unknownField"));
+	}
+
+	public void testRelation() {
+		PersistableClassDescriptor descriptor = PersistableClassDescriptor.forClass(TestObject.class);
+		MethodDescriptor add = descriptor.getMethod("addMyMessage");
+		assertEquals("wrong property name", "myMessage", add.getPropertyName());
+		assertNotNull("missing relation management", add.getRelation());
+		assertEquals("wrong relation side", "parentMessage", add.getRelation().relationSide());
+
+		MethodDescriptor remove = descriptor.getMethod("removeOne2many");
+		assertEquals("wrong property name", "one2many", remove.getPropertyName());
+		assertNotNull("missing relation management", remove.getRelation());
+		assertNull("no relation management", descriptor.getMethod("setNextMessage").getRelation());
+	}
+
+	public void testLengthCutBySetter() {
+		TestObject object = new TestObject("Descriptor");
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			text.append('x');
+		}
+		object.setText(text.toString());
+		assertEquals("text not cut", 60, object.getText().length());
+	}
+
+	private static class Conflicting {
+		// mapped differently by two configurations
+	}
+
+	private static class Shared {
+		// mapped alike by two configurations
+	}
+}
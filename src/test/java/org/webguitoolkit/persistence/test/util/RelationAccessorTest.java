@@ -0,0 +1,48 @@
+package org.webguitoolkit.persistence.test.util;
+
+import junit.framework.TestCase;
+
+import org.webguitoolkit.persistence.model.RelationAccessor;
+import org.webguitoolkit.persistence.model.RelationAccessor.Cardinality;
+import org.webguitoolkit.persistence.test.testobjects.RelatedObject;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+
+public class RelationAccessorTest extends TestCase {
+
+	public void testCardinality() throws Exception {
+		assertEquals(Cardinality.ONE_TO_MANY, RelationAccessor.forField(TestObject.class, "one2many").getCardinality());
+		assertEquals(Cardinality.MANY_TO_ONE, RelationAccessor.forField(RelatedObject.class, "many2one").getCardinality());
+		assertEquals(Cardinality.ONE_TO_ONE, RelationAccessor.forField(TestObject.class, "one2one").getCardinality());
+		assertEquals(Cardinality.MANY_TO_MANY, RelationAccessor.forField(TestObject.class, "many2many").getCardinality());
+		assertEquals(Cardinality.NONE, RelationAccessor.forField(TestObject.class, "text").getCardinality());
+	}
+
+	public void testMarkChange() throws Exception {
+		RelationAccessor inverse = RelationAccessor.forField(TestObject.class, "one2many");
+		assertEquals("wrong mappedBy", "many2one", inverse.getMappedBy());
+		assertFalse("inverse side must not mark changed", inverse.isMarkChange());
+		assertTrue("is a collection", inverse.isCollection());
+
+		RelationAccessor owner = RelationAccessor.forField(RelatedObject.class, "many2one");
+		assertNull("owning side has no mappedBy", owner.getMappedBy());
+		assertTrue("owning side must mark changed", owner.isMarkChange());
+		assertFalse("is not a collection", owner.isCollection());
+	}
+
+	public void testCached() throws Exception {
+		assertSame("accessor not cached", RelationAccessor.forField(TestObject.class, "one2many"), RelationAccessor
+				.forField(TestObject.class, "one2many"));
+		// fields of the superclass
+		assertNotNull(RelationAccessor.forField(TestObject.class, "createdBy"));
+	}
+
+	public void testUnknownField() {
+		try {
+			RelationAccessor.forField(TestObject.class, "unknownField");
+			fail("NoSuchFieldException expected");
+		}
+		catch (NoSuchFieldException e) {
+			// expected
+		}
+	}
+}
@@ -1,11 +1,17 @@
 package org.webguitoolkit.persistence.test.util;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 
 import junit.framework.TestCase;
 
+import org.webguitoolkit.persistence.util.IUIDStrategy;
+import org.webguitoolkit.persistence.util.RandomUIDStrategy;
+import org.webguitoolkit.persistence.util.SnowflakeUIDStrategy;
 import org.webguitoolkit.persistence.util.UIDGenerator;
+import org.webguitoolkit.persistence.util.UIDStrategies;
 
 public class UIDGeneratorTest extends TestCase{
 
@@ -16,4 +22,106 @@ public class UIDGeneratorTest extends TestCase{
 			assertEquals("Double Id", i+1, ids.size() );
 		}
 	}
+
+	public void testSnowflakeUID() throws Exception {
+		SnowflakeUIDStrategy strategy = new SnowflakeUIDStrategy(5);
+		long before = System.currentTimeMillis();
+		long last = 0;
+		for (int i = 0; i < 100000; i++) {
+			long uid = strategy.nextUID();
+			assertTrue("UIDs not increasing", uid > last);
+			last = uid;
+		}
+		assertTrue("negative UID", last > 0);
+		assertEquals("wrong node", 5, (last >>> SnowflakeUIDStrategy.SEQUENCE_BITS) & SnowflakeUIDStrategy.MAX_NODE);
+		// the sequence may run ahead of the clock by some milliseconds
+		assertTrue("wrong timestamp", SnowflakeUIDStrategy.getTimestamp(last) >= before);
+	}
+
+	public void testSnowflakeUIDMultiThreaded() throws Exception {
+		final SnowflakeUIDStrategy strategy = new SnowflakeUIDStrategy();
+		final int threadCount = 32;
+		final int uidsPerThread = 50000;
+		final long[][] uids = new long[threadCount][uidsPerThread];
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			final long[] threadUids = uids[t];
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					}
+					catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < uidsPerThread; i++) {
+						threadUids[i] = strategy.nextUID();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		long[] all = new long[threadCount * uidsPerThread];
+		for (int t = 0; t < threadCount; t++) {
+			for (int i = 0; i < uidsPerThread; i++) {
+				if (i > 0) {
+					assertTrue("UIDs of a thread not increasing", uids[t][i] > uids[t][i - 1]);
+				}
+			}
+			System.arraycopy(uids[t], 0, all, t * uidsPerThread, uidsPerThread);
+		}
+		Arrays.sort(all);
+		for (int i = 1; i < all.length; i++) {
+			assertTrue("Double Id " + all[i], all[i] != all[i - 1]);
+		}
+	}
+
+	public void testSnowflakeNodeProperty() throws Exception {
+		String property = System.getProperty(SnowflakeUIDStrategy.NODE_PROPERTY);
+		try {
+			System.setProperty(SnowflakeUIDStrategy.NODE_PROPERTY, "7");
+			assertEquals("node of the property not used", 7, SnowflakeUIDStrategy.getDefaultNode());
+			System.setProperty(SnowflakeUIDStrategy.NODE_PROPERTY, "1024");
+			try {
+				SnowflakeUIDStrategy.getDefaultNode();
+				fail("invalid node accepted");
+			}
+			catch (IllegalStateException e) {
+				// expected
+			}
+			// the node is resolved on the first UID
+			SnowflakeUIDStrategy strategy = new SnowflakeUIDStrategy();
+			System.setProperty(SnowflakeUIDStrategy.NODE_PROPERTY, "9");
+			strategy.nextUID();
+			assertEquals("node not resolved lazily", 9, strategy.getNode());
+		}
+		finally {
+			if (property == null) {
+				System.clearProperty(SnowflakeUIDStrategy.NODE_PROPERTY);
+			}
+			else {
+				System.setProperty(SnowflakeUIDStrategy.NODE_PROPERTY, property);
+			}
+		}
+	}
+
+	public void testStrategyPerBaseClass() throws Exception {
+		IUIDStrategy random = new RandomUIDStrategy();
+		try {
+			UIDStrategies.setStrategy(Number.class, random);
+			assertSame("strategy of base class not used", random, UIDStrategies.getStrategy(Integer.class));
+			assertSame("default strategy not used", UIDStrategies.getDefaultStrategy(), UIDStrategies.getStrategy(String.class));
+		}
+		finally {
+			UIDStrategies.setStrategy(Number.class, null);
+		}
+		assertSame("strategy not removed", UIDStrategies.getDefaultStrategy(), UIDStrategies.getStrategy(Integer.class));
+	}
 }
@@ -0,0 +1,88 @@
+package org.webguitoolkit.persistence.test.util;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.webguitoolkit.persistence.test.model.TestCaseForPFW;
+import org.webguitoolkit.persistence.test.testobjects.TestObject;
+import org.webguitoolkit.persistence.util.WeakHashSet;
+import org.webguitoolkit.persistence.util.WeakPersistableRegistry;
+
+public class WeakPersistableRegistryTest extends TestCaseForPFW {
+
+	public void testAddRemove() throws Exception {
+		WeakPersistableRegistry<TestObject> registry = new WeakPersistableRegistry<TestObject>();
+		List<TestObject> objects = createObjects(10000);
+		for (TestObject object : objects) {
+			assertTrue("not added", registry.add(object));
+		}
+		assertFalse("added twice", registry.add(objects.get(10)));
+		assertEquals("wrong size", objects.size(), registry.size());
+
+		// remove every second object, the remaining objects must still be found after the entries were shifted
+		for (int i = 0; i < objects.size(); i += 2) {
+			assertTrue("not removed", registry.remove(objects.get(i)));
+		}
+		assertEquals("wrong size", objects.size() / 2, registry.size());
+		for (int i = 0; i < objects.size(); i++) {
+			assertEquals("wrong contains for " + i, i % 2 == 1, registry.contains(objects.get(i)));
+		}
+		assertSame("wrong object by UID", objects.get(1), registry.get(objects.get(1).getObjectUId()));
+		assertEquals("wrong snapshot size", objects.size() / 2, registry.snapshot().size());
+	}
+
+	public void testIteratorRemoveAndClear() throws Exception {
+		WeakPersistableRegistry<TestObject> registry = new WeakPersistableRegistry<TestObject>();
+		List<TestObject> objects = createObjects(100);
+		registry.addAll(objects);
+		for (Iterator<TestObject> it = registry.iterator(); it.hasNext();) {
+			TestObject object = it.next();
+			// modifications while iterating are allowed
+			registry.remove(object);
+			registry.add(object);
+			it.remove();
+		}
+		assertTrue("not empty", registry.isEmpty());
+
+		registry.addAll(objects);
+		registry.clear();
+		assertTrue("not empty after clear", registry.isEmpty());
+		assertFalse("found after clear", registry.contains(objects.get(0)));
+		assertTrue("not added after clear", registry.add(objects.get(0)));
+	}
+
+	public void testCollectedObjectsRemoved() throws Exception {
+		WeakPersistableRegistry<TestObject> registry = new WeakPersistableRegistry<TestObject>();
+		List<TestObject> objects = createObjects(1000);
+		registry.addAll(objects);
+		TestObject kept = objects.get(500);
+		objects = null;
+		for (int i = 0; i < 20 && registry.size() > 1; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		assertEquals("collected objects not removed", 1, registry.size());
+		assertTrue("strongly referenced object removed", registry.contains(kept));
+	}
+
+	public void testWeakHashSetIsEmpty() throws Exception {
+		WeakHashSet<TestObject> set = new WeakHashSet<TestObject>();
+		assertTrue("new set not empty", set.isEmpty());
+		TestObject object = new TestObject("one");
+		set.add(object);
+		assertFalse("set with element empty", set.isEmpty());
+		set.clear();
+		assertTrue("cleared set not empty", set.isEmpty());
+	}
+
+	private List<TestObject> createObjects(int count) {
+		List<TestObject> objects = new ArrayList<TestObject>(count);
+		for (int i = 0; i < count; i++) {
+			objects.add(new TestObject("Object " + i));
+		}
+		// the objects are not committed
+		getPersistenceManager().clearDirtyObjects();
+		return objects;
+	}
+}